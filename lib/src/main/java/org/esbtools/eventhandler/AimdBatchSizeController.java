@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+
+/**
+ * Adjusts batch size with additive increase, multiplicative decrease, as in TCP congestion
+ * control.
+ *
+ * <p>While batches come back full and finish within the target latency without any timeouts, the
+ * batch size grows by a fixed step each batch, to find how much can be handled at once. As soon
+ * as a batch is too slow, or too many of its messages time out, the batch size is cut by a
+ * factor, backing off quickly from overload. Batches which are not full say nothing about whether
+ * a larger size would be handled, so they leave the size as it is, unless they were too slow.
+ *
+ * <p>The batch size always stays within the configured minimum and maximum.
+ */
+public class AimdBatchSizeController implements BatchSizeController {
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final int increaseStep;
+    private final double decreaseFactor;
+    private final Duration targetLatency;
+    private final double maxTimeoutRate;
+
+    /** Guarded by this. */
+    private int batchSize;
+
+    private static final Logger log = LoggerFactory.getLogger(AimdBatchSizeController.class);
+
+    /**
+     * Uses an increase step of 10% of the maximum batch size (at least 1), halves the batch size
+     * on decrease, and decreases on any timeout.
+     *
+     * @see #AimdBatchSizeController(int, int, int, int, double, Duration, double)
+     */
+    public AimdBatchSizeController(int initialBatchSize, int minBatchSize, int maxBatchSize,
+            Duration targetLatency) {
+        this(initialBatchSize, minBatchSize, maxBatchSize, Math.max(1, maxBatchSize / 10), 0.5,
+                targetLatency, 0);
+    }
+
+    /**
+     * @param increaseStep How much to grow the batch size after a full batch which finished in
+     *                     time, without timeouts.
+     * @param decreaseFactor What to multiply the batch size by after a batch which was too slow
+     *                       or had too many timeouts. Between 0 and 1, exclusive.
+     * @param targetLatency How long a batch may take, from retrieval through publishing, before
+     *                      the batch size is decreased.
+     * @param maxTimeoutRate The fraction of a batch's messages which may time out before the batch
+     *                       size is decreased. With 0, any timeout decreases it.
+     */
+    public AimdBatchSizeController(int initialBatchSize, int minBatchSize, int maxBatchSize,
+            int increaseStep, double decreaseFactor, Duration targetLatency,
+            double maxTimeoutRate) {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException("Batch size bounds must satisfy " +
+                    "1 <= minBatchSize <= maxBatchSize, but were: " + minBatchSize + ", " +
+                    maxBatchSize);
+        }
+
+        if (increaseStep < 1) {
+            throw new IllegalArgumentException("Increase step must be positive, but was: " +
+                    increaseStep);
+        }
+
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Decrease factor must be between 0 and 1 " +
+                    "exclusive, but was: " + decreaseFactor);
+        }
+
+        if (maxTimeoutRate < 0 || maxTimeoutRate >= 1) {
+            throw new IllegalArgumentException("Max timeout rate must be at least 0 and less " +
+                    "than 1, but was: " + maxTimeoutRate);
+        }
+
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.increaseStep = increaseStep;
+        this.decreaseFactor = decreaseFactor;
+        this.targetLatency = targetLatency;
+        this.maxTimeoutRate = maxTimeoutRate;
+        this.batchSize = bound(initialBatchSize);
+    }
+
+    @Override
+    public synchronized int currentBatchSize() {
+        return batchSize;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @Override
+    public synchronized void onBatchProcessed(int batchSize, int retrieved, int timedOut,
+            Duration elapsed) {
+        int previous = this.batchSize;
+
+        boolean tooSlow = elapsed.compareTo(targetLatency) > 0;
+        boolean tooManyTimeouts = retrieved > 0 && timedOut > maxTimeoutRate * retrieved;
+
+        if (tooSlow || tooManyTimeouts) {
+            this.batchSize = bound((int) (previous * decreaseFactor));
+        } else if (retrieved >= batchSize && timedOut == 0) {
+            this.batchSize = bound(previous + increaseStep);
+        }
+
+        if (this.batchSize != previous) {
+            log.debug("Batch size changed from {} to {}. Last batch retrieved {} of {} in {} " +
+                    "with {} timed out.", previous, this.batchSize, retrieved, batchSize,
+                    elapsed, timedOut);
+        }
+    }
+
+    private int bound(int batchSize) {
+        return Math.max(minBatchSize, Math.min(maxBatchSize, batchSize));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AimdBatchSizeController{" +
+                "batchSize=" + batchSize +
+                ", minBatchSize=" + minBatchSize +
+                ", maxBatchSize=" + maxBatchSize +
+                ", increaseStep=" + increaseStep +
+                ", decreaseFactor=" + decreaseFactor +
+                ", targetLatency=" + targetLatency +
+                ", maxTimeoutRate=" + maxTimeoutRate +
+                '}';
+    }
+}
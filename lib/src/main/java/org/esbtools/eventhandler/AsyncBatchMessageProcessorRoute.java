@@ -24,8 +24,11 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -49,7 +52,9 @@ public class AsyncBatchMessageProcessorRoute extends RouteBuilder {
      *                {@code messageFactory} to parse them into {@link Message}s.
      * @param failureUri Endpoint where failures will be sent to as a {@code Collection} of
      *                   {@link FailedMessage}s.
-     * @param processTimeout How to long to wait for a message process before timing out?
+     * @param processTimeout How to long to wait for a batch of messages to process before timing
+     *                       out? Messages which are still processing once this has elapsed are
+     *                       cancelled and sent to the failure endpoint.
      * @param messageFactory Accepts each element in the exchange body {@code Collection} and
      *                       parses them to create message implementations which will be processed.
      */
@@ -117,27 +122,49 @@ public class AsyncBatchMessageProcessorRoute extends RouteBuilder {
                     ? new ArrayList<>(processingMessages.size())
                     : Collections.emptyList();
 
-            // Wait for processing to complete.
-            for (ProcessingMessage processingMsg : processingMessages) {
-                try {
-                    processingMsg.future.get(processTimeout.toMillis(), TimeUnit.MILLISECONDS);
-
-                    if (log.isDebugEnabled()) {
-                        processedSuccessfully.add(processingMsg.parsedMessage);
-                    }
-                } catch (ExecutionException e) {
-                    log.error("Failed to process message: " + processingMsg.parsedMessage, e);
-                    FailedMessage failure = new FailedMessage(processingMsg.originalMessage,
-                            processingMsg.parsedMessage, e.getCause());
-                    failures.add(failure);
-                } catch (InterruptedException | TimeoutException e) {
-                    log.warn("Timed out processing message: " + processingMsg.parsedMessage, e);
-                    FailedMessage failure = new FailedMessage(
-                            processingMsg.originalMessage, processingMsg.parsedMessage, e);
-                    failures.add(failure);
+            // Wait for processing to complete, up to one deadline for the whole batch.
+            long deadlineNanos = System.nanoTime() + processTimeout.toNanos();
+            List<ProcessingMessage> stillProcessing = new LinkedList<>(processingMessages);
+
+            while (!stillProcessing.isEmpty()) {
+                // Gather whatever has already completed, so one slow message at the front of the
+                // batch does not hold up the others.
+                gatherDone(stillProcessing, processedSuccessfully, failures);
+
+                if (stillProcessing.isEmpty()) {
+                    break;
+                }
+
+                // Nothing else is done yet, so wait on the next message with whatever time is
+                // left. This also starts processing of lazy futures which only do work once
+                // waited upon.
+                long remainingNanos = deadlineNanos - System.nanoTime();
+
+                if (remainingNanos <= 0) {
+                    break;
+                }
+
+                if (!gatherResult(stillProcessing.remove(0), remainingNanos,
+                        processedSuccessfully, failures)) {
+                    break;
                 }
             }
 
+            // Messages may have finished while we were blocked waiting on another which then
+            // timed out. Those are not timeouts; reporting them as failures would process them
+            // again.
+            gatherDone(stillProcessing, processedSuccessfully, failures);
+
+            for (ProcessingMessage processingMsg : stillProcessing) {
+                processingMsg.future.cancel(true);
+
+                TimeoutException timeout = new TimeoutException("Batch did not finish processing " +
+                        "within " + processTimeout + ".");
+                log.warn("Timed out processing message: " + processingMsg.parsedMessage, timeout);
+                failures.add(new FailedMessage(
+                        processingMsg.originalMessage, processingMsg.parsedMessage, timeout));
+            }
+
             log.debug("Processed {}/{} messages on route {}: {}",
                     processedSuccessfully.size(), originalMessages.size(),
                     routeId, processedSuccessfully);
@@ -148,6 +175,60 @@ public class AsyncBatchMessageProcessorRoute extends RouteBuilder {
         .to(failureUri);
     }
 
+    /**
+     * Gathers the results of, and removes, any messages in {@code stillProcessing} which are done,
+     * without waiting on any which are not.
+     */
+    private void gatherDone(List<ProcessingMessage> stillProcessing,
+            List<Message> processedSuccessfully, List<FailedMessage> failures) {
+        Iterator<ProcessingMessage> stillProcessingIterator = stillProcessing.iterator();
+
+        while (stillProcessingIterator.hasNext()) {
+            ProcessingMessage processingMsg = stillProcessingIterator.next();
+
+            if (processingMsg.future.isDone()) {
+                stillProcessingIterator.remove();
+                gatherResult(processingMsg, 0, processedSuccessfully, failures);
+            }
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutNanos} for the message to finish processing, and tracks the
+     * result as either processed successfully or failed.
+     *
+     * @return {@code false} if we timed out or were interrupted waiting, in which case the message
+     * has been cancelled and tracked as failed.
+     */
+    private boolean gatherResult(ProcessingMessage processingMsg, long timeoutNanos,
+            List<Message> processedSuccessfully, List<FailedMessage> failures) {
+        try {
+            processingMsg.future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+
+            if (log.isDebugEnabled()) {
+                processedSuccessfully.add(processingMsg.parsedMessage);
+            }
+        } catch (ExecutionException e) {
+            log.error("Failed to process message: " + processingMsg.parsedMessage, e);
+            FailedMessage failure = new FailedMessage(processingMsg.originalMessage,
+                    processingMsg.parsedMessage, e.getCause());
+            failures.add(failure);
+        } catch (InterruptedException | TimeoutException e) {
+            processingMsg.future.cancel(true);
+            log.warn("Timed out processing message: " + processingMsg.parsedMessage, e);
+            FailedMessage failure = new FailedMessage(
+                    processingMsg.originalMessage, processingMsg.parsedMessage, e);
+            failures.add(failure);
+            return false;
+        } catch (CancellationException e) {
+            log.warn("Message processing was cancelled: " + processingMsg.parsedMessage, e);
+            failures.add(new FailedMessage(
+                    processingMsg.originalMessage, processingMsg.parsedMessage, e));
+        }
+
+        return true;
+    }
+
     /**
      * Simple struct for storing a message and its future processing result.
      */
@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import org.apache.camel.Consumer;
+import org.apache.camel.Exchange;
+import org.apache.camel.Predicate;
+import org.apache.camel.Route;
+import org.apache.camel.support.ServiceSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when a polling route polls, based on what its previous polls found, rather than
+ * strictly once per polling interval.
+ *
+ * <p>When a poll fills its batch, there is likely more waiting, so the route polls again right
+ * away instead of waiting out the interval. When a poll finds nothing, the route backs off:
+ * each consecutive empty poll doubles the number of polling intervals until the next one, up to
+ * a ceiling. A poll which finds anything resets the back off.
+ *
+ * <p>Time is measured in polling intervals ("ticks"), so this works regardless of how a route's
+ * interval is configured. A route asks {@link #isPollDue()} once per tick, and reports each poll
+ * it makes to {@link #onPolled(int, int)}.
+ *
+ * <p>Instances are stateful and thread safe, but should not be shared among routes, as each
+ * route's polls would count against the others'.
+ */
+public class BacklogDrivenPolling {
+    private final boolean pollAgainWhenFull;
+    private final int maxIdleIntervals;
+
+    private int consecutiveEmptyPolls = 0;
+    private int idleIntervals = 1;
+    private int ticksToSkip = 0;
+
+    private static final String POLL_AGAIN_PROPERTY = "backlogDrivenPollAgain";
+
+    private static final Logger log = LoggerFactory.getLogger(BacklogDrivenPolling.class);
+
+    /**
+     * Polls exactly once per polling interval, never sooner and never later. This is how polling
+     * routes behave by default.
+     */
+    public static BacklogDrivenPolling disabled() {
+        return new BacklogDrivenPolling(false, 1);
+    }
+
+    /**
+     * @param maxIdleIntervals The most polling intervals to wait between polls while polls keep
+     *                         coming back empty. For example, with a polling interval of 1 second
+     *                         and a value of 30, an idle route polls every 1, 2, 4, 8, 16, and
+     *                         then every 30 seconds. 1 disables backing off.
+     */
+    public BacklogDrivenPolling(int maxIdleIntervals) {
+        this(true, maxIdleIntervals);
+    }
+
+    /**
+     * @param pollAgainWhenFull Whether to poll again right away after a poll filled its batch.
+     * @param maxIdleIntervals See {@link #BacklogDrivenPolling(int)}.
+     */
+    public BacklogDrivenPolling(boolean pollAgainWhenFull, int maxIdleIntervals) {
+        if (maxIdleIntervals < 1) {
+            throw new IllegalArgumentException("Max idle intervals must be positive, but was: " +
+                    maxIdleIntervals);
+        }
+
+        this.pollAgainWhenFull = pollAgainWhenFull;
+        this.maxIdleIntervals = maxIdleIntervals;
+    }
+
+    /**
+     * @return A new instance with the same settings as this one, but none of its state, for use
+     * by another route.
+     */
+    public BacklogDrivenPolling withSameSettings() {
+        return new BacklogDrivenPolling(pollAgainWhenFull, maxIdleIntervals);
+    }
+
+    /**
+     * Called once per polling interval.
+     *
+     * @return Whether the route should poll on this tick, or skip it because it is backing off.
+     */
+    public synchronized boolean isPollDue() {
+        if (ticksToSkip > 0) {
+            ticksToSkip--;
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Called after each poll.
+     *
+     * @param requested How many messages the poll asked for.
+     * @param retrieved How many messages the poll found.
+     * @return Whether the route should poll again right away, rather than waiting for the next
+     * polling interval.
+     */
+    public synchronized boolean onPolled(int requested, int retrieved) {
+        if (retrieved > 0) {
+            consecutiveEmptyPolls = 0;
+            idleIntervals = 1;
+            ticksToSkip = 0;
+            return pollAgainWhenFull && retrieved >= requested;
+        }
+
+        if (consecutiveEmptyPolls < Integer.MAX_VALUE) {
+            consecutiveEmptyPolls++;
+        }
+
+        // Shifting by 30 or more would overflow; by then we are at the ceiling anyway.
+        int doublings = Math.min(consecutiveEmptyPolls - 1, Integer.SIZE - 2);
+        int nextIdleIntervals = Math.min(maxIdleIntervals, 1 << doublings);
+
+        if (nextIdleIntervals != idleIntervals) {
+            idleIntervals = nextIdleIntervals;
+            log.debug("{} consecutive empty polls, backing off to one poll every {} intervals",
+                    consecutiveEmptyPolls, idleIntervals);
+        }
+
+        ticksToSkip = idleIntervals - 1;
+        return false;
+    }
+
+    /**
+     * A predicate for looping over polls within one timer exchange: the first poll happens unless
+     * we are backing off, and following polls only if the previous one, as reported to
+     * {@link #onPolled(Exchange, int, int)}, asked to poll again and the route is not being
+     * stopped in the meantime.
+     */
+    Predicate shouldPoll(String routeId) {
+        return exchange -> {
+            Boolean pollAgain = exchange.getProperty(POLL_AGAIN_PROPERTY, Boolean.class);
+
+            if (pollAgain == null) {
+                return isPollDue();
+            }
+
+            return pollAgain && isConsumerRunAllowed(exchange, routeId);
+        };
+    }
+
+    void onPolled(Exchange exchange, int requested, int retrieved) {
+        exchange.setProperty(POLL_AGAIN_PROPERTY, onPolled(requested, retrieved));
+    }
+
+    public int getMaxIdleIntervals() {
+        return maxIdleIntervals;
+    }
+
+    public synchronized int getConsecutiveEmptyPolls() {
+        return consecutiveEmptyPolls;
+    }
+
+    @Override
+    public String toString() {
+        return "BacklogDrivenPolling{" +
+                "pollAgainWhenFull=" + pollAgainWhenFull +
+                ", maxIdleIntervals=" + maxIdleIntervals +
+                '}';
+    }
+
+    private static boolean isConsumerRunAllowed(Exchange exchange, String routeId) {
+        Route route = exchange.getContext().getRoute(routeId);
+
+        if (route == null) {
+            return false;
+        }
+
+        // Stopping or suspending a route stops its consumer first, then waits for in flight
+        // exchanges, such as one we are looping in, to finish.
+        Consumer consumer = route.getConsumer();
+
+        if (consumer instanceof ServiceSupport) {
+            ServiceSupport service = (ServiceSupport) consumer;
+            return service.isRunAllowed() && !service.isSuspendingOrSuspended();
+        }
+
+        return true;
+    }
+}
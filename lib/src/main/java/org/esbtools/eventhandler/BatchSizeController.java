@@ -0,0 +1,74 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import java.time.Duration;
+
+/**
+ * Decides how many messages a polling route retrieves per batch, and learns from how each batch
+ * went.
+ *
+ * <p>Implementations are expected to be thread safe, as a controller may be shared by routes
+ * polling concurrently.
+ *
+ * @see AimdBatchSizeController
+ */
+public interface BatchSizeController {
+    /**
+     * A controller which always uses the same batch size.
+     */
+    static BatchSizeController fixed(int batchSize) {
+        return new BatchSizeController() {
+            @Override
+            public int currentBatchSize() {
+                return batchSize;
+            }
+
+            @Override
+            public void onBatchProcessed(int batchSize, int retrieved, int timedOut,
+                    Duration elapsed) {
+            }
+
+            @Override
+            public String toString() {
+                return "FixedBatchSize{" + batchSize + "}";
+            }
+        };
+    }
+
+    /**
+     * @return The maximum number of messages to retrieve for the next batch.
+     */
+    int currentBatchSize();
+
+    /**
+     * Called once a batch is done, successfully or not.
+     *
+     * @param batchSize The batch size the batch was retrieved with.
+     * @param retrieved How many messages were actually retrieved. If fewer than the batch size,
+     *                  there was not enough waiting to fill the batch.
+     * @param timedOut How many of the retrieved messages timed out while being processed.
+     * @param elapsed How long the batch took: retrieving, processing, and publishing. This is
+     *                one number rather than one per stage, because the batch size is all a
+     *                controller can change, and it is the same for every stage: a slow stage,
+     *                whichever it is, is only made faster by a smaller batch, and what a batch
+     *                size must bound is how long its messages wait for the whole batch.
+     */
+    void onBatchProcessed(int batchSize, int retrieved, int timedOut, Duration elapsed);
+}
@@ -18,6 +18,7 @@
 
 package org.esbtools.eventhandler;
 
+import java.util.List;
 import java.util.concurrent.Future;
 
 /**
@@ -87,4 +88,31 @@ public interface DocumentEvent {
      * events can be merged first by calling {@link #couldMergeWith(DocumentEvent)}.
      */
     DocumentEvent merge(DocumentEvent event);
+
+    /**
+     * Returns an event that represents this event and all of the provided events. This is
+     * equivalent to {@link #merge(DocumentEvent) merging} each event in turn, but implementations
+     * are encouraged to override this to build the result in one pass, without creating
+     * intermediate mergers.
+     *
+     * @param events Events which this event {@link #couldMergeWith(DocumentEvent) could merge
+     *               with}. Must not be empty.
+     * @return A new event which represents {@code this} and all of the provided events.
+     *
+     * @throws UnsupportedOperationException if the events could not be merged.
+     * @throws IllegalArgumentException if {@code events} is empty.
+     */
+    default DocumentEvent mergeAll(List<? extends DocumentEvent> events) {
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("Must provide at least one event to merge with.");
+        }
+
+        DocumentEvent merger = this;
+
+        for (DocumentEvent event : events) {
+            merger = merger.merge(event);
+        }
+
+        return merger;
+    }
 }
@@ -19,15 +19,21 @@
 package org.esbtools.eventhandler;
 
 import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.camel.builder.RouteBuilder;
@@ -38,45 +44,217 @@ import com.google.common.util.concurrent.Futures;
 public class PollingDocumentEventProcessorRoute extends RouteBuilder {
     private final DocumentEventRepository documentEventRepository;
     private final Duration pollingInterval;
-    private final int batchSize;
+    private final BacklogDrivenPolling backlogDrivenPolling;
+    private final BatchSizeController batchSizeController;
     private final Duration processTimeout;
     private final String documentEndpoint;
     private final String failureEndpoint;
     private final String routeId;
+    private final int workerCount;
+    private final int prefetchDepth;
+    private final int publishedAckBatchSize;
+    private final Duration publishedAckMaxDelay;
+
+    /**
+     * Events which were published but not yet marked as such in the repository. Guarded by
+     * itself.
+     */
+    private final List<DocumentEvent> publishedAwaitingAck = new ArrayList<>();
 
     private static final AtomicInteger idCounter = new AtomicInteger(1);
 
+    public static final Duration DEFAULT_PUBLISHED_ACK_MAX_DELAY = Duration.ofSeconds(1);
+
+    /** The timer component's default delay before the first poll. */
+    private static final long FIRST_POLL_DELAY_MILLIS = 1000;
+
+    private static final String BATCH_START_NANOS_PROPERTY = "batchStartNanos";
+    private static final String RETRIEVED_BATCH_PROPERTY = "retrievedBatch";
+    private static final String TIMED_OUT_PROPERTY = "timedOut";
+
     public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
             Duration pollingInterval, Duration processTimeout,int batchSize, String documentEndpoint,
             String failureEndpoint) {
-        this.documentEventRepository = documentEventRepository;
-        this.pollingInterval = pollingInterval;
-        this.processTimeout = processTimeout;
-        this.batchSize = batchSize;
-        this.documentEndpoint = documentEndpoint;
-        this.failureEndpoint = failureEndpoint;
-        this.routeId = "documentEventProcessor-" + idCounter.getAndIncrement();
+        this(documentEventRepository, pollingInterval, processTimeout, batchSize, 0,
+                documentEndpoint, failureEndpoint,
+                "documentEventProcessor-" + idCounter.getAndIncrement());
     }
 
     public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
             Duration pollingInterval, Duration processTimeout, int batchSize, String documentEndpoint,
             String failureEndpoint, String routeId) {
+        this(documentEventRepository, pollingInterval, processTimeout, batchSize, 0,
+                documentEndpoint, failureEndpoint, routeId);
+    }
+
+    /**
+     * @param prefetchDepth How many batches to retrieve ahead of the batch currently being looked
+     *                      up and published. With 0, each batch is retrieved only once the
+     *                      previous batch is done. Otherwise, retrieval happens in the background,
+     *                      so the repository and the document endpoint are kept busy at the same
+     *                      time. Prefetched events begin their transaction when retrieved, so
+     *                      events whose transaction is no longer active by the time their batch is
+     *                      processed are dropped, to be retrieved again later. A deeper prefetch
+     *                      therefore only helps as long as batches are processed well within the
+     *                      repository's transaction timeout.
+     */
+    public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
+            Duration pollingInterval, Duration processTimeout, int batchSize, int prefetchDepth,
+            String documentEndpoint, String failureEndpoint, String routeId) {
+        this(documentEventRepository, pollingInterval, processTimeout, batchSize, prefetchDepth,
+                batchSize, DEFAULT_PUBLISHED_ACK_MAX_DELAY, documentEndpoint, failureEndpoint,
+                routeId);
+    }
+
+    /**
+     * @param prefetchDepth See
+     * {@link #PollingDocumentEventProcessorRoute(DocumentEventRepository, Duration, Duration, int, int, String, String, String)}
+     * @param publishedAckBatchSize Events are marked as published in bulk, once this many have
+     *                              been published, or once their batch is done, whichever comes
+     *                              first.
+     * @param publishedAckMaxDelay Regardless of how many are waiting, published events are marked
+     *                             as such at least this often, so a slow document endpoint does
+     *                             not hold up marking events which were already published.
+     */
+    public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
+            Duration pollingInterval, Duration processTimeout, int batchSize, int prefetchDepth,
+            int publishedAckBatchSize, Duration publishedAckMaxDelay, String documentEndpoint,
+            String failureEndpoint, String routeId) {
+        this(documentEventRepository, pollingInterval, processTimeout,
+                BatchSizeController.fixed(batchSize), prefetchDepth, publishedAckBatchSize,
+                publishedAckMaxDelay, documentEndpoint, failureEndpoint, routeId);
+    }
+
+    /**
+     * @param batchSizeController Decides the batch size of each retrieval, and is told how each
+     *                            batch went, so that it may adjust. See
+     *                            {@link AimdBatchSizeController}.
+     * @see #PollingDocumentEventProcessorRoute(DocumentEventRepository, Duration, Duration, int, int, int, Duration, String, String, String)
+     */
+    public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
+            Duration pollingInterval, Duration processTimeout,
+            BatchSizeController batchSizeController, int prefetchDepth,
+            int publishedAckBatchSize, Duration publishedAckMaxDelay, String documentEndpoint,
+            String failureEndpoint, String routeId) {
+        this(documentEventRepository, pollingInterval, BacklogDrivenPolling.disabled(),
+                processTimeout, batchSizeController, prefetchDepth, publishedAckBatchSize,
+                publishedAckMaxDelay, documentEndpoint, failureEndpoint, routeId);
+    }
+
+    /**
+     * @param backlogDrivenPolling Decides whether to poll again right away after a full batch,
+     *                             and how far to back off from the polling interval while batches
+     *                             come back empty. A route polling again right away keeps doing
+     *                             so within the same exchange, until a batch is not full or the
+     *                             route is stopping.
+     * @see #PollingDocumentEventProcessorRoute(DocumentEventRepository, Duration, Duration, BatchSizeController, int, int, Duration, String, String, String)
+     */
+    public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
+            Duration pollingInterval, BacklogDrivenPolling backlogDrivenPolling,
+            Duration processTimeout, BatchSizeController batchSizeController, int prefetchDepth,
+            int publishedAckBatchSize, Duration publishedAckMaxDelay, String documentEndpoint,
+            String failureEndpoint, String routeId) {
+        this(documentEventRepository, pollingInterval, backlogDrivenPolling, processTimeout,
+                batchSizeController, 1, prefetchDepth, publishedAckBatchSize, publishedAckMaxDelay,
+                documentEndpoint, failureEndpoint, routeId);
+    }
+
+    /**
+     * @param workerCount How many retrieve and process loops to run concurrently, each as its own
+     *                    route, against the same repository. Their first polls are staggered
+     *                    evenly across the polling interval, so that each retrieves while the
+     *                    others' batches are already claimed, rather than all contending for the
+     *                    same top priority events. Each worker prefetches and backs off on its
+     *                    own, while the batch size controller and published acknowledgements are
+     *                    shared. With more than one worker, worker routes are identified as
+     *                    {@code routeId-0}, {@code routeId-1}, and so on.
+     * @see #PollingDocumentEventProcessorRoute(DocumentEventRepository, Duration, BacklogDrivenPolling, Duration, BatchSizeController, int, int, Duration, String, String, String)
+     */
+    public PollingDocumentEventProcessorRoute(DocumentEventRepository documentEventRepository,
+            Duration pollingInterval, BacklogDrivenPolling backlogDrivenPolling,
+            Duration processTimeout, BatchSizeController batchSizeController, int workerCount,
+            int prefetchDepth, int publishedAckBatchSize, Duration publishedAckMaxDelay,
+            String documentEndpoint, String failureEndpoint, String routeId) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("Worker count must be positive, but was: " +
+                    workerCount);
+        }
+
+        if (prefetchDepth < 0) {
+            throw new IllegalArgumentException("Prefetch depth must not be negative, but was: " +
+                    prefetchDepth);
+        }
+
+        if (publishedAckBatchSize < 1) {
+            throw new IllegalArgumentException("Published acknowledgement batch size must be " +
+                    "positive, but was: " + publishedAckBatchSize);
+        }
+
+        if (publishedAckMaxDelay.isNegative() || publishedAckMaxDelay.isZero()) {
+            throw new IllegalArgumentException("Published acknowledgement max delay must be " +
+                    "positive, but was: " + publishedAckMaxDelay);
+        }
+
         this.documentEventRepository = documentEventRepository;
         this.pollingInterval = pollingInterval;
+        this.backlogDrivenPolling = Objects.requireNonNull(backlogDrivenPolling,
+                "backlogDrivenPolling");
         this.processTimeout = processTimeout;
-        this.batchSize = batchSize;
+        this.batchSizeController = Objects.requireNonNull(batchSizeController,
+                "batchSizeController");
+        this.prefetchDepth = prefetchDepth;
+        this.publishedAckBatchSize = publishedAckBatchSize;
+        this.publishedAckMaxDelay = publishedAckMaxDelay;
         this.documentEndpoint = documentEndpoint;
         this.failureEndpoint = failureEndpoint;
         this.routeId = routeId;
+        this.workerCount = workerCount;
     }
     
     @Override
     public void configure() throws Exception {
-        from("timer:pollForDocumentEvents-" + routeId + "?period=" + pollingInterval.toMillis())
-        .routeId(routeId)
+        ScheduledExecutorService publishedAcker = getContext().getExecutorServiceManager()
+                .newSingleThreadScheduledExecutor(this, "ackPublishedDocumentEvents-" + routeId);
+        publishedAcker.scheduleWithFixedDelay(this::flushPublishedAcks,
+                publishedAckMaxDelay.toMillis(), publishedAckMaxDelay.toMillis(),
+                TimeUnit.MILLISECONDS);
+
+        if (workerCount == 1) {
+            configureWorker(new Worker(routeId, backlogDrivenPolling), FIRST_POLL_DELAY_MILLIS);
+            return;
+        }
+
+        for (int i = 0; i < workerCount; i++) {
+            BacklogDrivenPolling workerPolling = i == 0
+                    ? backlogDrivenPolling
+                    : backlogDrivenPolling.withSameSettings();
+            long staggeredDelayMillis = FIRST_POLL_DELAY_MILLIS +
+                    pollingInterval.toMillis() * i / workerCount;
+
+            configureWorker(new Worker(routeId + "-" + i, workerPolling), staggeredDelayMillis);
+        }
+    }
+
+    private void configureWorker(Worker worker, long firstPollDelayMillis) {
+        if (prefetchDepth > 0) {
+            // Managed by the CamelContext, so it is shut down with the context.
+            worker.prefetcher = getContext().getExecutorServiceManager()
+                    .newSingleThreadExecutor(this, "prefetchDocumentEvents-" + worker.routeId);
+        }
+
+        from("timer:pollForDocumentEvents-" + worker.routeId +
+                "?period=" + pollingInterval.toMillis() + "&delay=" + firstPollDelayMillis)
+        .routeId(worker.routeId)
+        .loopDoWhile(worker.backlogDrivenPolling.shouldPoll(worker.routeId))
+        .doTry()
         .process(exchange -> {
-            List<? extends DocumentEvent> documentEvents = documentEventRepository
-                    .retrievePriorityDocumentEventsUpTo(batchSize);
+            long batchStartNanos = System.nanoTime();
+            RetrievedBatch batch = worker.retrieveNextBatch();
+            List<? extends DocumentEvent> documentEvents = batch.events;
+
+            exchange.setProperty(BATCH_START_NANOS_PROPERTY, batchStartNanos);
+            exchange.setProperty(RETRIEVED_BATCH_PROPERTY, batch);
+
             Map<DocumentEvent, Future<?>> eventsToFutureDocuments =
                     new HashMap<>(documentEvents.size());
 
@@ -92,20 +270,36 @@ public class PollingDocumentEventProcessorRoute extends RouteBuilder {
 
             Map<DocumentEvent, Object> eventsToDocuments = new HashMap<>(documentEvents.size());
             List<FailedDocumentEvent> failedEvents = new ArrayList<>();
+            int timedOut = 0;
+
+            // The whole batch shares one deadline, so that every lookup still not done by then is
+            // counted, rather than only the first.
+            long deadlineNanos = System.nanoTime() + processTimeout.toNanos();
 
             for (Map.Entry<DocumentEvent, Future<?>> eventToFutureDocument
                     : eventsToFutureDocuments.entrySet()) {
                 DocumentEvent event = eventToFutureDocument.getKey();
                 Future<?> futureDoc = eventToFutureDocument.getValue();
+                long remainingNanos = Math.max(0, deadlineNanos - System.nanoTime());
 
                 try {
-                    eventsToDocuments.put(event, futureDoc.get(processTimeout.toMillis(), TimeUnit.MILLISECONDS));
+                    eventsToDocuments.put(event,
+                            futureDoc.get(remainingNanos, TimeUnit.NANOSECONDS));
                 } catch (ExecutionException | InterruptedException e) {
                     log.error("Failed to get document for document event: " + event, e);
                     failedEvents.add(new FailedDocumentEvent(event, e));
+                } catch (TimeoutException e) {
+                    timedOut++;
                 }
             }
 
+            if (timedOut > 0) {
+                // The batch is abandoned, but let the controller know why.
+                exchange.setProperty(TIMED_OUT_PROPERTY, timedOut);
+                throw new TimeoutException(timedOut + " of " + documentEvents.size() +
+                        " document lookups did not finish within " + processTimeout);
+            }
+
             try {
                 documentEventRepository.markDocumentEventsPublishedOrFailed(
                         Collections.emptyList(), failedEvents);
@@ -148,11 +342,8 @@ public class PollingDocumentEventProcessorRoute extends RouteBuilder {
                     exchange.getIn().setBody(eventToDocument.getValue());
                 })
                 .to(documentEndpoint)
-                // If producing to documentEndpoint succeeded, update original event status...
-                // TODO(ahenning): This updates event status one at a time. We could consider using
-                // aggregation strategy with splitter to update all in bulk which would take
-                // advantage of repository implementations which can update many statuses in one
-                // call.
+                // If producing to documentEndpoint succeeded, update original event status. This
+                // is done in bulk; see acknowledgePublished.
                 .process(exchange -> {
                     DocumentEvent event = exchange.getProperty("originalEvent", DocumentEvent.class);
 
@@ -162,8 +353,178 @@ public class PollingDocumentEventProcessorRoute extends RouteBuilder {
                                 exchange);
                     }
 
-                    documentEventRepository.markDocumentEventsPublishedOrFailed(
-                            Collections.singleton(event), Collections.emptyList());
-                });
+                    acknowledgePublished(event);
+                })
+            .end()
+        .end()
+        .process(exchange -> {
+            RetrievedBatch batch = exchange.getProperty(RETRIEVED_BATCH_PROPERTY,
+                    RetrievedBatch.class);
+            worker.backlogDrivenPolling.onPolled(exchange, batch.batchSize, batch.retrieved);
+        })
+        .endDoTry()
+        // Report the batch whether or not it was published, so failures still inform the batch
+        // size controller.
+        .doFinally()
+            .process(exchange -> {
+                flushPublishedAcks();
+
+                RetrievedBatch batch = exchange.getProperty(RETRIEVED_BATCH_PROPERTY,
+                        RetrievedBatch.class);
+                long batchStartNanos = exchange.getProperty(BATCH_START_NANOS_PROPERTY, 0L,
+                        Long.class);
+                int timedOut = exchange.getProperty(TIMED_OUT_PROPERTY, 0, Integer.class);
+
+                // Cleared so that a later poll in the same exchange, whose retrieval fails, is not
+                // reported as this batch again.
+                exchange.removeProperty(RETRIEVED_BATCH_PROPERTY);
+                exchange.removeProperty(BATCH_START_NANOS_PROPERTY);
+                exchange.removeProperty(TIMED_OUT_PROPERTY);
+
+                // Nothing to report if retrieving the batch failed.
+                if (batch != null) {
+                    onBatchProcessed(batch, timedOut, batchStartNanos);
+                }
+            })
+        .end()
+        .end();
+    }
+
+    public BatchSizeController getBatchSizeController() {
+        return batchSizeController;
+    }
+
+    public BacklogDrivenPolling getBacklogDrivenPolling() {
+        return backlogDrivenPolling;
+    }
+
+    private void onBatchProcessed(RetrievedBatch batch, int timedOut, long batchStartNanos) {
+        batchSizeController.onBatchProcessed(batch.batchSize, batch.retrieved, timedOut,
+                Duration.ofNanos(System.nanoTime() - batchStartNanos));
+    }
+
+    /**
+     * Queues the event to be marked as published, marking all queued events at once if there are
+     * enough of them.
+     */
+    private void acknowledgePublished(DocumentEvent event) {
+        List<DocumentEvent> toAck = null;
+
+        synchronized (publishedAwaitingAck) {
+            publishedAwaitingAck.add(event);
+
+            if (publishedAwaitingAck.size() >= publishedAckBatchSize) {
+                toAck = new ArrayList<>(publishedAwaitingAck);
+                publishedAwaitingAck.clear();
+            }
+        }
+
+        if (toAck != null) {
+            markPublished(toAck);
+        }
+    }
+
+    private void flushPublishedAcks() {
+        List<DocumentEvent> toAck;
+
+        synchronized (publishedAwaitingAck) {
+            if (publishedAwaitingAck.isEmpty()) {
+                return;
+            }
+
+            toAck = new ArrayList<>(publishedAwaitingAck);
+            publishedAwaitingAck.clear();
+        }
+
+        markPublished(toAck);
+    }
+
+    private void markPublished(List<DocumentEvent> published) {
+        try {
+            documentEventRepository.markDocumentEventsPublishedOrFailed(
+                    published, Collections.emptyList());
+        } catch (Exception e) {
+            if (log.isErrorEnabled()) {
+                log.error("Failed to update published events. They will be reprocessed. " +
+                        "Published events were: " + published, e);
+            }
+        }
+    }
+
+    private RetrievedBatch retrieveBatch() throws Exception {
+        int batchSize = batchSizeController.currentBatchSize();
+        List<? extends DocumentEvent> events =
+                documentEventRepository.retrievePriorityDocumentEventsUpTo(batchSize);
+        return new RetrievedBatch(batchSize, events.size(), events);
+    }
+
+    /**
+     * One retrieve and process loop, and the state it keeps between polls.
+     */
+    private class Worker {
+        final String routeId;
+        final BacklogDrivenPolling backlogDrivenPolling;
+
+        /**
+         * Batches retrieved, or being retrieved, ahead of the batch currently being processed.
+         * Only accessed from this worker's polling thread.
+         */
+        final Deque<Future<RetrievedBatch>> prefetchedBatches = new ArrayDeque<>();
+        ExecutorService prefetcher;
+
+        Worker(String routeId, BacklogDrivenPolling backlogDrivenPolling) {
+            this.routeId = routeId;
+            this.backlogDrivenPolling = backlogDrivenPolling;
+        }
+
+        RetrievedBatch retrieveNextBatch() throws Exception {
+            if (prefetcher == null) {
+                return retrieveBatch();
+            }
+
+            // Keep prefetchDepth batches retrieving in the background beyond the one we take now.
+            while (prefetchedBatches.size() <= prefetchDepth) {
+                prefetchedBatches.add(prefetcher.submit(
+                        PollingDocumentEventProcessorRoute.this::retrieveBatch));
+            }
+
+            RetrievedBatch prefetched;
+
+            try {
+                prefetched = prefetchedBatches.remove().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+
+            List<DocumentEvent> stillActive = new ArrayList<>(prefetched.events.size());
+
+            for (DocumentEvent event : prefetched.events) {
+                try {
+                    documentEventRepository.ensureTransactionActive(event);
+                    stillActive.add(event);
+                } catch (Exception e) {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Prefetched event transaction no longer active, not " +
+                                "processing: " + event, e);
+                    }
+                }
+            }
+
+            return new RetrievedBatch(prefetched.batchSize, prefetched.retrieved, stillActive);
+        }
+    }
+
+    private static class RetrievedBatch {
+        final int batchSize;
+        /** How many were retrieved, which may be more than are left in {@link #events}. */
+        final int retrieved;
+        final List<? extends DocumentEvent> events;
+
+        RetrievedBatch(int batchSize, int retrieved, List<? extends DocumentEvent> events) {
+            this.batchSize = batchSize;
+            this.retrieved = retrieved;
+            this.events = events;
+        }
     }
 }
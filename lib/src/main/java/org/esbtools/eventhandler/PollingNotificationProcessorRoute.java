@@ -30,6 +30,7 @@ import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -41,8 +42,9 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
     private final NotificationRepository notificationRepository;
     private final DocumentEventRepository documentEventRepository;
     private final Duration pollingInterval;
+    private final BacklogDrivenPolling backlogDrivenPolling;
     private final Duration processTimeout;
-    private final int batchSize;
+    private final BatchSizeController batchSizeController;
 
     private static final AtomicInteger idCounter = new AtomicInteger(1);
     private final int id = idCounter.getAndIncrement();
@@ -50,88 +52,167 @@ public class PollingNotificationProcessorRoute extends RouteBuilder {
     public PollingNotificationProcessorRoute(NotificationRepository notificationRepository,
             DocumentEventRepository documentEventRepository, Duration pollingInterval,
             Duration processTimeout, int batchSize) {
+        this(notificationRepository, documentEventRepository, pollingInterval, processTimeout,
+                BatchSizeController.fixed(batchSize));
+    }
+
+    /**
+     * @param batchSizeController Decides the batch size of each retrieval, and is told how each
+     *                            batch went, so that it may adjust. See
+     *                            {@link AimdBatchSizeController}.
+     */
+    public PollingNotificationProcessorRoute(NotificationRepository notificationRepository,
+            DocumentEventRepository documentEventRepository, Duration pollingInterval,
+            Duration processTimeout, BatchSizeController batchSizeController) {
+        this(notificationRepository, documentEventRepository, pollingInterval,
+                BacklogDrivenPolling.disabled(), processTimeout, batchSizeController);
+    }
+
+    /**
+     * @param backlogDrivenPolling Decides whether to poll again right away after a full batch,
+     *                             and how far to back off from the polling interval while batches
+     *                             come back empty.
+     * @see #PollingNotificationProcessorRoute(NotificationRepository, DocumentEventRepository, Duration, Duration, BatchSizeController)
+     */
+    public PollingNotificationProcessorRoute(NotificationRepository notificationRepository,
+            DocumentEventRepository documentEventRepository, Duration pollingInterval,
+            BacklogDrivenPolling backlogDrivenPolling, Duration processTimeout,
+            BatchSizeController batchSizeController) {
         this.notificationRepository = notificationRepository;
         this.documentEventRepository = documentEventRepository;
         this.pollingInterval = pollingInterval;
-        this.batchSize = batchSize;
+        this.backlogDrivenPolling = Objects.requireNonNull(backlogDrivenPolling,
+                "backlogDrivenPolling");
+        this.batchSizeController = Objects.requireNonNull(batchSizeController,
+                "batchSizeController");
         this.processTimeout = Objects.requireNonNull(processTimeout,
                 "notificationProcessTimeout");
     }
 
     @Override
     public void configure() throws Exception {
+        String routeId = "notificationProcessor-" + id;
+
         from("timer:pollForNotifications" + id + "?period=" + pollingInterval.toMillis())
-        .routeId("notificationProcessor-" + id)
+        .routeId(routeId)
+        .loopDoWhile(backlogDrivenPolling.shouldPoll(routeId))
         .process(exchange -> {
+            long batchStartNanos = System.nanoTime();
+            int batchSize = batchSizeController.currentBatchSize();
             List<? extends Notification> notifications =
                     notificationRepository.retrieveOldestNotificationsUpTo(batchSize);
-            Map<Notification, Future<Collection<DocumentEvent>>> notificationsToFutureEvents =
-                    new HashMap<>(notifications.size());
 
-            // Intentionally cache all futures before waiting for any.
-            for (Notification notification : notifications) {
-                try {
-                    Future<Collection<DocumentEvent>> futureEvents = notification.toDocumentEvents();
-                    notificationsToFutureEvents.put(notification, futureEvents);
-                } catch (Exception e) {
-                    log.error("Failed to get future document events for notification: " +
-                            notification, e);
-                    notificationsToFutureEvents.put(notification, Futures.immediateFailedFuture(e));
+            // Report the batch whether or not it was processed, so failures still inform the
+            // batch size controller.
+            int timedOut = 0;
+
+            try {
+                Map<Notification, Future<Collection<DocumentEvent>>> notificationsToFutureEvents =
+                        new HashMap<>(notifications.size());
+
+                // Intentionally cache all futures before waiting for any.
+                for (Notification notification : notifications) {
+                    try {
+                        Future<Collection<DocumentEvent>> futureEvents =
+                                notification.toDocumentEvents();
+                        notificationsToFutureEvents.put(notification, futureEvents);
+                    } catch (Exception e) {
+                        log.error("Failed to get future document events for notification: " +
+                                notification, e);
+                        notificationsToFutureEvents.put(notification,
+                                Futures.immediateFailedFuture(e));
+                    }
                 }
-            }
 
-            Map<Notification, Collection<DocumentEvent>> notificationsToDocumentEvents =
-                    new HashMap<>();
-            List<FailedNotification> failedNotifications = new ArrayList<>();
+                Map<Notification, Collection<DocumentEvent>> notificationsToDocumentEvents =
+                        new HashMap<>();
+                List<FailedNotification> failedNotifications = new ArrayList<>();
+
+                // The whole batch shares one deadline, so that every notification still not done
+                // by then is counted, rather than only the first.
+                long deadlineNanos = System.nanoTime() + processTimeout.toNanos();
+
+                for (Entry<Notification, Future<Collection<DocumentEvent>>>
+                        notificationToFutureEvents : notificationsToFutureEvents.entrySet()) {
+                    Notification notification = notificationToFutureEvents.getKey();
+                    Future<Collection<DocumentEvent>> futureEvents =
+                            notificationToFutureEvents.getValue();
+                    long remainingNanos = Math.max(0, deadlineNanos - System.nanoTime());
+                    try {
+                        Collection<DocumentEvent> events =
+                                futureEvents.get(remainingNanos, TimeUnit.NANOSECONDS);
+                        notificationsToDocumentEvents.put(notification, events);
+                    } catch (ExecutionException | InterruptedException e) {
+                        log.error("Failed to get document events for notification: " +
+                                notification, e);
+                        failedNotifications.add(new FailedNotification(notification, e));
+                    } catch (TimeoutException e) {
+                        timedOut++;
+                    }
+                }
 
-            for (Entry<Notification, Future<Collection<DocumentEvent>>> notificationToFutureEvents
-                    : notificationsToFutureEvents.entrySet()) {
-                Notification notification = notificationToFutureEvents.getKey();
-                Future<Collection<DocumentEvent>> futureEvents =
-                        notificationToFutureEvents.getValue();
-                try {
-                    Collection<DocumentEvent> events = futureEvents.get(processTimeout.toMillis(), TimeUnit.MILLISECONDS);
-                    notificationsToDocumentEvents.put(notification, events);
-                } catch (ExecutionException | InterruptedException e) {
-                    log.error("Failed to get document events for notification: " + notification, e);
-                    failedNotifications.add(new FailedNotification(notification, e));
+                if (timedOut > 0) {
+                    // The batch is abandoned, but the controller is still told why; see finally.
+                    throw new TimeoutException(timedOut + " of " + notifications.size() +
+                            " notifications did not finish within " + processTimeout);
                 }
-            }
 
-            Iterator<Entry<Notification, Collection<DocumentEvent>>> notificationsToEventsIterator =
-                    notificationsToDocumentEvents.entrySet().iterator();
-            while (notificationsToEventsIterator.hasNext()) {
-                Entry<Notification, Collection<DocumentEvent>> notificationToEvents =
-                        notificationsToEventsIterator.next();
-                try {
-                    notificationRepository.ensureTransactionActive(notificationToEvents.getKey());
-                } catch (Exception e) {
-                    notificationsToEventsIterator.remove();
-                    if (log.isWarnEnabled()) {
-                        log.warn("Notification transaction no longer active, not processing: " +
-                                notificationToEvents.getKey(), e);
+                Iterator<Entry<Notification, Collection<DocumentEvent>>>
+                        notificationsToEventsIterator =
+                                notificationsToDocumentEvents.entrySet().iterator();
+                while (notificationsToEventsIterator.hasNext()) {
+                    Entry<Notification, Collection<DocumentEvent>> notificationToEvents =
+                            notificationsToEventsIterator.next();
+                    try {
+                        notificationRepository.ensureTransactionActive(
+                                notificationToEvents.getKey());
+                    } catch (Exception e) {
+                        notificationsToEventsIterator.remove();
+                        if (log.isWarnEnabled()) {
+                            log.warn("Notification transaction no longer active, not " +
+                                    "processing: " + notificationToEvents.getKey(), e);
+                        }
                     }
                 }
-            }
 
-            List<DocumentEvent> documentEvents = notificationsToDocumentEvents.values()
-                    .stream()
-                    .flatMap(Collection::stream)
-                    .collect(Collectors.toList());
+                List<DocumentEvent> documentEvents = notificationsToDocumentEvents.values()
+                        .stream()
+                        .flatMap(Collection::stream)
+                        .collect(Collectors.toList());
 
-            log.debug("Persisting {} document events via route {}: {}",
-                    documentEvents.size(), exchange.getFromRouteId(), documentEvents);
+                log.debug("Persisting {} document events via route {}: {}",
+                        documentEvents.size(), exchange.getFromRouteId(), documentEvents);
 
-            try {
-                documentEventRepository.addNewDocumentEvents(documentEvents);
-            } catch (Exception e) {
-                log.error("Failed to persist new document events from notifications. Rolling " +
-                        "back processing. Document events were: " + documentEvents, e);
-                notificationsToDocumentEvents.clear();
+                try {
+                    documentEventRepository.addNewDocumentEvents(documentEvents);
+                } catch (Exception e) {
+                    log.error("Failed to persist new document events from notifications. " +
+                            "Rolling back processing. Document events were: " + documentEvents, e);
+                    notificationsToDocumentEvents.clear();
+                }
+
+                notificationRepository.markNotificationsProcessedOrFailed(
+                        notificationsToDocumentEvents.keySet(), failedNotifications);
+
+                backlogDrivenPolling.onPolled(exchange, batchSize, notifications.size());
+            } finally {
+                onBatchProcessed(batchSize, notifications.size(), timedOut, batchStartNanos);
             }
+        })
+        .end();
+    }
+
+    public BatchSizeController getBatchSizeController() {
+        return batchSizeController;
+    }
+
+    public BacklogDrivenPolling getBacklogDrivenPolling() {
+        return backlogDrivenPolling;
+    }
 
-            notificationRepository.markNotificationsProcessedOrFailed(
-                    notificationsToDocumentEvents.keySet(), failedNotifications);
-        });
+    private void onBatchProcessed(int batchSize, int retrieved, int timedOut,
+            long batchStartNanos) {
+        batchSizeController.onBatchProcessed(batchSize, retrieved, timedOut,
+                Duration.ofNanos(System.nanoTime() - batchStartNanos));
     }
 }
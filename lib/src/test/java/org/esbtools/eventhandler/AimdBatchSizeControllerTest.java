@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+public class AimdBatchSizeControllerTest {
+    AimdBatchSizeController controller = new AimdBatchSizeController(
+            10, 2, 40, 5, 0.5, Duration.ofSeconds(10), 0.1);
+
+    @Test
+    public void shouldIncreaseAdditivelyAfterFullBatchesWhichFinishInTime() {
+        controller.onBatchProcessed(10, 10, 0, Duration.ofSeconds(1));
+        assertThat(controller.currentBatchSize()).isEqualTo(15);
+
+        controller.onBatchProcessed(15, 15, 0, Duration.ofSeconds(1));
+        assertThat(controller.currentBatchSize()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldNotIncreaseAfterBatchesWhichWereNotFull() {
+        controller.onBatchProcessed(10, 9, 0, Duration.ofSeconds(1));
+        assertThat(controller.currentBatchSize()).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldDecreaseMultiplicativelyAfterSlowBatches() {
+        controller.onBatchProcessed(10, 10, 0, Duration.ofSeconds(11));
+        assertThat(controller.currentBatchSize()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldDecreaseMultiplicativelyAfterBatchesWithTooManyTimeouts() {
+        controller.onBatchProcessed(10, 10, 1, Duration.ofSeconds(1));
+        assertThat(controller.currentBatchSize()).isEqualTo(10);
+
+        controller.onBatchProcessed(10, 10, 2, Duration.ofSeconds(1));
+        assertThat(controller.currentBatchSize()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldStayWithinBounds() {
+        for (int i = 0; i < 10; i++) {
+            controller.onBatchProcessed(controller.currentBatchSize(),
+                    controller.currentBatchSize(), 0, Duration.ofSeconds(1));
+        }
+        assertThat(controller.currentBatchSize()).isEqualTo(40);
+
+        for (int i = 0; i < 10; i++) {
+            controller.onBatchProcessed(controller.currentBatchSize(),
+                    controller.currentBatchSize(), 0, Duration.ofMinutes(1));
+        }
+        assertThat(controller.currentBatchSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldBoundInitialBatchSize() {
+        assertThat(new AimdBatchSizeController(100, 2, 40, Duration.ofSeconds(10))
+                .currentBatchSize()).isEqualTo(40);
+    }
+}
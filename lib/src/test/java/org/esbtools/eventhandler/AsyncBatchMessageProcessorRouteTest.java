@@ -57,6 +57,9 @@ public class AsyncBatchMessageProcessorRouteTest extends CamelTestSupport {
     @EndpointInject(uri = "direct:short_timeout")
     ProducerTemplate toShortTimeout;
 
+    @EndpointInject(uri = "direct:half_second_timeout")
+    ProducerTemplate toHalfSecondTimeout;
+
     @EndpointInject(uri = "mock:failures")
     MockEndpoint toFailures;
 
@@ -105,9 +108,10 @@ public class AsyncBatchMessageProcessorRouteTest extends CamelTestSupport {
     }
 
     /**
-     * Creates two message processor routes: one which reads from "direct:incoming" with a long
-     * timeout which should not be hit in normal tests, and another with a very short timeout,
-     * reading from "direct:short_timeout", in order to test timeout handling.
+     * Creates three message processor routes: one which reads from "direct:incoming" with a long
+     * timeout which should not be hit in normal tests, and others with a very short timeout,
+     * reading from "direct:short_timeout", and a half second timeout, reading from
+     * "direct:half_second_timeout", in order to test timeout handling.
      */
     @Override
     protected RouteBuilder[] createRouteBuilders() throws Exception {
@@ -115,7 +119,9 @@ public class AsyncBatchMessageProcessorRouteTest extends CamelTestSupport {
                 new AsyncBatchMessageProcessorRoute("direct:incoming", "mock:failures",
                         Duration.ofMinutes(1), messageFactory),
                 new AsyncBatchMessageProcessorRoute("direct:short_timeout", "mock:failures",
-                        Duration.ofMillis(1), messageFactory)
+                        Duration.ofMillis(1), messageFactory),
+                new AsyncBatchMessageProcessorRoute("direct:half_second_timeout", "mock:failures",
+                        Duration.ofMillis(500), messageFactory)
         };
     }
 
@@ -240,6 +246,77 @@ public class AsyncBatchMessageProcessorRouteTest extends CamelTestSupport {
         Truth.assertThat(failedMessage.exception()).isInstanceOf(TimeoutException.class);
     }
 
+    @Test(timeout = 1400L)
+    public void shouldTimeOutWholeBatchAfterOneProcessTimeoutRatherThanOnePerMessage()
+            throws InterruptedException, InvalidPayloadException {
+        toFailures.expectedMessageCount(1);
+
+        toHalfSecondTimeout.sendBody(Arrays.asList(
+                Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofSeconds(5)));
+
+        toFailures.assertIsSatisfied();
+
+        Collection<?> failures = toFailures.getExchanges().get(0).getIn()
+                .getMandatoryBody(Collection.class);
+
+        Truth.assertThat(failures.stream()
+                .map(FailedMessage.class::cast)
+                .map(FailedMessage::exception)
+                .map(Object::getClass)
+                .collect(Collectors.toList()))
+                .containsExactly(TimeoutException.class, TimeoutException.class,
+                        TimeoutException.class);
+    }
+
+    @Test(timeout = 1400L)
+    public void shouldGatherResultsCompletedBeforeBatchTimeoutDespiteSlowerMessagesAheadOfThem()
+            throws InterruptedException, InvalidPayloadException {
+        toFailures.expectedMessageCount(1);
+
+        Exception exception = new Exception("Simulated failure");
+
+        toHalfSecondTimeout.sendBody(Arrays.asList(Duration.ofSeconds(5), exception, "success!"));
+
+        toFailures.assertIsSatisfied();
+
+        Collection<?> failures = toFailures.getExchanges().get(0).getIn()
+                .getMandatoryBody(Collection.class);
+
+        List<Throwable> exceptions = failures.stream()
+                .map(FailedMessage.class::cast)
+                .map(FailedMessage::exception)
+                .collect(Collectors.toList());
+
+        Truth.assertThat(exceptions).named("failure exceptions").hasSize(2);
+        Truth.assertThat(exceptions).named("failure exceptions").contains(exception);
+        Truth.assertThat(persistence).contains("success!");
+    }
+
+    @Test(timeout = 1400L)
+    public void shouldGatherResultsCompletedWhileWaitingOnSlowerMessageWhichTimesOut()
+            throws InterruptedException, InvalidPayloadException {
+        toFailures.expectedMessageCount(1);
+
+        Duration slow = Duration.ofSeconds(5);
+        Duration fast = Duration.ofMillis(100);
+
+        // Neither is done at the first sweep, so we block on the slow message, during which the
+        // fast one finishes.
+        toHalfSecondTimeout.sendBody(Arrays.asList(slow, fast));
+
+        toFailures.assertIsSatisfied();
+
+        Collection<?> failures = toFailures.getExchanges().get(0).getIn()
+                .getMandatoryBody(Collection.class);
+
+        Truth.assertThat(failures.stream()
+                .map(FailedMessage.class::cast)
+                .map(FailedMessage::originalMessage)
+                .collect(Collectors.toList()))
+                .named("failed messages")
+                .containsExactly(slow);
+    }
+
     @Test(timeout = 1000L)
     public void shouldSendAllFailuresInBatchToFailureUriInSameCollection() throws InterruptedException {
         toFailures.expectedMessageCount(1);
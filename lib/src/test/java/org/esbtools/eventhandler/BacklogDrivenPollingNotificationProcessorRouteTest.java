@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.esbtools.eventhandler.testing.SimpleInMemoryNotificationRepository;
+
+import com.google.common.truth.Truth;
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+public class BacklogDrivenPollingNotificationProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryNotificationRepository notificationRepository = new SimpleInMemoryNotificationRepository();
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    BacklogDrivenPolling backlogDrivenPolling = new BacklogDrivenPolling(4);
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new PollingNotificationProcessorRoute(notificationRepository, documentEventRepository,
+                Duration.ofHours(1), backlogDrivenPolling, Duration.ofSeconds(3),
+                BatchSizeController.fixed(10));
+    }
+
+    @Test
+    public void shouldDrainBacklogWithinOnePollingIntervalByPollingAgainAfterFullBatches() {
+        notificationRepository.addNotifications(
+                PollingNotificationProcessorRouteTest.randomNotifications(35));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .until(documentEventRepository::getDocumentEvents, Matchers.hasSize(35));
+    }
+
+    @Test
+    public void shouldBackOffAfterEmptyBatch() {
+        notificationRepository.addNotifications(
+                PollingNotificationProcessorRouteTest.randomNotifications(20));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .until(backlogDrivenPolling::getConsecutiveEmptyPolls, Matchers.equalTo(1));
+
+        Truth.assertThat(documentEventRepository.getDocumentEvents()).hasSize(20);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class BacklogDrivenPollingTest {
+    BacklogDrivenPolling polling = new BacklogDrivenPolling(8);
+
+    @Test
+    public void shouldPollAgainRightAwayOnlyAfterFullPolls() {
+        assertThat(polling.onPolled(10, 10)).isTrue();
+        assertThat(polling.onPolled(10, 9)).isFalse();
+        assertThat(polling.isPollDue()).isTrue();
+    }
+
+    @Test
+    public void shouldDoubleIntervalsBetweenPollsAfterEachEmptyPollUpToCeiling() {
+        assertThat(ticksUntilNextPollAfterEmptyPoll()).isEqualTo(1);
+        assertThat(ticksUntilNextPollAfterEmptyPoll()).isEqualTo(2);
+        assertThat(ticksUntilNextPollAfterEmptyPoll()).isEqualTo(4);
+        assertThat(ticksUntilNextPollAfterEmptyPoll()).isEqualTo(8);
+        assertThat(ticksUntilNextPollAfterEmptyPoll()).isEqualTo(8);
+    }
+
+    @Test
+    public void shouldStopBackingOffOncePollFindsAnything() {
+        ticksUntilNextPollAfterEmptyPoll();
+        ticksUntilNextPollAfterEmptyPoll();
+        ticksUntilNextPollAfterEmptyPoll();
+
+        polling.onPolled(10, 1);
+
+        assertThat(polling.getConsecutiveEmptyPolls()).isEqualTo(0);
+        assertThat(ticksUntilNextPollAfterEmptyPoll()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNeverPollAgainRightAwayOrBackOffIfDisabled() {
+        BacklogDrivenPolling disabled = BacklogDrivenPolling.disabled();
+
+        assertThat(disabled.onPolled(10, 10)).isFalse();
+        assertThat(disabled.isPollDue()).isTrue();
+
+        disabled.onPolled(10, 0);
+        disabled.onPolled(10, 0);
+
+        assertThat(disabled.isPollDue()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositiveMaxIdleIntervals() {
+        new BacklogDrivenPolling(0);
+    }
+
+    private int ticksUntilNextPollAfterEmptyPoll() {
+        polling.onPolled(10, 0);
+
+        int ticks = 1;
+        while (!polling.isPollDue()) {
+            ticks++;
+        }
+        return ticks;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.Futures;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Future;
+
+public class DocumentEventTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotMergeAllOfNoEvents() {
+        new ConcatenatingDocumentEvent("a").mergeAll(Collections.emptyList());
+    }
+
+    @Test
+    public void shouldMergeAllEventsAsIfMergingEachInTurn() throws Exception {
+        ConcatenatingDocumentEvent a = new ConcatenatingDocumentEvent("a");
+        ConcatenatingDocumentEvent b = new ConcatenatingDocumentEvent("b");
+        ConcatenatingDocumentEvent c = new ConcatenatingDocumentEvent("c");
+
+        DocumentEvent mergedAll = a.mergeAll(Arrays.asList(b, c));
+        DocumentEvent mergedInTurn = a.merge(b).merge(c);
+
+        assertThat(mergedAll.lookupDocument().get()).isEqualTo("abc");
+        assertThat(mergedAll.lookupDocument().get())
+                .isEqualTo(mergedInTurn.lookupDocument().get());
+    }
+
+    /**
+     * Merges by concatenating values in the order merged, so the order of merges shows in the
+     * result. Relies on the default {@link DocumentEvent#mergeAll(java.util.List)}.
+     */
+    static class ConcatenatingDocumentEvent implements DocumentEvent {
+        private final String value;
+
+        ConcatenatingDocumentEvent(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public Future<?> lookupDocument() {
+            return Futures.immediateFuture(value);
+        }
+
+        @Override
+        public boolean isSupersededBy(DocumentEvent event) {
+            return false;
+        }
+
+        @Override
+        public boolean couldMergeWith(DocumentEvent event) {
+            return event instanceof ConcatenatingDocumentEvent;
+        }
+
+        @Override
+        public DocumentEvent merge(DocumentEvent event) {
+            ConcatenatingDocumentEvent other = (ConcatenatingDocumentEvent) event;
+            return new ConcatenatingDocumentEvent(value + other.value);
+        }
+    }
+}
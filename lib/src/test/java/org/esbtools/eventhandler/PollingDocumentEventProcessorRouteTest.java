@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PollingDocumentEventProcessorRouteTest extends CamelTestSupport {
     SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
@@ -115,6 +116,40 @@ public class PollingDocumentEventProcessorRouteTest extends CamelTestSupport {
                 .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(5));
     }
 
+    @Test
+    public void shouldMarkEventsAsPublishedInBulk() throws Exception {
+        documentEndpoint.expectedMessageCount(10);
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(10));
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(10));
+
+        // Allow for the periodic flush landing in the middle of the batch.
+        Truth.assertThat(documentEventRepository.getPublishedBatchSizes().size()).isAtMost(2);
+    }
+
+    @Test(timeout = 10000)
+    public void shouldMarkEventsAsPublishedEvenIfRestOfBatchIsStillPublishing() throws Exception {
+        CountDownLatch unblockPublishing = new CountDownLatch(1);
+        AtomicInteger published = new AtomicInteger(0);
+
+        documentEndpoint.whenAnyExchangeReceived(exchange -> {
+            if (published.incrementAndGet() > 2) {
+                unblockPublishing.await();
+            }
+        });
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(5));
+
+        try {
+            Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                    .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(2));
+        } finally {
+            unblockPublishing.countDown();
+        }
+    }
+
     @Test(timeout = 10000)
     // Eventually this should be "shouldRollBackEventsWherePublishFailed"
     // See: https://github.com/esbtools/event-handler/issues/18
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.esbtools.eventhandler;
+
+import static org.esbtools.eventhandler.PollingDocumentEventProcessorRouteTest.randomSuccessfulEvents;
+
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PrefetchingPollingDocumentEventProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    @EndpointInject(uri = "mock:documents")
+    MockEndpoint documentEndpoint;
+
+    @EndpointInject(uri = "mock:failures")
+    MockEndpoint failureEndpoint;
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new PollingDocumentEventProcessorRoute(documentEventRepository, Duration.ofSeconds(1),
+                Duration.ofSeconds(3), 10, 2, "mock:documents", "mock:failures",
+                "prefetchingDocumentEventProcessor-123");
+    }
+
+    @Test
+    public void shouldTurnAllDocumentEventsIntoDocumentsAndMarkThemPublished() throws Exception {
+        documentEndpoint.expectedMessageCount(30);
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(30));
+
+        documentEndpoint.assertIsSatisfied();
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(30));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldRetrieveUpToPrefetchDepthBatchesAheadOfBatchBeingPublished() throws Exception {
+        CountDownLatch publishing = new CountDownLatch(1);
+        CountDownLatch unblockPublishing = new CountDownLatch(1);
+
+        documentEndpoint.whenAnyExchangeReceived(exchange -> {
+            publishing.countDown();
+            unblockPublishing.await();
+        });
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(40));
+
+        publishing.await();
+
+        try {
+            Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                    .until(documentEventRepository::getDocumentEvents, Matchers.hasSize(10));
+            Thread.sleep(1500);
+            assertEquals(10, documentEventRepository.getDocumentEvents().size());
+        } finally {
+            unblockPublishing.countDown();
+        }
+    }
+
+    @Test
+    public void shouldDropPrefetchedEventsWhoseTransactionsAreNoLongerActive() throws Exception {
+        documentEndpoint.expectedMessageCount(0);
+        failureEndpoint.expectedMessageCount(0);
+
+        documentEventRepository.considerNoTransactionsActive();
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(10));
+
+        documentEndpoint.assertIsSatisfied(5000);
+        failureEndpoint.assertIsSatisfied(100);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import org.esbtools.eventhandler.testing.RecordingBatchSizeController;
+import org.esbtools.eventhandler.testing.RecordingBatchSizeController.ProcessedBatch;
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.esbtools.eventhandler.testing.TimingOutDocumentEvent;
+
+import com.google.common.truth.Truth;
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class ReportedBatchPollingDocumentEventProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    RecordingBatchSizeController batchSizeController = new RecordingBatchSizeController(10);
+
+    @EndpointInject(uri = "mock:documents")
+    MockEndpoint documentEndpoint;
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new PollingDocumentEventProcessorRoute(documentEventRepository,
+                Duration.ofMillis(100), Duration.ofMillis(500), batchSizeController, 0, 10,
+                PollingDocumentEventProcessorRoute.DEFAULT_PUBLISHED_ACK_MAX_DELAY,
+                "mock:documents", "mock:failures", "documentEventProcessor-reported");
+    }
+
+    @Test
+    public void shouldReportEveryEventWhichTimedOut() throws Exception {
+        List<DocumentEvent> events = new ArrayList<>();
+        events.add(new TimingOutDocumentEvent());
+        events.addAll(PollingDocumentEventProcessorRouteTest.randomSuccessfulEvents(2));
+        events.add(new TimingOutDocumentEvent());
+        events.add(new TimingOutDocumentEvent());
+
+        documentEventRepository.addNewDocumentEvents(events);
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(this::nonEmptyProcessedBatches, Matchers.hasSize(1));
+
+        ProcessedBatch batch = nonEmptyProcessedBatches().get(0);
+        Truth.assertThat(batch.retrieved).isEqualTo(5);
+        Truth.assertThat(batch.timedOut).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReportBatchesWhichFailedToPublish() throws Exception {
+        documentEndpoint.whenAnyExchangeReceived(exchange -> {
+            throw new Exception("Simulated publish failure");
+        });
+
+        documentEventRepository.addNewDocumentEvents(
+                PollingDocumentEventProcessorRouteTest.randomSuccessfulEvents(2));
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(this::nonEmptyProcessedBatches, Matchers.hasSize(1));
+
+        ProcessedBatch batch = nonEmptyProcessedBatches().get(0);
+        Truth.assertThat(batch.retrieved).isEqualTo(2);
+        Truth.assertThat(batch.timedOut).isEqualTo(0);
+    }
+
+    private List<ProcessedBatch> nonEmptyProcessedBatches() {
+        return batchSizeController.getProcessedBatches().stream()
+                .filter(batch -> batch.retrieved > 0)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import org.esbtools.eventhandler.testing.RecordingBatchSizeController;
+import org.esbtools.eventhandler.testing.RecordingBatchSizeController.ProcessedBatch;
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.esbtools.eventhandler.testing.SimpleInMemoryNotificationRepository;
+import org.esbtools.eventhandler.testing.TimingOutNotification;
+
+import com.google.common.truth.Truth;
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+public class ReportedBatchPollingNotificationProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryNotificationRepository notificationRepository = new SimpleInMemoryNotificationRepository();
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    RecordingBatchSizeController batchSizeController = new RecordingBatchSizeController(10);
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new PollingNotificationProcessorRoute(notificationRepository, documentEventRepository,
+                Duration.ofMillis(100), Duration.ofMillis(500), batchSizeController);
+    }
+
+    @Test
+    public void shouldReportEveryNotificationWhichTimedOut() {
+        List<Notification> notifications = new ArrayList<>();
+        notifications.add(new TimingOutNotification());
+        notifications.addAll(PollingNotificationProcessorRouteTest.randomNotifications(2));
+        notifications.add(new TimingOutNotification());
+        notifications.add(new TimingOutNotification());
+
+        notificationRepository.addNotifications(notifications);
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(this::nonEmptyProcessedBatches, Matchers.hasSize(1));
+
+        ProcessedBatch batch = nonEmptyProcessedBatches().get(0);
+        Truth.assertThat(batch.retrieved).isEqualTo(5);
+        Truth.assertThat(batch.timedOut).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldReportBatchesWhichFailedToBeMarkedProcessed() {
+        notificationRepository.failOnMarkingProcessed();
+        notificationRepository.addNotifications(
+                PollingNotificationProcessorRouteTest.randomNotifications(2));
+
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(this::nonEmptyProcessedBatches, Matchers.hasSize(1));
+
+        ProcessedBatch batch = nonEmptyProcessedBatches().get(0);
+        Truth.assertThat(batch.retrieved).isEqualTo(2);
+        Truth.assertThat(batch.timedOut).isEqualTo(0);
+    }
+
+    private List<ProcessedBatch> nonEmptyProcessedBatches() {
+        return batchSizeController.getProcessedBatches().stream()
+                .filter(batch -> batch.retrieved > 0)
+                .collect(Collectors.toList());
+    }
+}
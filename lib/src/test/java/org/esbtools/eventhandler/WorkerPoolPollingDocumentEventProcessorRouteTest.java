@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler;
+
+import static org.esbtools.eventhandler.PollingDocumentEventProcessorRouteTest.randomSuccessfulEvents;
+
+import com.jayway.awaitility.Awaitility;
+import org.apache.camel.RoutesBuilder;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.esbtools.eventhandler.testing.SimpleInMemoryDocumentEventRepository;
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WorkerPoolPollingDocumentEventProcessorRouteTest extends CamelTestSupport {
+    SimpleInMemoryDocumentEventRepository documentEventRepository = new SimpleInMemoryDocumentEventRepository();
+
+    /**
+     * Mock endpoints handle one exchange at a time, so to observe workers publishing concurrently,
+     * documents are published to a route which can block them instead.
+     */
+    CountDownLatch allWorkersPublishing = new CountDownLatch(3);
+    volatile boolean awaitAllWorkersPublishing = false;
+
+    @Override
+    protected RoutesBuilder[] createRouteBuilders() throws Exception {
+        return new RoutesBuilder[] {
+                new PollingDocumentEventProcessorRoute(documentEventRepository,
+                        Duration.ofSeconds(1), BacklogDrivenPolling.disabled(),
+                        Duration.ofSeconds(3), BatchSizeController.fixed(10), 3, 0, 10,
+                        PollingDocumentEventProcessorRoute.DEFAULT_PUBLISHED_ACK_MAX_DELAY,
+                        "direct:documents", "mock:failures", "documentEventWorkers"),
+                new RouteBuilder() {
+                    @Override
+                    public void configure() throws Exception {
+                        from("direct:documents").process(exchange -> {
+                            if (awaitAllWorkersPublishing) {
+                                allWorkersPublishing.countDown();
+                                allWorkersPublishing.await();
+                            }
+                        });
+                    }
+                }
+        };
+    }
+
+    @Test
+    public void shouldRunOneRoutePerWorker() {
+        assertNotNull(context.getRoute("documentEventWorkers-0"));
+        assertNotNull(context.getRoute("documentEventWorkers-1"));
+        assertNotNull(context.getRoute("documentEventWorkers-2"));
+        assertNull(context.getRoute("documentEventWorkers-3"));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldProcessBatchesConcurrently() throws Exception {
+        awaitAllWorkersPublishing = true;
+
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(30));
+
+        allWorkersPublishing.await();
+    }
+
+    @Test
+    public void shouldPublishEachDocumentEventOnce() throws Exception {
+        documentEventRepository.addNewDocumentEvents(randomSuccessfulEvents(60));
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS)
+                .until(documentEventRepository::getPublishedEvents, Matchers.hasSize(60));
+
+        assertEquals(60, new HashSet<>(documentEventRepository.getPublishedEvents()).size());
+    }
+}
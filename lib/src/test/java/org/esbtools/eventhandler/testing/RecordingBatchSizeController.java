@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.testing;
+
+import org.esbtools.eventhandler.BatchSizeController;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Always uses the same batch size, and records what each batch reports.
+ */
+public class RecordingBatchSizeController implements BatchSizeController {
+    private final int batchSize;
+    private final List<ProcessedBatch> processedBatches =
+            Collections.synchronizedList(new ArrayList<>());
+
+    public RecordingBatchSizeController(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public List<ProcessedBatch> getProcessedBatches() {
+        synchronized (processedBatches) {
+            return new ArrayList<>(processedBatches);
+        }
+    }
+
+    @Override
+    public int currentBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public void onBatchProcessed(int batchSize, int retrieved, int timedOut, Duration elapsed) {
+        processedBatches.add(new ProcessedBatch(retrieved, timedOut));
+    }
+
+    public static class ProcessedBatch {
+        public final int retrieved;
+        public final int timedOut;
+
+        ProcessedBatch(int retrieved, int timedOut) {
+            this.retrieved = retrieved;
+            this.timedOut = timedOut;
+        }
+
+        @Override
+        public String toString() {
+            return "ProcessedBatch{retrieved=" + retrieved + ", timedOut=" + timedOut + '}';
+        }
+    }
+}
@@ -31,6 +31,7 @@ public class SimpleInMemoryDocumentEventRepository implements DocumentEventRepos
     private final List<DocumentEvent> documentEvents = Collections.synchronizedList(new ArrayList<>());
     private final List<DocumentEvent> published = Collections.synchronizedList(new ArrayList<>());
     private final List<FailedDocumentEvent> failed = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> publishedBatchSizes = Collections.synchronizedList(new ArrayList<>());
     private boolean failOnAddingDocumentEvents;
     private boolean considerNoTransactionsActive;
 
@@ -46,6 +47,13 @@ public class SimpleInMemoryDocumentEventRepository implements DocumentEventRepos
         return failed;
     }
 
+    /**
+     * @return The number of events marked published in each call which marked any as published.
+     */
+    public List<Integer> getPublishedBatchSizes() {
+        return publishedBatchSizes;
+    }
+
     public void failOnAddingDocumentEvents() {
         failOnAddingDocumentEvents = true;
     }
@@ -71,10 +79,12 @@ public class SimpleInMemoryDocumentEventRepository implements DocumentEventRepos
 
     @Override
     public List<? extends DocumentEvent> retrievePriorityDocumentEventsUpTo(int maxEvents) throws Exception {
-        maxEvents = maxEvents > documentEvents.size() ? documentEvents.size() : maxEvents;
-        List<DocumentEvent> retrieved = new ArrayList<>(documentEvents.subList(0, maxEvents));
-        documentEvents.removeAll(retrieved);
-        return retrieved;
+        synchronized (documentEvents) {
+            maxEvents = maxEvents > documentEvents.size() ? documentEvents.size() : maxEvents;
+            List<DocumentEvent> retrieved = new ArrayList<>(documentEvents.subList(0, maxEvents));
+            documentEvents.removeAll(retrieved);
+            return retrieved;
+        }
     }
 
     @Override
@@ -90,5 +100,9 @@ public class SimpleInMemoryDocumentEventRepository implements DocumentEventRepos
             Collection<FailedDocumentEvent> failures) throws Exception {
         published.addAll(events);
         failed.addAll(failures);
+
+        if (!events.isEmpty()) {
+            publishedBatchSizes.add(events.size());
+        }
     }
 }
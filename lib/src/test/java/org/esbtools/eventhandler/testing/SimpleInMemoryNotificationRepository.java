@@ -32,6 +32,7 @@ public class SimpleInMemoryNotificationRepository implements NotificationReposit
     private final List<Notification> processed = Collections.synchronizedList(new ArrayList<>());
     private final List<FailedNotification> failed = Collections.synchronizedList(new ArrayList<>());
     private boolean considerNoTransactionsActive = false;
+    private boolean failOnMarkingProcessed = false;
 
     public void addNotifications(List<? extends Notification> notifications) {
         this.notifications.addAll(notifications);
@@ -49,6 +50,10 @@ public class SimpleInMemoryNotificationRepository implements NotificationReposit
         considerNoTransactionsActive = true;
     }
 
+    public void failOnMarkingProcessed() {
+        failOnMarkingProcessed = true;
+    }
+
     @Override
     public List<? extends Notification> retrieveOldestNotificationsUpTo(int maxNotifications) throws Exception {
         maxNotifications = maxNotifications > notifications.size() ? notifications.size() : maxNotifications;
@@ -67,6 +72,10 @@ public class SimpleInMemoryNotificationRepository implements NotificationReposit
     @Override
     public void markNotificationsProcessedOrFailed(Collection<? extends Notification> notification,
             Collection<FailedNotification> failures) throws Exception {
+        if (failOnMarkingProcessed) {
+            throw new RuntimeException("Simulated failure");
+        }
+
         processed.addAll(notification);
         failed.addAll(failures);
     }
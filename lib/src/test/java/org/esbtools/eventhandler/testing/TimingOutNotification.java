@@ -0,0 +1,36 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.testing;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.esbtools.eventhandler.DocumentEvent;
+import org.esbtools.eventhandler.Notification;
+
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+/**
+ * A notification whose document events are never ready.
+ */
+public class TimingOutNotification implements Notification {
+    @Override
+    public Future<Collection<DocumentEvent>> toDocumentEvents() {
+        return SettableFuture.create();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2015 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import org.esbtools.eventhandler.DocumentEvent;
+
+/**
+ * An optional extension of {@link LightblueDocumentEvent} for events which can cheaply describe
+ * which other events they may supersede or be superseded by, without comparing against each one.
+ *
+ * <p>When {@link LightblueDocumentEventRepository} optimizes a batch of events sharing the same
+ * {@link #identity()}, events implementing this interface are indexed by their
+ * {@link #coalescingKey()}. A new event is then compared only with the one event already known
+ * with the same key, instead of with every event known so far. Events which do not implement this
+ * interface are still compared pairwise with every other event.
+ *
+ * <p>Implementations must be consistent with {@link #isSupersededBy(DocumentEvent)} and
+ * {@link #couldMergeWith(DocumentEvent)}. That is:
+ *
+ * <ul>
+ *     <li>Two in flight events with equal coalescing keys supersede one another: the event with
+ *     the lower {@link #coalescingVersion()} is superseded by the other. If versions are equal,
+ *     either may be superseded.</li>
+ *     <li>Two events with different coalescing keys neither supersede nor merge with one
+ *     another.</li>
+ * </ul>
+ */
+public interface CoalescableDocumentEvent extends LightblueDocumentEvent {
+    /**
+     * @return A key with well defined {@link Object#equals(Object) equals} and
+     * {@link Object#hashCode() hashCode} implementations. Events with equal keys are equivalent
+     * except for their {@link #coalescingVersion() version}.
+     */
+    Object coalescingKey();
+
+    /**
+     * Among events with the same {@link #coalescingKey()}, the event with the greatest version
+     * supersedes the others.
+     */
+    long coalescingVersion();
+}
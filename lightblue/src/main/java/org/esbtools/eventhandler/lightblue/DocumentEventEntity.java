@@ -43,7 +43,8 @@ import java.util.Set;
  * Serialization-friendly "data object" for an entity in the documentEvent collection.
  */
 @EntityName(DocumentEventEntity.ENTITY_NAME)
-@Version(value = "0.1.0", preferImplementationVersion = false, changelog = "Initial release")
+@Version(value = "0.2.0", preferImplementationVersion = false,
+        changelog = "Optional identity hash partition")
 public class DocumentEventEntity {
     public static final String ENTITY_NAME = "documentEvent";
     public static final String VERSION = Version.FromAnnotation.onEntity(DocumentEventEntity.class);
@@ -58,6 +59,7 @@ public class DocumentEventEntity {
     private ZonedDateTime processedDate;
     private Set<String> survivorOfIds;
     private String sourceNotificationId;
+    private Integer partition;
 
     private static final String LIGHTBLUE_DATE_FORMAT = ClientConstants.LIGHTBLUE_DATE_FORMAT_STR;
 
@@ -197,6 +199,18 @@ public class DocumentEventEntity {
         this.sourceNotificationId = sourceNotificationId;
     }
 
+    public Integer getPartition() {
+        return partition;
+    }
+
+    @Description("Which partition this event belongs to, as a hash of its identity. Each " +
+            "repository may be configured to only retrieve events from partitions it owns, so " +
+            "that repositories retrieve disjoint events. Null if the event was inserted without " +
+            "partitioning.")
+    public void setPartition(Integer partition) {
+        this.partition = partition;
+    }
+
     @Override
     public String toString() {
         return "DocumentEventEntity{" +
@@ -210,6 +224,7 @@ public class DocumentEventEntity {
                 ", processedDate=" + processedDate +
                 ", survivorOfIds=" + survivorOfIds +
                 ", sourceNotificationId='" + sourceNotificationId + '\'' +
+                ", partition=" + partition +
                 '}';
     }
 
@@ -227,13 +242,14 @@ public class DocumentEventEntity {
                 Objects.equals(processingDate, that.processingDate) &&
                 Objects.equals(processedDate, that.processedDate) &&
                 Objects.equals(survivorOfIds, that.survivorOfIds) &&
-                Objects.equals(sourceNotificationId, that.sourceNotificationId);
+                Objects.equals(sourceNotificationId, that.sourceNotificationId) &&
+                Objects.equals(partition, that.partition);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(_id, canonicalType, parameters, status, priority, creationDate,
-                processingDate, processedDate, survivorOfIds, sourceNotificationId);
+                processingDate, processedDate, survivorOfIds, sourceNotificationId, partition);
     }
 
     public enum Status {
@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Splits document events into a fixed number of partitions by a hash of their
+ * {@link LightblueDocumentEvent#identity()}, and determines which of those partitions a repository
+ * retrieves.
+ *
+ * <p>Without partitioning, every repository queries for the same highest priority events, and all
+ * but one fail to lock each of them. When each node (or worker) owns a disjoint set of partitions,
+ * they query for disjoint events instead. Because events which share an identity always share a
+ * partition, events which may be merged or superseded by each other are still retrieved together.
+ *
+ * <p>Events inserted before partitioning was enabled have no partition. These are retrieved by the
+ * owner of partition 0, so they are not left behind.
+ *
+ * <p>All nodes must agree on the partition count, and together own every partition, or some events
+ * will never be retrieved.
+ */
+public final class DocumentEventPartitioning {
+    private static final DocumentEventPartitioning NONE = new DocumentEventPartitioning();
+
+    private static final HashFunction IDENTITY_HASH = Hashing.murmur3_32();
+
+    private final int partitionCount;
+    private final SortedSet<Integer> ownedPartitions;
+    /** Cached to avoid extra garbage. */
+    private final Integer[] ownedPartitionsArray;
+
+    /**
+     * Events are not partitioned: they are inserted without a partition, and all events are
+     * retrieved regardless of partition.
+     */
+    public static DocumentEventPartitioning none() {
+        return NONE;
+    }
+
+    /**
+     * Evenly assigns partitions among members, such as the nodes of a cluster. Member {@code i}
+     * owns every partition {@code p} where {@code p % memberCount == i}.
+     *
+     * @param memberIndex Zero-based index of the member to own partitions, unique among members.
+     */
+    public static DocumentEventPartitioning forMember(int memberIndex, int memberCount,
+            int partitionCount) {
+        if (memberCount < 1 || memberIndex < 0 || memberIndex >= memberCount) {
+            throw new IllegalArgumentException("Member index must be at least 0 and less than " +
+                    "member count " + memberCount + ", but was: " + memberIndex);
+        }
+
+        if (partitionCount < memberCount) {
+            throw new IllegalArgumentException("Partition count must be at least member count " +
+                    memberCount + " so every member owns a partition, but was: " + partitionCount);
+        }
+
+        SortedSet<Integer> owned = new TreeSet<>();
+        for (int partition = memberIndex; partition < partitionCount; partition += memberCount) {
+            owned.add(partition);
+        }
+
+        return new DocumentEventPartitioning(partitionCount, owned);
+    }
+
+    /**
+     * @param partitionCount How many partitions events are split into.
+     * @param ownedPartitions Which of those partitions to retrieve events from, each at least 0 and
+     *                        less than {@code partitionCount}.
+     */
+    public DocumentEventPartitioning(int partitionCount, Collection<Integer> ownedPartitions) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("Partition count must be positive, but was: " +
+                    partitionCount);
+        }
+
+        if (ownedPartitions.isEmpty()) {
+            throw new IllegalArgumentException("Must own at least one partition.");
+        }
+
+        for (Integer partition : ownedPartitions) {
+            if (partition == null || partition < 0 || partition >= partitionCount) {
+                throw new IllegalArgumentException("Owned partitions must be at least 0 and less " +
+                        "than partition count " + partitionCount + ", but got: " + partition);
+            }
+        }
+
+        this.partitionCount = partitionCount;
+        this.ownedPartitions = Collections.unmodifiableSortedSet(new TreeSet<>(ownedPartitions));
+        this.ownedPartitionsArray = this.ownedPartitions.toArray(
+                new Integer[this.ownedPartitions.size()]);
+    }
+
+    private DocumentEventPartitioning() {
+        partitionCount = 0;
+        ownedPartitions = Collections.emptySortedSet();
+        ownedPartitionsArray = new Integer[0];
+    }
+
+    public boolean isPartitioned() {
+        return partitionCount > 0;
+    }
+
+    /**
+     * @return The partition events with the provided identity belong to, or {@code null} if events
+     * are not partitioned.
+     */
+    @Nullable
+    public Integer partitionOf(Identity identity) {
+        if (!isPartitioned()) {
+            return null;
+        }
+
+        // Unlike String#hashCode, murmur3 spreads similar resource ids across partitions well.
+        int hash = IDENTITY_HASH.hashString(identity.getResourceId(), StandardCharsets.UTF_8)
+                .asInt();
+        return Math.floorMod(hash, partitionCount);
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public SortedSet<Integer> getOwnedPartitions() {
+        return ownedPartitions;
+    }
+
+    /**
+     * @return Owned partitions as an array, for building queries. Do not modify.
+     */
+    public Integer[] getOwnedPartitionsArray() {
+        return ownedPartitionsArray;
+    }
+
+    /**
+     * @return Whether events without a partition, inserted before partitioning was enabled, are
+     * retrieved.
+     */
+    public boolean ownsUnpartitioned() {
+        return ownedPartitions.contains(0);
+    }
+
+    @Override
+    public String toString() {
+        return isPartitioned()
+                ? "DocumentEventPartitioning{" +
+                        "partitionCount=" + partitionCount +
+                        ", ownedPartitions=" + ownedPartitions +
+                        '}'
+                : "DocumentEventPartitioning{none}";
+    }
+}
@@ -20,6 +20,8 @@ package org.esbtools.eventhandler.lightblue;
 
 import org.esbtools.eventhandler.DocumentEvent;
 
+import java.util.List;
+
 /**
  * Connects event implementations to the underlying {@link LightblueDocumentEventRepository} data
  * model.
@@ -31,6 +33,15 @@ public interface LightblueDocumentEvent extends DocumentEvent {
     @Override
     LightblueDocumentEvent merge(DocumentEvent event);
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    default LightblueDocumentEvent mergeAll(List<? extends DocumentEvent> events) {
+        // Safe, because merge is narrowed above to return LightblueDocumentEvents.
+        return (LightblueDocumentEvent) DocumentEvent.super.mergeAll(events);
+    }
+
     /**
      * Identity is a set of key value pairs with the property of being equivalent to another
      * document event's identity when this document event is able to be merged with or is superseded
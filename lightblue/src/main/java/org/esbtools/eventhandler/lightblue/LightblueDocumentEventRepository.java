@@ -22,12 +22,15 @@ import org.esbtools.eventhandler.DocumentEvent;
 import org.esbtools.eventhandler.DocumentEventRepository;
 import org.esbtools.eventhandler.FailedDocumentEvent;
 import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.BulkRequestChunking;
+import org.esbtools.eventhandler.lightblue.client.CachingLightblueRequester;
 import org.esbtools.eventhandler.lightblue.client.FindRequests;
+import org.esbtools.eventhandler.lightblue.client.FindResponseCache;
 import org.esbtools.eventhandler.lightblue.client.InsertRequests;
 import org.esbtools.eventhandler.lightblue.client.LightblueErrors;
 import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
 import org.esbtools.eventhandler.lightblue.client.UpdateRequests;
-import org.esbtools.eventhandler.lightblue.locking.LockNotAvailableException;
+import org.esbtools.eventhandler.lightblue.locking.ConsistentHashOwnership;
 import org.esbtools.eventhandler.lightblue.locking.LockStrategy;
 import org.esbtools.eventhandler.lightblue.locking.Lockable;
 import org.esbtools.eventhandler.lightblue.locking.LockedResource;
@@ -36,14 +39,15 @@ import org.esbtools.eventhandler.lightblue.locking.LostLockException;
 
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
 import com.redhat.lightblue.client.request.DataBulkRequest;
 import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
-import com.redhat.lightblue.client.response.LightblueBulkResponseException;
 import com.redhat.lightblue.client.response.LightblueDataResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
@@ -52,13 +56,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -72,21 +77,173 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
     private final LockStrategy lockStrategy;
     private final Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType;
     private final Clock clock;
+    @Nullable
+    private final FindResponseCache documentLookupCache;
+    private final BulkRequestChunking bulkRequestChunking;
+    /** Never isolates failures, as retrying inserts or updates could duplicate or drop them. */
+    private final BulkRequestChunking writeChunking;
+    private final DocumentEventPartitioning partitioning;
+    @Nullable
+    private final ConsistentHashOwnership typeOwnership;
+    private final PriorityWindowing priorityWindowing;
+    private final boolean claimBeforeFetching;
+    private final boolean expiredReclaimedSeparately;
 
     private final Set<String> supportedTypes;
     /** Cached to avoid extra garbage. */
     private final String[] supportedTypesArray;
 
+    /** The order of {@link FindRequests#priorityDocumentEventsForTypesUpTo}. */
+    private static final Comparator<DocumentEventEntity> PRIORITY_ORDER =
+            Comparator.comparing(DocumentEventEntity::getPriority, Comparator.reverseOrder())
+                    .thenComparing(entity -> entity.getCreationDate().toInstant());
+
     private static final Logger logger = LoggerFactory.getLogger(LightblueDocumentEventRepository.class);
 
     public LightblueDocumentEventRepository(LightblueClient lightblue,
             LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
             Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock) {
+        this(lightblue, lockStrategy, config, documentEventFactoriesByType, clock, null);
+    }
+
+    /**
+     * @param documentLookupCache If not null, finds made by document events through the requester
+     *                            they are created with are answered from this cache where
+     *                            possible. See {@link CachingLightblueRequester}.
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock,
+            @Nullable FindResponseCache documentLookupCache) {
+        this(lightblue, lockStrategy, config, documentEventFactoriesByType, clock,
+                documentLookupCache, BulkRequestChunking.none());
+    }
+
+    /**
+     * @param bulkRequestChunking Governs how many bulk requests are made for a batch of document
+     *                            event updates, and for a batch of document lookups.
+     * @see #LightblueDocumentEventRepository(LightblueClient, LockStrategy,
+     * LightblueDocumentEventRepositoryConfig, Map, Clock, FindResponseCache)
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock,
+            @Nullable FindResponseCache documentLookupCache,
+            BulkRequestChunking bulkRequestChunking) {
+        this(lightblue, lockStrategy, config, documentEventFactoriesByType, clock,
+                documentLookupCache, bulkRequestChunking, DocumentEventPartitioning.none());
+    }
+
+    /**
+     * @param partitioning New events are assigned a partition by their identity, and only events
+     *                     in owned partitions are retrieved. See
+     *                     {@link DocumentEventPartitioning}.
+     * @see #LightblueDocumentEventRepository(LightblueClient, LockStrategy,
+     * LightblueDocumentEventRepositoryConfig, Map, Clock, FindResponseCache, BulkRequestChunking)
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock,
+            @Nullable FindResponseCache documentLookupCache,
+            BulkRequestChunking bulkRequestChunking, DocumentEventPartitioning partitioning) {
+        this(lightblue, lockStrategy, config, documentEventFactoriesByType, clock,
+                documentLookupCache, bulkRequestChunking, partitioning, null);
+    }
+
+    /**
+     * @param typeOwnership If not null, only events of canonical types owned by this node, among
+     *                      those supported and enabled, are retrieved. Ownership is shared among
+     *                      nodes with the same {@code ConsistentHashOwnership} group by
+     *                      consistent hashing, so each type is processed by one node at a time.
+     *                      See {@link ConsistentHashOwnership}.
+     * @see #LightblueDocumentEventRepository(LightblueClient, LockStrategy,
+     * LightblueDocumentEventRepositoryConfig, Map, Clock, FindResponseCache, BulkRequestChunking,
+     * DocumentEventPartitioning)
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock,
+            @Nullable FindResponseCache documentLookupCache,
+            BulkRequestChunking bulkRequestChunking, DocumentEventPartitioning partitioning,
+            @Nullable ConsistentHashOwnership typeOwnership) {
+        this(lightblue, lockStrategy, config, documentEventFactoriesByType, clock,
+                documentLookupCache, bulkRequestChunking, partitioning, typeOwnership,
+                PriorityWindowing.none());
+    }
+
+    /**
+     * @param priorityWindowing Determines which window of the priority ordering of events each
+     *                          retrieval reads, so that concurrent pollers retrieve different
+     *                          events rather than race for the same. See
+     *                          {@link PriorityWindowing}.
+     * @see #LightblueDocumentEventRepository(LightblueClient, LockStrategy,
+     * LightblueDocumentEventRepositoryConfig, Map, Clock, FindResponseCache, BulkRequestChunking,
+     * DocumentEventPartitioning, ConsistentHashOwnership)
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock,
+            @Nullable FindResponseCache documentLookupCache,
+            BulkRequestChunking bulkRequestChunking, DocumentEventPartitioning partitioning,
+            @Nullable ConsistentHashOwnership typeOwnership, PriorityWindowing priorityWindowing) {
+        this(lightblue, lockStrategy, config, documentEventFactoriesByType, clock,
+                documentLookupCache, bulkRequestChunking, partitioning, typeOwnership,
+                priorityWindowing, false);
+    }
+
+    /**
+     * @param claimBeforeFetching If true, events are retrieved in two phases. First, only the
+     *                            fields needed to parse events and lock their identities are
+     *                            queried. Then, only events whose identities were locked are
+     *                            fetched in full, with one query by id. This transfers and parses
+     *                            less for events which are locked elsewhere, at the cost of an
+     *                            extra round trip.
+     * @see #LightblueDocumentEventRepository(LightblueClient, LockStrategy,
+     * LightblueDocumentEventRepositoryConfig, Map, Clock, FindResponseCache, BulkRequestChunking,
+     * DocumentEventPartitioning, ConsistentHashOwnership, PriorityWindowing)
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock,
+            @Nullable FindResponseCache documentLookupCache,
+            BulkRequestChunking bulkRequestChunking, DocumentEventPartitioning partitioning,
+            @Nullable ConsistentHashOwnership typeOwnership, PriorityWindowing priorityWindowing,
+            boolean claimBeforeFetching) {
+        this(lightblue, lockStrategy, config, documentEventFactoriesByType, clock,
+                documentLookupCache, bulkRequestChunking, partitioning, typeOwnership,
+                priorityWindowing, claimBeforeFetching, false);
+    }
+
+    /**
+     * @param expiredReclaimedSeparately If true, only unprocessed events are retrieved. Events
+     *                                   which expire while processing must then be reset to
+     *                                   unprocessed by some other means, such as a
+     *                                   {@link PeriodicReclaimExpiredEntitiesRoute}, or they will
+     *                                   never be retrieved again.
+     * @see #LightblueDocumentEventRepository(LightblueClient, LockStrategy,
+     * LightblueDocumentEventRepositoryConfig, Map, Clock, FindResponseCache, BulkRequestChunking,
+     * DocumentEventPartitioning, ConsistentHashOwnership, PriorityWindowing, boolean)
+     */
+    public LightblueDocumentEventRepository(LightblueClient lightblue,
+            LockStrategy lockStrategy, LightblueDocumentEventRepositoryConfig config,
+            Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType, Clock clock,
+            @Nullable FindResponseCache documentLookupCache,
+            BulkRequestChunking bulkRequestChunking, DocumentEventPartitioning partitioning,
+            @Nullable ConsistentHashOwnership typeOwnership, PriorityWindowing priorityWindowing,
+            boolean claimBeforeFetching, boolean expiredReclaimedSeparately) {
         this.lightblue = lightblue;
         this.lockStrategy = lockStrategy;
         this.config = config;
         this.documentEventFactoriesByType = documentEventFactoriesByType;
         this.clock = clock;
+        this.documentLookupCache = documentLookupCache;
+        this.bulkRequestChunking = bulkRequestChunking;
+        this.writeChunking = bulkRequestChunking.withoutIsolatingFailures();
+        this.partitioning = Objects.requireNonNull(partitioning, "partitioning");
+        this.typeOwnership = typeOwnership;
+        this.priorityWindowing = Objects.requireNonNull(priorityWindowing, "priorityWindowing");
+        this.claimBeforeFetching = claimBeforeFetching;
+        this.expiredReclaimedSeparately = expiredReclaimedSeparately;
 
         supportedTypes = documentEventFactoriesByType.keySet();
         supportedTypesArray = supportedTypes.toArray(new String[supportedTypes.size()]);
@@ -103,6 +260,12 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                 .map(LightblueDocumentEventRepository::asEntity)
                 .collect(Collectors.toList());
 
+        if (partitioning.isPartitioned()) {
+            for (DocumentEvent event : documentEvents) {
+                assignPartition((LightblueDocumentEvent) event);
+            }
+        }
+
         int newEventsCount = documentEventEntities.size();
         int maxEventsPerInsert = config.getOptionalMaxDocumentEventsPerInsert().orElse(newEventsCount);
 
@@ -143,21 +306,38 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             return Collections.emptyList();
         }
 
-        DocumentEventEntity[] documentEventEntities = lightblue
-                .data(FindRequests.priorityDocumentEventsForTypesUpTo(
-                        typesToProcess, documentEventsBatchSize,
-                        clock.instant().minus(processingTimeout)))
-                .parseProcessed(DocumentEventEntity[].class);
+        Instant expiredProcessingDate = clock.instant().minus(processingTimeout);
+        int window = priorityWindowing.nextWindow();
+
+        DocumentEventEntity[] documentEventEntities = findPriorityDocumentEventEntities(
+                typesToProcess, window * documentEventsBatchSize, documentEventsBatchSize,
+                expiredProcessingDate);
+
+        if (documentEventEntities.length == 0 && window > 0) {
+            logger.debug("Priority window {} was past the end of the backlog. Reading the " +
+                    "first window instead.", window);
+
+            documentEventEntities = findPriorityDocumentEventEntities(
+                    typesToProcess, 0, documentEventsBatchSize, expiredProcessingDate);
+        }
 
         if (documentEventEntities.length == 0) {
             return Collections.emptyList();
         }
 
+        if (claimBeforeFetching) {
+            try (LockedResources<SharedIdentityEvents> eventLocks =
+                         lockClaimsThenFetchAndOptimize(maxEvents, documentEventEntities,
+                                 expiredProcessingDate)) {
+                return persistNewEventsAndStatusUpdatesToExisting(eventLocks);
+            }
+        }
+
         try (LockedResources<SharedIdentityEvents> eventLocks =
                      SharedIdentityEvents.parseAndOptimizeLockableDocumentEventEntities(
                              maxEvents,
                              documentEventEntities,
-                             new BulkLightblueRequester(lightblue),
+                             newRequester(),
                              documentEventFactoriesByType,
                              lockStrategy,
                              clock)) {
@@ -166,6 +346,112 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
         }
     }
 
+    /**
+     * Finds events in priority order, either in full, or only their claims if
+     * {@link #claimBeforeFetching}.
+     *
+     * <p>Unprocessed and expired events, and events without a partition if owned, are found with
+     * separate sorted finds in one bulk request, which are then merged, so each find may be
+     * answered by an index in sort order. If {@link #expiredReclaimedSeparately}, only unprocessed
+     * events are found.
+     */
+    private DocumentEventEntity[] findPriorityDocumentEventEntities(String[] types, int skipEvents,
+            int maxEvents, Instant expiredProcessingDate) throws LightblueException {
+        // The window is only skipped among unprocessed, partitioned events. Expired and
+        // unpartitioned events are few, so each window merges in the highest priority of them;
+        // windows are approximate anyway.
+        DataBulkRequest findSorted;
+
+        if (expiredReclaimedSeparately) {
+            findSorted = FindRequests.unprocessedPriorityDocumentEventsForTypesUpTo(
+                    types, partitioning, skipEvents, maxEvents, claimBeforeFetching);
+        } else if (claimBeforeFetching) {
+            findSorted = FindRequests.priorityDocumentEventClaimsForTypesUpToByStatus(
+                    types, partitioning, skipEvents, maxEvents, expiredProcessingDate);
+        } else {
+            findSorted = FindRequests.priorityDocumentEventsForTypesUpToByStatus(
+                    types, partitioning, skipEvents, maxEvents, expiredProcessingDate);
+        }
+
+        LightblueBulkDataResponse responses = lightblue.bulkData(findSorted);
+        List<DocumentEventEntity[]> entitiesByFind =
+                new ArrayList<>(findSorted.getRequests().size());
+
+        for (CRUDRequest find : findSorted.getRequests()) {
+            entitiesByFind.add(
+                    responses.getResponse(find).parseProcessed(DocumentEventEntity[].class));
+        }
+
+        List<DocumentEventEntity> entities = SortedMerge.mergeUpTo(
+                entitiesByFind, PRIORITY_ORDER, 0, maxEvents);
+
+        return entities.toArray(new DocumentEventEntity[entities.size()]);
+    }
+
+    /**
+     * Locks the identities of claimed events, then fetches in full only those events with locked
+     * identities, and optimizes them within their locked batches.
+     *
+     * <p>Claims are not optimized themselves, because they lack fields needed to optimize, such
+     * as survivor ids. Events are only fetched if they are still unprocessed or expired once
+     * locked, because they may have been processed elsewhere between our claim query and our
+     * lock.
+     */
+    private LockedResources<SharedIdentityEvents> lockClaimsThenFetchAndOptimize(int maxEvents,
+            DocumentEventEntity[] claimEntities, Instant expiredProcessingDate)
+            throws LightblueException {
+        LightblueRequester requester = newRequester();
+
+        Map<Identity, List<LightblueDocumentEvent>> claimsByIdentity =
+                SharedIdentityEvents.parseByIdentity(
+                        claimEntities, requester, documentEventFactoriesByType);
+
+        LockedResources<SharedIdentityEvents> eventLocks = SharedIdentityEvents.lockIdentities(
+                maxEvents, claimsByIdentity.keySet(), lockStrategy, clock);
+
+        try {
+            List<String> lockedIds = new ArrayList<>();
+
+            for (LockedResource<SharedIdentityEvents> lock : eventLocks.getLocks()) {
+                for (LightblueDocumentEvent claim : claimsByIdentity.get(lock.getResource().identity)) {
+                    lockedIds.add(claim.wrappedDocumentEventEntity().get_id());
+                }
+            }
+
+            if (lockedIds.isEmpty()) {
+                return eventLocks;
+            }
+
+            DocumentEventEntity[] lockedEntities = lightblue
+                    .data(FindRequests.unprocessedOrExpiredDocumentEventsByIds(
+                            lockedIds, expiredProcessingDate))
+                    .parseProcessed(DocumentEventEntity[].class);
+
+            Map<Identity, List<LightblueDocumentEvent>> lockedEventsByIdentity =
+                    SharedIdentityEvents.parseByIdentity(
+                            lockedEntities, requester, documentEventFactoriesByType);
+
+            for (LockedResource<SharedIdentityEvents> lock : eventLocks.getLocks()) {
+                SharedIdentityEvents eventBatch = lock.getResource();
+                List<LightblueDocumentEvent> events = lockedEventsByIdentity.get(eventBatch.identity);
+
+                if (events != null) {
+                    eventBatch.addEvents(events);
+                }
+            }
+
+            return eventLocks;
+        } catch (LightblueException | RuntimeException e) {
+            try {
+                eventLocks.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+
+            throw e;
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -236,15 +522,32 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             return new String[0];
         }
 
-        if (canonicalTypesToProcess.containsAll(supportedTypes)) {
+        if (typeOwnership == null && canonicalTypesToProcess.containsAll(supportedTypes)) {
             return supportedTypesArray;
         }
 
-        List<String> supportedAndEnabled = new ArrayList<>(supportedTypes);
+        Set<String> supportedAndEnabled = new HashSet<>(supportedTypes);
         supportedAndEnabled.retainAll(canonicalTypesToProcess);
+
+        if (typeOwnership != null) {
+            supportedAndEnabled = typeOwnership.ownedAmong(supportedAndEnabled);
+        }
+
         return supportedAndEnabled.toArray(new String[supportedAndEnabled.size()]);
     }
 
+    /**
+     * A new requester per batch, so each batch's lookups are made together.
+     */
+    private LightblueRequester newRequester() {
+        LightblueRequester requester =
+                new BulkLightblueRequester(lightblue, true, bulkRequestChunking);
+
+        return documentLookupCache == null
+                ? requester
+                : new CachingLightblueRequester(requester, documentLookupCache);
+    }
+
     /**
      * Within locked events, inserts new entities and updates existing with status, date, and
      * survivor id updates.
@@ -257,7 +560,7 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             return Collections.emptyList();
         }
 
-        DataBulkRequest insertAndUpdateEvents = new DataBulkRequest();
+        List<CRUDRequest> insertAndUpdateEvents = new ArrayList<>();
         List<LightblueDocumentEvent> savedEvents = new ArrayList<>();
 
         // TODO: We make single request per event here (wrapped in bulk request). Maybe could optimize.
@@ -279,10 +582,12 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                 DocumentEventEntity entity = event.wrappedDocumentEventEntity();
 
                 // If id is null, this is a net new event as a result of merger.
-                // See SharedIdentityEvents#addEvent(LightblueDocumentEvent)
+                // See SharedIdentityEvents#addEvents(List)
                 // and SharedIdentityEvents#update
                 if (entity.get_id() == null) {
                     if (entity.getStatus().equals(DocumentEventEntity.Status.processing)) {
+                        // If it is not published in time, it must be found again in our partition.
+                        assignPartition(event);
                         insertAndUpdateEvents.add(InsertRequests.documentEventsReturningOnlyIds(entity));
                         savedEvents.add(event);
                     }
@@ -295,18 +600,13 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             }
         }
 
-        LightblueBulkDataResponse bulkResponse;
-
-        try {
-            bulkResponse = lightblue.bulkData(insertAndUpdateEvents);
-        } catch (LightblueBulkResponseException e) {
-            // If some failed, that's okay. We have to iterate through responses either way.
-            // We'll check for errors then.
-            bulkResponse = e.getBulkResponse();
-        }
+        // If some failed, that's okay. We have to iterate through responses either way.
+        // We'll check for errors then.
+        List<LightblueDataResponse> responses =
+                writeChunking.bulkData(lightblue, insertAndUpdateEvents, false);
 
         Iterator<LightblueDocumentEvent> eventsIterator = savedEvents.iterator();
-        Iterator<LightblueDataResponse> responsesIterator = bulkResponse.getResponses().iterator();
+        Iterator<LightblueDataResponse> responsesIterator = responses.iterator();
 
         while (eventsIterator.hasNext()) {
             if (!responsesIterator.hasNext()) {
@@ -318,6 +618,13 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
             LightblueDocumentEvent event = eventsIterator.next();
             DocumentEventEntity entity = event.wrappedDocumentEventEntity();
 
+            if (response == null) {
+                logger.warn("Event update failed without a response. Will not process. " +
+                        "Event was: <{}>", event);
+                eventsIterator.remove();
+                continue;
+            }
+
             if (LightblueErrors.arePresentInResponse(response)) {
                 if (logger.isWarnEnabled()) {
                     List<String> errorStrings = LightblueErrors.toStringsFromErrorResponse(response);
@@ -353,6 +660,18 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
         return savedEvents;
     }
 
+    private void assignPartition(LightblueDocumentEvent event) {
+        event.wrappedDocumentEventEntity().setPartition(partitioning.partitionOf(event.identity()));
+    }
+
+    public PriorityWindowing getPriorityWindowing() {
+        return priorityWindowing;
+    }
+
+    public DocumentEventPartitioning getPartitioning() {
+        return partitioning;
+    }
+
     private static DocumentEventEntity asEntity(DocumentEvent event) {
         if (event instanceof LightblueDocumentEvent) {
             return ((LightblueDocumentEvent) event).wrappedDocumentEventEntity();
@@ -370,9 +689,12 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
         final Identity identity;
         final Map<LightblueDocumentEvent, DocumentEventUpdate> updates = new IdentityHashMap<>();
 
-        private final Optional<LockedResource<SharedIdentityEvents>> lock;
         // TODO: Is this guaranteed to only ever be one event?
+        /** Optimized events which are not {@link CoalescableDocumentEvent}s. */
         private final List<LightblueDocumentEvent> optimized = new ArrayList<>();
+        /** Optimized {@link CoalescableDocumentEvent}s, by their coalescing key. */
+        private final Map<Object, LightblueDocumentEvent> optimizedByCoalescingKey =
+                new LinkedHashMap<>();
         private final Clock clock;
 
         /**
@@ -380,10 +702,10 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
          * implementations provided by {@code documentEventFactoriesByType}, grouped by their
          * {@link Identity}.
          *
-         * <p>As each entity is parsed, we attempt to lock its identity if we have not tried
-         * already. If we are successful, we check if this event can be optimized among others with
-         * the same identity (it almost certainly should be able to), and track the updates that
-         * need to be persisted as a result of these optimizations.
+         * <p>Once all entities are parsed, we attempt to lock their identities in bulk, in order of
+         * each identity's highest priority event. For each identity we are able to lock, we check
+         * if its events can be optimized among each other (they almost certainly should be able
+         * to), and track the updates that need to be persisted as a result of these optimizations.
          *
          * @param maxIdentities The maximum number of identities to lock, which <em>should</em>
          *                      also mean the maximum number of events, given all events with the
@@ -401,8 +723,31 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                 int maxIdentities, DocumentEventEntity[] entities, LightblueRequester requester,
                 Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType,
                 LockStrategy lockStrategy, Clock clock) {
-            Map<Identity, SharedIdentityEvents> docEventsByIdentity = new HashMap<>();
-            List<LockedResource<SharedIdentityEvents>> locksAcquired = new ArrayList<>();
+            Map<Identity, List<LightblueDocumentEvent>> docEventsByIdentity =
+                    parseByIdentity(entities, requester, documentEventFactoriesByType);
+
+            LockedResources<SharedIdentityEvents> locks =
+                    lockIdentities(maxIdentities, docEventsByIdentity.keySet(), lockStrategy, clock);
+
+            for (LockedResource<SharedIdentityEvents> lock : locks.getLocks()) {
+                SharedIdentityEvents eventBatch = lock.getResource();
+
+                eventBatch.addEvents(docEventsByIdentity.get(eventBatch.identity));
+            }
+
+            return locks;
+        }
+
+        /**
+         * Parses {@code entities} into events, grouped by identity in order of each identity's
+         * first, and therefore highest priority, event. Entities which fail to parse become
+         * {@link UnparseableDocumentEvent}s.
+         */
+        static Map<Identity, List<LightblueDocumentEvent>> parseByIdentity(
+                DocumentEventEntity[] entities, LightblueRequester requester,
+                Map<String, ? extends DocumentEventFactory> documentEventFactoriesByType) {
+            // Linked to retain priority order of identities.
+            Map<Identity, List<LightblueDocumentEvent>> docEventsByIdentity = new LinkedHashMap<>();
 
             for (DocumentEventEntity eventEntity : entities) {
                 String typeOfEvent = eventEntity.getCanonicalType();
@@ -420,49 +765,65 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                     newEvent = new UnparseableDocumentEvent(e, eventEntity);
                 }
 
-                Identity identity = newEvent.identity();
-                SharedIdentityEvents eventBatch = docEventsByIdentity.get(identity);
+                docEventsByIdentity
+                        .computeIfAbsent(newEvent.identity(), (i) -> new ArrayList<>())
+                        .add(newEvent);
+            }
 
-                if (eventBatch == null) {
-                    if (locksAcquired.size() == maxIdentities) {
-                        continue;
-                    }
+            return docEventsByIdentity;
+        }
 
-                    eventBatch = new SharedIdentityEvents(lockStrategy, identity, clock);
-                    docEventsByIdentity.put(identity, eventBatch);
-                    if (eventBatch.lock.isPresent()) {
-                        locksAcquired.add(eventBatch.lock.get());
-                        logger.debug("Acquired lock for resource {}", eventBatch.getResourceId());
-                    }
+        /**
+         * Locks up to {@code maxIdentities} of the provided {@code identities}, in order. Returned
+         * batches have no events yet; they must be {@link #addEvents(List) added} by the caller.
+         * Identities which were tried but could not be locked are returned as
+         * {@link LockedResources#getUnavailable() unavailable}.
+         */
+        static LockedResources<SharedIdentityEvents> lockIdentities(int maxIdentities,
+                Collection<Identity> identities, LockStrategy lockStrategy, Clock clock) {
+            List<LockedResource<SharedIdentityEvents>> locksAcquired = new ArrayList<>();
+            List<SharedIdentityEvents> unavailable = new ArrayList<>();
+            Iterator<Identity> identitiesToLock = identities.iterator();
+
+            // Lock as many identities as we can at once. If some are not available, try the next
+            // highest priority identities in their place until we have enough or run out.
+            while (locksAcquired.size() < maxIdentities && identitiesToLock.hasNext()) {
+                List<SharedIdentityEvents> eventBatches = new ArrayList<>();
+
+                while (locksAcquired.size() + eventBatches.size() < maxIdentities &&
+                        identitiesToLock.hasNext()) {
+                    eventBatches.add(new SharedIdentityEvents(identitiesToLock.next(), clock));
+                }
+
+                LockedResources<SharedIdentityEvents> attempt =
+                        lockStrategy.tryAcquireAll(eventBatches);
+
+                for (LockedResource<SharedIdentityEvents> lock : attempt.getLocks()) {
+                    locksAcquired.add(lock);
+                    logger.debug("Acquired lock for resource {}", lock.getResource().getResourceId());
                 }
 
-                eventBatch.addEvent(newEvent);
+                unavailable.addAll(attempt.getUnavailable());
+
+                if (logger.isDebugEnabled()) {
+                    for (SharedIdentityEvents unavailableIdentity : attempt.getUnavailable()) {
+                        logger.debug("Lock not available. This is not fatal. Assuming another " +
+                                "thread is processing document events sharing identity: {}",
+                                unavailableIdentity.identity);
+                    }
+                }
             }
 
-            return LockedResources.fromLocks(locksAcquired);
+            return LockedResources.fromLocks(locksAcquired, unavailable, lockStrategy);
         }
 
         /**
-         * Attempts to acquire a lock on the provided {@code identity}. If the lock cannot be
-         * acquired, the object is still created, but it will throw out any added events since we
-         * cannot process them without a lock.
+         * Events must only be {@link #addEvents(List) added} once the
+         * {@code identity} is locked.
          */
-        SharedIdentityEvents(LockStrategy lockStrategy, Identity identity, Clock clock) {
+        SharedIdentityEvents(Identity identity, Clock clock) {
             this.identity = identity;
             this.clock = clock;
-
-            Optional<LockedResource<SharedIdentityEvents>> lock;
-            try {
-                lock = Optional.of(lockStrategy.tryAcquire(this));
-            } catch (LockNotAvailableException e) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Lock not available. This is not fatal. Assuming another" +
-                            " thread is processing document events sharing identity: " + identity, e);
-                }
-                lock = Optional.empty();
-            }
-
-            this.lock = lock;
         }
 
         @Override
@@ -476,12 +837,41 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                     "identity=" + identity +
                     ", updates=" + updates +
                     ", optimized=" + optimized +
+                    ", optimizedByCoalescingKey=" + optimizedByCoalescingKey +
                     '}';
         }
 
         /**
-         * Take the provided event and checks if it can be optimized among other known events of the
-         * same identity. The results are tracked as side-effects to {@link #updates}.
+         * Takes the provided events and checks if they can be optimized among each other and other
+         * known events of the same identity. The results are tracked as side-effects to
+         * {@link #updates}.
+         *
+         * <p>Superseded events are thrown away first. The survivors are then merged, such that
+         * each group of events which could merge with each other is replaced by one merger, built
+         * with {@link LightblueDocumentEvent#mergeAll(List)}.
+         */
+        private void addEvents(List<LightblueDocumentEvent> events) {
+            for (LightblueDocumentEvent event : events) {
+                addEvent(event);
+            }
+
+            @Nullable LightblueDocumentEvent merger = mergeNextMergeableEvents();
+
+            while (merger != null) {
+                // A merger may supersede, or be superseded by, other events.
+                addEvent(merger);
+                merger = mergeNextMergeableEvents();
+            }
+        }
+
+        /**
+         * Take the provided event and checks if it is superseded by or supersedes any other known
+         * events of the same identity. The results are tracked as side-effects to
+         * {@link #updates}.
+         *
+         * <p>{@link CoalescableDocumentEvent}s are checked against other events with the same
+         * coalescing key by a hash lookup. Otherwise, events are checked against each known event
+         * one at a time.
          */
         private void addEvent(LightblueDocumentEvent event) {
             if (!Objects.equals(event.identity(), identity)) {
@@ -489,120 +879,244 @@ public class LightblueDocumentEventRepository implements DocumentEventRepository
                         "that didn't share the same identity.");
             }
 
-            if (!lock.isPresent()) {
-                return;
+            // We have a new event, let's see if it is superseded by any previous events we parsed
+            // or created as a result of a previous merge.
+            @Nullable LightblueDocumentEvent newEvent = event;
+
+            if (newEvent instanceof CoalescableDocumentEvent) {
+                newEvent = coalesce((CoalescableDocumentEvent) newEvent);
             }
 
-            // We have a new event, let's see if it is superseded by or can be merged with any
-            // previous events we parsed or created as a result of a previous merge.
+            // Coalescable events may still be superseded by events which are not.
+            if (newEvent != null) {
+                newEvent = supersedeAmong(newEvent, optimized.iterator());
+            }
 
-            // As we check, if we find we can merge an event, we will merge it, and continue on with
-            // the merger instead. These pointers track which event we are currently optimizing.
-            @Nullable LightblueDocumentEvent newOrMergerEvent = event;
-            DocumentEventEntity newOrMergerEventEntity = event.wrappedDocumentEventEntity();
+            // Events which are not coalescable must be checked against every other event.
+            if (newEvent != null && !(newEvent instanceof CoalescableDocumentEvent)) {
+                newEvent = supersedeAmong(newEvent, optimizedByCoalescingKey.values().iterator());
+            }
 
-            Iterator<LightblueDocumentEvent> optimizedIterator = optimized.iterator();
+            if (newEvent != null) {
+                newEvent.wrappedDocumentEventEntity()
+                        .setStatus(DocumentEventEntity.Status.processing);
 
-            while (optimizedIterator.hasNext()) {
-                LightblueDocumentEvent previouslyOptimizedEvent = optimizedIterator.next();
+                if (newEvent instanceof CoalescableDocumentEvent) {
+                    optimizedByCoalescingKey.put(
+                            ((CoalescableDocumentEvent) newEvent).coalescingKey(), newEvent);
+                } else {
+                    optimized.add(newEvent);
+                }
 
-                if (newOrMergerEvent.isSupersededBy(previouslyOptimizedEvent)) {
-                    // Keep previous event...
-                    DocumentEventEntity previousEntity = previouslyOptimizedEvent.wrappedDocumentEventEntity();
-                    previousEntity.addSurvivorOfIds(newOrMergerEventEntity.getSurvivorOfIds());
-                    previousEntity.addSurvivorOfIds(newOrMergerEventEntity.get_id());
-
-                    // ...and throw away this new one (which means simply drop it if it is a net new
-                    // event as a result of a merge which will have no id yet).
-                    if (newOrMergerEventEntity.get_id() != null) {
-                        newOrMergerEventEntity.setStatus(DocumentEventEntity.Status.superseded);
-                        updates.put(newOrMergerEvent, DocumentEventUpdate.timestamp(newOrMergerEvent, clock));
-                    }
+                updates.put(newEvent, DocumentEventUpdate.timestamp(newEvent, clock));
+            }
+        }
 
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Event {} superseded by event {}",
-                                identify(newOrMergerEventEntity), identify(previousEntity));
-                    }
+        /**
+         * Checks the new event against the one known event with the same coalescing key, if there
+         * is one. Whichever has the lower version is superseded by the other.
+         *
+         * @return The new event if it was not superseded, otherwise {@code null}.
+         */
+        @Nullable
+        private LightblueDocumentEvent coalesce(CoalescableDocumentEvent newOrMergerEvent) {
+            Object coalescingKey = newOrMergerEvent.coalescingKey();
+            LightblueDocumentEvent previouslyOptimizedEvent =
+                    optimizedByCoalescingKey.get(coalescingKey);
+
+            if (previouslyOptimizedEvent == null) {
+                return newOrMergerEvent;
+            }
 
-                    newOrMergerEventEntity.setSurvivorOfIds(null);
-                    newOrMergerEvent = null;
-
-                    break;
-                } else if (previouslyOptimizedEvent.isSupersededBy(newOrMergerEvent)) {
-                    // Previous entity was processing; now it is superseded and removed from
-                    // optimized result list.
-                    DocumentEventEntity previousEntity = previouslyOptimizedEvent.wrappedDocumentEventEntity();
-                    if (previousEntity.get_id() == null) {
-                        // Was net-new event from merger, but we aren't going to process, so ignore.
-                        updates.remove(previouslyOptimizedEvent);
-                    } else {
-                        previousEntity.setStatus(DocumentEventEntity.Status.superseded);
-                        previousEntity.setProcessedDate(ZonedDateTime.now(clock));
-                    }
-                    optimizedIterator.remove();
+            long previousVersion =
+                    ((CoalescableDocumentEvent) previouslyOptimizedEvent).coalescingVersion();
 
-                    newOrMergerEventEntity.addSurvivorOfIds(previousEntity.get_id());
-                    newOrMergerEventEntity.addSurvivorOfIds(previousEntity.getSurvivorOfIds());
+            if (newOrMergerEvent.coalescingVersion() <= previousVersion) {
+                supersedeNewEvent(newOrMergerEvent, previouslyOptimizedEvent);
+                return null;
+            }
 
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Event {} superseded by event {}",
-                                identify(previousEntity), identify(newOrMergerEventEntity));
-                    }
+            optimizedByCoalescingKey.remove(coalescingKey);
+            supersedePreviousEvent(previouslyOptimizedEvent, newOrMergerEvent);
+            return newOrMergerEvent;
+        }
 
-                    previousEntity.setSurvivorOfIds(null);
-                } else if (newOrMergerEvent.couldMergeWith(previouslyOptimizedEvent)) {
-                    // Previous entity was processing; now it is merged and removed from optimized
-                    // result list.
-                    DocumentEventEntity previousEntity = previouslyOptimizedEvent.wrappedDocumentEventEntity();
-                    if (previousEntity.get_id() == null) {
-                        // Was net-new event from merger, but we aren't going to process, so ignore.
-                        updates.remove(previouslyOptimizedEvent);
-                    } else {
-                        previousEntity.setStatus(DocumentEventEntity.Status.merged);
-                        previousEntity.setProcessedDate(ZonedDateTime.now(clock));
-                    }
+        /**
+         * Checks the new event against each of the previously optimized events, one at a time,
+         * removing those which are superseded by it.
+         *
+         * @return The new event if it was not superseded, otherwise {@code null}.
+         */
+        @Nullable
+        private LightblueDocumentEvent supersedeAmong(LightblueDocumentEvent newEvent,
+                Iterator<LightblueDocumentEvent> optimizedIterator) {
+            while (optimizedIterator.hasNext()) {
+                LightblueDocumentEvent previouslyOptimizedEvent = optimizedIterator.next();
+
+                if (newEvent.isSupersededBy(previouslyOptimizedEvent)) {
+                    supersedeNewEvent(newEvent, previouslyOptimizedEvent);
+                    return null;
+                } else if (previouslyOptimizedEvent.isSupersededBy(newEvent)) {
                     optimizedIterator.remove();
+                    supersedePreviousEvent(previouslyOptimizedEvent, newEvent);
+                }
+            }
 
-                    // This new event will not be included in result list, but we do have to update
-                    // its entity (if it has one) to store that it has been merged.
-                    newOrMergerEventEntity.setStatus(DocumentEventEntity.Status.merged);
-                    if (newOrMergerEventEntity.get_id() != null) {
-                        updates.put(newOrMergerEvent, DocumentEventUpdate.timestamp(newOrMergerEvent, clock));
-                    }
+            return newEvent;
+        }
 
-                    // We create a new event as a result of the merger, and keep this instead of the
-                    // others.
-                    LightblueDocumentEvent merger = newOrMergerEvent.merge(previouslyOptimizedEvent);
-                    DocumentEventEntity mergerEntity = merger.wrappedDocumentEventEntity();
-                    mergerEntity.addSurvivorOfIds(previousEntity.getSurvivorOfIds());
-                    mergerEntity.addSurvivorOfIds(newOrMergerEventEntity.getSurvivorOfIds());
-                    if (previousEntity.get_id() != null) {
-                        mergerEntity.addSurvivorOfIds(previousEntity.get_id());
-                    }
-                    if (newOrMergerEventEntity.get_id() != null) {
-                        mergerEntity.addSurvivorOfIds(newOrMergerEventEntity.get_id());
+        /**
+         * Finds the first optimized event which could merge with any others, and replaces it and
+         * all of those others with their merger.
+         *
+         * <p>Coalescable events never merge with each other, so they are only checked against
+         * events which are not coalescable.
+         *
+         * @return The merger, which is not yet tracked among the optimized events, or
+         * {@code null} if no optimized events could be merged.
+         */
+        @Nullable
+        private LightblueDocumentEvent mergeNextMergeableEvents() {
+            List<LightblueDocumentEvent> candidates = new ArrayList<>(optimized);
+            candidates.addAll(optimizedByCoalescingKey.values());
+
+            for (LightblueDocumentEvent candidate : candidates) {
+                List<LightblueDocumentEvent> mergeable = new ArrayList<>();
+
+                for (LightblueDocumentEvent other : optimized) {
+                    if (other != candidate && candidate.couldMergeWith(other)) {
+                        mergeable.add(other);
                     }
+                }
 
-                    if (logger.isDebugEnabled()) {
-                        logger.debug(
-                                "Events {} and {} merged into new event which now merges all of {}",
-                                identify(previousEntity), identify(newOrMergerEventEntity),
-                                identify(mergerEntity));
+                if (!(candidate instanceof CoalescableDocumentEvent)) {
+                    for (LightblueDocumentEvent other : optimizedByCoalescingKey.values()) {
+                        if (candidate.couldMergeWith(other)) {
+                            mergeable.add(other);
+                        }
                     }
+                }
 
-                    newOrMergerEventEntity.setSurvivorOfIds(null);
-                    previousEntity.setSurvivorOfIds(null);
+                if (!mergeable.isEmpty()) {
+                    Set<LightblueDocumentEvent> victims =
+                            Collections.newSetFromMap(new IdentityHashMap<>());
+                    victims.add(candidate);
+                    victims.addAll(mergeable);
 
-                    newOrMergerEvent = merger;
-                    newOrMergerEventEntity = mergerEntity;
+                    optimized.removeIf(victims::contains);
+                    optimizedByCoalescingKey.values().removeIf(victims::contains);
+
+                    return merge(candidate, mergeable);
                 }
             }
 
-            if (newOrMergerEvent != null) {
-                newOrMergerEventEntity.setStatus(DocumentEventEntity.Status.processing);
-                optimized.add(newOrMergerEvent);
+            return null;
+        }
+
+        /**
+         * Keeps the previous event and throws away the new one.
+         */
+        private void supersedeNewEvent(LightblueDocumentEvent newOrMergerEvent,
+                LightblueDocumentEvent previouslyOptimizedEvent) {
+            DocumentEventEntity newOrMergerEventEntity = newOrMergerEvent.wrappedDocumentEventEntity();
+
+            // Keep previous event...
+            DocumentEventEntity previousEntity = previouslyOptimizedEvent.wrappedDocumentEventEntity();
+            previousEntity.addSurvivorOfIds(newOrMergerEventEntity.getSurvivorOfIds());
+            previousEntity.addSurvivorOfIds(newOrMergerEventEntity.get_id());
+
+            // ...and throw away this new one (which means simply drop it if it is a net new
+            // event as a result of a merge which will have no id yet).
+            if (newOrMergerEventEntity.get_id() != null) {
+                newOrMergerEventEntity.setStatus(DocumentEventEntity.Status.superseded);
                 updates.put(newOrMergerEvent, DocumentEventUpdate.timestamp(newOrMergerEvent, clock));
             }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Event {} superseded by event {}",
+                        identify(newOrMergerEventEntity), identify(previousEntity));
+            }
+
+            newOrMergerEventEntity.setSurvivorOfIds(null);
+        }
+
+        /**
+         * Keeps the new event and throws away the previous one. The caller is responsible for
+         * removing the previous event from the optimized results.
+         */
+        private void supersedePreviousEvent(LightblueDocumentEvent previouslyOptimizedEvent,
+                LightblueDocumentEvent newOrMergerEvent) {
+            DocumentEventEntity newOrMergerEventEntity = newOrMergerEvent.wrappedDocumentEventEntity();
+
+            // Previous entity was processing; now it is superseded and removed from
+            // optimized result list.
+            DocumentEventEntity previousEntity = previouslyOptimizedEvent.wrappedDocumentEventEntity();
+            if (previousEntity.get_id() == null) {
+                // Was net-new event from merger, but we aren't going to process, so ignore.
+                updates.remove(previouslyOptimizedEvent);
+            } else {
+                previousEntity.setStatus(DocumentEventEntity.Status.superseded);
+                previousEntity.setProcessedDate(ZonedDateTime.now(clock));
+            }
+
+            newOrMergerEventEntity.addSurvivorOfIds(previousEntity.get_id());
+            newOrMergerEventEntity.addSurvivorOfIds(previousEntity.getSurvivorOfIds());
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Event {} superseded by event {}",
+                        identify(previousEntity), identify(newOrMergerEventEntity));
+            }
+
+            previousEntity.setSurvivorOfIds(null);
+        }
+
+        /**
+         * Merges the event with all of the mergeable events in one pass, throwing them all away in
+         * favor of the merger. The caller is responsible for removing the merged events from the
+         * optimized results.
+         *
+         * @return The merger.
+         */
+        private LightblueDocumentEvent merge(LightblueDocumentEvent event,
+                List<LightblueDocumentEvent> mergeable) {
+            // We create a new event as a result of the merger, and keep this instead of the
+            // others.
+            LightblueDocumentEvent merger = event.mergeAll(mergeable);
+            DocumentEventEntity mergerEntity = merger.wrappedDocumentEventEntity();
+
+            List<LightblueDocumentEvent> victims = new ArrayList<>(mergeable.size() + 1);
+            victims.add(event);
+            victims.addAll(mergeable);
+
+            for (LightblueDocumentEvent victim : victims) {
+                // Victim was processing; now it is merged and removed from optimized result list.
+                DocumentEventEntity victimEntity = victim.wrappedDocumentEventEntity();
+                if (victimEntity.get_id() == null) {
+                    // Was net-new event from merger, but we aren't going to process, so ignore.
+                    updates.remove(victim);
+                } else {
+                    victimEntity.setStatus(DocumentEventEntity.Status.merged);
+                    victimEntity.setProcessedDate(ZonedDateTime.now(clock));
+                    mergerEntity.addSurvivorOfIds(victimEntity.get_id());
+                }
+
+                mergerEntity.addSurvivorOfIds(victimEntity.getSurvivorOfIds());
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Events {} merged into new event which now merges all of {}",
+                        victims.stream()
+                                .map(LightblueDocumentEvent::wrappedDocumentEventEntity)
+                                .map(LightblueDocumentEventRepository::identify)
+                                .collect(Collectors.toList()),
+                        identify(mergerEntity));
+            }
+
+            for (LightblueDocumentEvent victim : victims) {
+                victim.wrappedDocumentEventEntity().setSurvivorOfIds(null);
+            }
+
+            return merger;
         }
     }
 
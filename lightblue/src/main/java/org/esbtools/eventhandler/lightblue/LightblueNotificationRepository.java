@@ -22,14 +22,19 @@ import org.esbtools.eventhandler.FailedNotification;
 import org.esbtools.eventhandler.Notification;
 import org.esbtools.eventhandler.NotificationRepository;
 import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.BulkRequestChunking;
+import org.esbtools.eventhandler.lightblue.client.CachingLightblueRequester;
 import org.esbtools.eventhandler.lightblue.client.FindRequests;
+import org.esbtools.eventhandler.lightblue.client.FindResponseCache;
 import org.esbtools.eventhandler.lightblue.client.LightblueErrors;
 import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
 import org.esbtools.eventhandler.lightblue.client.UpdateRequests;
+import org.esbtools.eventhandler.lightblue.locking.ConsistentHashOwnership;
 import org.esbtools.lightbluenotificationhook.NotificationEntity;
 
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
 import com.redhat.lightblue.client.request.DataBulkRequest;
 import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
 import com.redhat.lightblue.client.response.LightblueBulkResponseException;
@@ -37,6 +42,7 @@ import com.redhat.lightblue.client.response.LightblueDataResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
@@ -44,7 +50,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -62,20 +70,99 @@ public class LightblueNotificationRepository implements NotificationRepository {
     private final LightblueNotificationRepositoryConfig config;
     private final Map<String, NotificationFactory> notificationFactoryByEntityName;
     private final Clock clock;
+    @Nullable
+    private final FindResponseCache notificationLookupCache;
+    private final BulkRequestChunking bulkRequestChunking;
+    @Nullable
+    private final ConsistentHashOwnership entityNameOwnership;
+    private final boolean expiredReclaimedSeparately;
 
     private final Set<String> supportedEntityNames;
     /** Cached to avoid extra garbage. */
     private final String[] supportedEntityNamesArray;
 
+    /** The order of {@link FindRequests#oldestNotificationsForEntitiesUpTo}. */
+    private static final Comparator<NotificationEntity> OLDEST_FIRST =
+            Comparator.comparing(NotificationEntity::getClientRequestDate);
+
     private static final Logger logger = LoggerFactory.getLogger(LightblueNotificationRepository.class);
 
     public LightblueNotificationRepository(LightblueClient lightblue,
             LightblueNotificationRepositoryConfig config,
             Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock) {
+        this(lightblue, config, notificationFactoryByEntityName, clock, null);
+    }
+
+    /**
+     * @param notificationLookupCache If not null, finds made by notifications through the
+     *                                requester they are created with are answered from this
+     *                                cache where possible. See
+     *                                {@link CachingLightblueRequester}.
+     */
+    public LightblueNotificationRepository(LightblueClient lightblue,
+            LightblueNotificationRepositoryConfig config,
+            Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock,
+            @Nullable FindResponseCache notificationLookupCache) {
+        this(lightblue, config, notificationFactoryByEntityName, clock, notificationLookupCache,
+                BulkRequestChunking.none());
+    }
+
+    /**
+     * @param bulkRequestChunking Governs how many bulk requests are made for a batch of
+     *                            notification lookups.
+     * @see #LightblueNotificationRepository(LightblueClient, LightblueNotificationRepositoryConfig,
+     * Map, Clock, FindResponseCache)
+     */
+    public LightblueNotificationRepository(LightblueClient lightblue,
+            LightblueNotificationRepositoryConfig config,
+            Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock,
+            @Nullable FindResponseCache notificationLookupCache,
+            BulkRequestChunking bulkRequestChunking) {
+        this(lightblue, config, notificationFactoryByEntityName, clock, notificationLookupCache,
+                bulkRequestChunking, null);
+    }
+
+    /**
+     * @param entityNameOwnership If not null, only notifications for entity names owned by this
+     *                            node, among those supported and enabled, are retrieved. See
+     *                            {@link ConsistentHashOwnership}.
+     * @see #LightblueNotificationRepository(LightblueClient, LightblueNotificationRepositoryConfig,
+     * Map, Clock, FindResponseCache, BulkRequestChunking)
+     */
+    public LightblueNotificationRepository(LightblueClient lightblue,
+            LightblueNotificationRepositoryConfig config,
+            Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock,
+            @Nullable FindResponseCache notificationLookupCache,
+            BulkRequestChunking bulkRequestChunking,
+            @Nullable ConsistentHashOwnership entityNameOwnership) {
+        this(lightblue, config, notificationFactoryByEntityName, clock, notificationLookupCache,
+                bulkRequestChunking, entityNameOwnership, false);
+    }
+
+    /**
+     * @param expiredReclaimedSeparately If true, only unprocessed notifications are retrieved.
+     *                                   Notifications which expire while processing must then be
+     *                                   reset to unprocessed by some other means, such as a
+     *                                   {@link PeriodicReclaimExpiredEntitiesRoute}, or they will
+     *                                   never be retrieved again.
+     * @see #LightblueNotificationRepository(LightblueClient, LightblueNotificationRepositoryConfig,
+     * Map, Clock, FindResponseCache, BulkRequestChunking, ConsistentHashOwnership)
+     */
+    public LightblueNotificationRepository(LightblueClient lightblue,
+            LightblueNotificationRepositoryConfig config,
+            Map<String, NotificationFactory> notificationFactoryByEntityName, Clock clock,
+            @Nullable FindResponseCache notificationLookupCache,
+            BulkRequestChunking bulkRequestChunking,
+            @Nullable ConsistentHashOwnership entityNameOwnership,
+            boolean expiredReclaimedSeparately) {
         this.lightblue = lightblue;
         this.config = config;
         this.notificationFactoryByEntityName = notificationFactoryByEntityName;
         this.clock = clock;
+        this.notificationLookupCache = notificationLookupCache;
+        this.bulkRequestChunking = bulkRequestChunking;
+        this.entityNameOwnership = entityNameOwnership;
+        this.expiredReclaimedSeparately = expiredReclaimedSeparately;
 
         supportedEntityNames = notificationFactoryByEntityName.keySet();
         supportedEntityNamesArray = supportedEntityNames.toArray(new String[supportedEntityNames.size()]);
@@ -99,15 +186,12 @@ public class LightblueNotificationRepository implements NotificationRepository {
             return Collections.emptyList();
         }
 
-        NotificationEntity[] notificationEntities = lightblue
-                .data(FindRequests.oldestNotificationsForEntitiesUpTo(
-                        entitiesToProcess, maxNotifications,
-                        clock.instant().minus(processingTimeout)))
-                .parseProcessed(NotificationEntity[].class);
+        NotificationEntity[] notificationEntities = findOldestNotificationEntities(
+                entitiesToProcess, maxNotifications, clock.instant().minus(processingTimeout));
         List<ProcessingNotification> processingList =
                 ProcessingNotification.parseNotificationEntities(
                         notificationEntities,
-                        new BulkLightblueRequester(lightblue),
+                        newRequester(),
                         notificationFactoryByEntityName, clock);
 
         if (processingList.isEmpty()) {
@@ -225,6 +309,37 @@ public class LightblueNotificationRepository implements NotificationRepository {
         lightblue.bulkData(markNotifications);
     }
 
+    /**
+     * Finds unprocessed and expired notifications with separate sorted finds in one bulk request,
+     * which are then merged, so each find may be answered by an index in sort order. If
+     * {@link #expiredReclaimedSeparately}, only unprocessed notifications are found.
+     */
+    private NotificationEntity[] findOldestNotificationEntities(String[] entityNames,
+            int maxNotifications, Instant expiredProcessingDate) throws LightblueException {
+        if (expiredReclaimedSeparately) {
+            return lightblue
+                    .data(FindRequests.oldestUnprocessedNotificationsForEntitiesUpTo(
+                            entityNames, maxNotifications))
+                    .parseProcessed(NotificationEntity[].class);
+        }
+
+        DataBulkRequest findByStatus = FindRequests.oldestNotificationsForEntitiesUpToByStatus(
+                entityNames, maxNotifications, expiredProcessingDate);
+
+        LightblueBulkDataResponse responses = lightblue.bulkData(findByStatus);
+        List<NotificationEntity[]> entitiesByStatus = new ArrayList<>(2);
+
+        for (CRUDRequest find : findByStatus.getRequests()) {
+            entitiesByStatus.add(
+                    responses.getResponse(find).parseProcessed(NotificationEntity[].class));
+        }
+
+        List<NotificationEntity> entities = SortedMerge.mergeUpTo(
+                entitiesByStatus, OLDEST_FIRST, 0, maxNotifications);
+
+        return entities.toArray(new NotificationEntity[entities.size()]);
+    }
+
     private String[] getSupportedAndEnabledEntityNames() {
         Set<String> entityNamesToProcess = config.getEntityNamesToProcess();
 
@@ -232,15 +347,32 @@ public class LightblueNotificationRepository implements NotificationRepository {
             return new String[0];
         }
 
-        if (entityNamesToProcess.containsAll(supportedEntityNames)) {
+        if (entityNameOwnership == null && entityNamesToProcess.containsAll(supportedEntityNames)) {
             return supportedEntityNamesArray;
         }
 
-        List<String> supportedAndEnabled = new ArrayList<>(supportedEntityNames);
+        Set<String> supportedAndEnabled = new HashSet<>(supportedEntityNames);
         supportedAndEnabled.retainAll(entityNamesToProcess);
+
+        if (entityNameOwnership != null) {
+            supportedAndEnabled = entityNameOwnership.ownedAmong(supportedAndEnabled);
+        }
+
         return supportedAndEnabled.toArray(new String[supportedAndEnabled.size()]);
     }
 
+    /**
+     * A new requester per batch, so each batch's lookups are made together.
+     */
+    private LightblueRequester newRequester() {
+        LightblueRequester requester =
+                new BulkLightblueRequester(lightblue, true, bulkRequestChunking);
+
+        return notificationLookupCache == null
+                ? requester
+                : new CachingLightblueRequester(requester, notificationLookupCache);
+    }
+
     private static NotificationEntity asEntity(Notification notification) {
         if (notification instanceof LightblueNotification) {
             return ((LightblueNotification) notification).wrappedNotificationEntity();
@@ -18,12 +18,12 @@
 
 package org.esbtools.eventhandler.lightblue;
 
-import java.sql.Date;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 
 import org.apache.camel.builder.RouteBuilder;
+import org.esbtools.eventhandler.lightblue.client.DeleteRequests;
 import org.esbtools.eventhandler.lightblue.locking.LockStrategy;
 import org.esbtools.eventhandler.lightblue.locking.LockingRoutePolicy;
 import org.esbtools.lightbluenotificationhook.NotificationEntity;
@@ -31,7 +31,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.redhat.lightblue.client.LightblueClient;
-import com.redhat.lightblue.client.Query;
 import com.redhat.lightblue.client.request.data.DataDeleteRequest;
 import com.redhat.lightblue.client.response.LightblueDataResponse;
 
@@ -93,8 +92,7 @@ public class PeriodicDeleteOldEntitiesRoute extends RouteBuilder {
 
             log.debug("Deleting {} entities with {} before {}", entityName, entityDateField, tooOld);
 
-            DataDeleteRequest deleteRequest = new DataDeleteRequest(entityName, entityVersion);
-            deleteRequest.where(Query.withValue(entityDateField, Query.BinOp.lt, Date.from(tooOld)));
+            DataDeleteRequest deleteRequest = deleteRequest(tooOld);
 
             LightblueDataResponse response = client.data(deleteRequest);
 
@@ -103,5 +101,8 @@ public class PeriodicDeleteOldEntitiesRoute extends RouteBuilder {
         });
     }
 
-
+    /** Package visible for testing. */
+    DataDeleteRequest deleteRequest(Instant tooOld) {
+        return DeleteRequests.entitiesOlderThan(entityName, entityVersion, entityDateField, tooOld);
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+import org.apache.camel.builder.RouteBuilder;
+import org.esbtools.eventhandler.lightblue.client.UpdateRequests;
+import org.esbtools.eventhandler.lightblue.locking.LockStrategy;
+import org.esbtools.eventhandler.lightblue.locking.LockingRoutePolicy;
+import org.esbtools.lightbluenotificationhook.NotificationEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+/**
+ * Periodically resets entities which have been processing for longer than their processing
+ * timeout back to unprocessed, in one conditional update, so that they are retrieved again.
+ *
+ * <p>Only one reclaimer per domain and entity runs at a time, guarded by a lock.
+ *
+ * <p>With a reclaimer running, repositories need not look for expired entities themselves, and
+ * can be configured to only query for unprocessed entities, which is cheaper and more selective.
+ * See {@link LightblueDocumentEventRepository} and {@link LightblueNotificationRepository}.
+ */
+public class PeriodicReclaimExpiredEntitiesRoute extends RouteBuilder {
+    private final LightblueClient client;
+    private final LockStrategy lockStrategy;
+    private final Supplier<Duration> processingTimeout;
+    private final Duration reclaimInterval;
+    private final Clock clock;
+    private final String entityName;
+    private final String entityVersion;
+
+    /** Package visible for testing. */
+    final String reclaimerLockResourceId;
+
+    private static final Logger log =
+            LoggerFactory.getLogger(PeriodicReclaimExpiredEntitiesRoute.class);
+
+    public static PeriodicReclaimExpiredEntitiesRoute reclaimingExpiredNotifications(
+            LightblueNotificationRepositoryConfig config, Duration reclaimInterval,
+            LightblueClient client, String domain, LockStrategy lockStrategy, Clock clock) {
+        return new PeriodicReclaimExpiredEntitiesRoute(domain, NotificationEntity.ENTITY_NAME,
+                NotificationEntity.ENTITY_VERSION, config::getNotificationProcessingTimeout,
+                client, lockStrategy, reclaimInterval, clock);
+    }
+
+    public static PeriodicReclaimExpiredEntitiesRoute reclaimingExpiredDocumentEvents(
+            LightblueDocumentEventRepositoryConfig config, Duration reclaimInterval,
+            LightblueClient client, String domain, LockStrategy lockStrategy, Clock clock) {
+        return new PeriodicReclaimExpiredEntitiesRoute(domain, DocumentEventEntity.ENTITY_NAME,
+                DocumentEventEntity.VERSION, config::getDocumentEventProcessingTimeout,
+                client, lockStrategy, reclaimInterval, clock);
+    }
+
+    /**
+     * @param processingTimeout Checked on every reclaim, so that configuration updates are
+     *                          honored. Should be the same timeout repositories use.
+     */
+    public PeriodicReclaimExpiredEntitiesRoute(String domain, String entityName,
+            String entityVersion, Supplier<Duration> processingTimeout, LightblueClient client,
+            LockStrategy lockStrategy, Duration reclaimInterval, Clock clock) {
+        this.client = client;
+        this.lockStrategy = lockStrategy;
+        this.processingTimeout = processingTimeout;
+        this.reclaimInterval = reclaimInterval;
+        this.clock = clock;
+        this.entityName = entityName;
+        this.entityVersion = entityVersion;
+
+        reclaimerLockResourceId = "expired_" + domain + "_" + entityName + "_reclaimer";
+    }
+
+    @Override
+    public void configure() throws Exception {
+        from("timer:" + reclaimerLockResourceId + "?period=" + reclaimInterval.toMillis())
+        .routeId(reclaimerLockResourceId)
+        .routePolicy(new LockingRoutePolicy(reclaimerLockResourceId, lockStrategy))
+        .process(exchange -> {
+            Instant expired = clock.instant().minus(processingTimeout.get());
+
+            log.debug("Reclaiming {} entities processing since {} or earlier", entityName, expired);
+
+            LightblueDataResponse response = client.data(
+                    UpdateRequests.expiredProcessingToUnprocessed(entityName, entityVersion, expired));
+
+            int reclaimed = response.parseModifiedCount();
+
+            if (reclaimed > 0) {
+                log.info("Reclaimed {} {} entities processing since {} or earlier",
+                        reclaimed, entityName, expired);
+            }
+        });
+    }
+}
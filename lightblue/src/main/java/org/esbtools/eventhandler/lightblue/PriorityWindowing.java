@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+/**
+ * Staggers which slice, or "window", of the priority ordering of document events concurrent
+ * pollers retrieve, so that they do not all query for, and then race to lock, the same highest
+ * priority events.
+ *
+ * <p>The priority ordering is divided into {@code windowCount} consecutive windows, each the size
+ * of a poll's batch. Each poll reads one window, starting from the poller's own index, and every
+ * poll moves on to the next window. Pollers which poll at the same pace therefore always read
+ * different windows, and each poller regularly reads the first window, so no window starves.
+ *
+ * <p>One instance may be shared by several workers polling through the same repository. Because
+ * every poll takes the next window, workers polling concurrently read different windows, so in
+ * that case {@code windowCount} is the number of workers and the poller index is 0. Nodes which
+ * each have their own repository instead use their own index among {@code windowCount} nodes.
+ *
+ * <p>Windows are ranges of the query's results, so no schema change is needed. A window past the
+ * end of the backlog finds nothing; in that case the first window is read instead.
+ *
+ * <p>Only unprocessed events are windowed. Expired processing events are few, so every window
+ * merges in the highest priority of them, which makes windows approximate: pollers may still
+ * overlap, and locks are what keeps them from processing the same event.
+ */
+public final class PriorityWindowing {
+    private static final PriorityWindowing NONE = new PriorityWindowing(0, 1);
+
+    private final int pollerIndex;
+    private final int windowCount;
+
+    private long polls = 0;
+
+    /**
+     * Every poll reads the first window, that is, the highest priority events.
+     */
+    public static PriorityWindowing none() {
+        return NONE;
+    }
+
+    /**
+     * @param pollerIndex Zero-based index of the poller, unique among pollers, which determines
+     *                    the window of its first poll.
+     * @param windowCount How many windows to rotate among, usually the number of pollers.
+     */
+    public PriorityWindowing(int pollerIndex, int windowCount) {
+        if (windowCount < 1) {
+            throw new IllegalArgumentException("Window count must be positive, but was: " +
+                    windowCount);
+        }
+
+        if (pollerIndex < 0 || pollerIndex >= windowCount) {
+            throw new IllegalArgumentException("Poller index must be at least 0 and less than " +
+                    "window count " + windowCount + ", but was: " + pollerIndex);
+        }
+
+        this.pollerIndex = pollerIndex;
+        this.windowCount = windowCount;
+    }
+
+    public boolean isWindowed() {
+        return windowCount > 1;
+    }
+
+    /**
+     * Called once per poll.
+     *
+     * @return The zero-based window the poll should read, rotating through every window.
+     */
+    public int nextWindow() {
+        if (!isWindowed()) {
+            return 0;
+        }
+
+        synchronized (this) {
+            return (int) ((pollerIndex + polls++) % windowCount);
+        }
+    }
+
+    public int getPollerIndex() {
+        return pollerIndex;
+    }
+
+    public int getWindowCount() {
+        return windowCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityWindowing{" +
+                "pollerIndex=" + pollerIndex +
+                ", windowCount=" + windowCount +
+                '}';
+    }
+}
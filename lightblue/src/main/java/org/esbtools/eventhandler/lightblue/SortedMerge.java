@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges results of finds which were each sorted the same way, as if they were the results of one
+ * find with the same sort.
+ */
+final class SortedMerge {
+    private SortedMerge() {}
+
+    /**
+     * @param sortedResults Results which are each already sorted by {@code order}.
+     * @param skip How many of the merged results to skip, as a find's range would.
+     * @param limit The most merged results to return, after those skipped.
+     * @return Up to {@code limit} results, in {@code order}, after the first {@code skip}. Ties
+     * are broken in favor of whichever results came first in {@code sortedResults}.
+     */
+    static <T> List<T> mergeUpTo(List<T[]> sortedResults, Comparator<? super T> order, int skip,
+            int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Each cursor is {index into sortedResults, position within those results}.
+        PriorityQueue<int[]> cursors = new PriorityQueue<>(Math.max(1, sortedResults.size()),
+                (a, b) -> {
+                    int byOrder = order.compare(
+                            sortedResults.get(a[0])[a[1]], sortedResults.get(b[0])[b[1]]);
+                    return byOrder != 0 ? byOrder : Integer.compare(a[0], b[0]);
+                });
+
+        for (int i = 0; i < sortedResults.size(); i++) {
+            if (sortedResults.get(i).length > 0) {
+                cursors.add(new int[]{i, 0});
+            }
+        }
+
+        List<T> merged = new ArrayList<>(limit);
+        int skipped = 0;
+
+        while (merged.size() < limit && !cursors.isEmpty()) {
+            int[] next = cursors.poll();
+            T[] results = sortedResults.get(next[0]);
+
+            if (skipped < skip) {
+                skipped++;
+            } else {
+                merged.add(results[next[1]]);
+            }
+
+            if (next[1] + 1 < results.length) {
+                next[1]++;
+                cursors.add(next);
+            }
+        }
+
+        return merged;
+    }
+}
@@ -18,23 +18,35 @@
 
 package org.esbtools.eventhandler.lightblue.client;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 import org.esbtools.eventhandler.FutureDoneCallback;
@@ -46,26 +58,27 @@ import org.esbtools.eventhandler.TransformableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.redhat.lightblue.client.LightblueClient;
-import com.redhat.lightblue.client.LightblueException;
 import com.redhat.lightblue.client.model.DataError;
 import com.redhat.lightblue.client.model.Error;
 import com.redhat.lightblue.client.request.CRUDRequest;
-import com.redhat.lightblue.client.request.DataBulkRequest;
-import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
-import com.redhat.lightblue.client.response.LightblueBulkResponseException;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
 import com.redhat.lightblue.client.response.LightblueDataResponse;
 import com.redhat.lightblue.client.response.LightblueErrorResponse;
 
+import javax.annotation.Nullable;
+
 /**
- * A partially thread-safe requester which queues up requests until an associated {@link Future} is
- * resolved, at which point all queued requests are performed in a single batch.
+ * A thread-safe requester which queues up requests until an associated {@link Future} is
+ * resolved, at which point all queued requests are performed in a single batch. Requests queued
+ * by transforms of that batch's results are then performed in a following batch, and so on, until
+ * none are left. See {@link #performQueuedRequestsInRounds()}.
  *
- * <p>This class may be used across multiple threads safely, however the returned {@code Future}s
- * are not threadsafe. That is, a given future instance should not be shared among multiple threads,
- * which should not be a relevant limitation (if it is, however, it would not be hard to make them
- * thread safe). Requests are queued up atomically, and performed and cleared atomically as well.
- * That is, when one future is resolved, the current batch of requests is frozen, copied, cleared,
+ * <p>This class and the returned {@code Future}s may be used across multiple threads safely. Many
+ * threads may wait on, transform, and cancel the same future, and each batch of queued requests is
+ * performed exactly once. Requests are queued up atomically, and performed and cleared atomically
+ * as well. That is, when one future is resolved, the current batch of requests is frozen, copied, cleared,
  * and performed. A thread queueing a request while another thread resolves a future will
  * <em>not</em> result in a loss of requests. It will either make it in for the batch, or be queued
  * for the next.
@@ -75,10 +88,39 @@ import com.redhat.lightblue.client.response.LightblueErrorResponse;
  * want some other thread interrupting your batch performing your requests before you've finished
  * queueing all of them up. So, you should create a new {@code BulkLightblueRequester} instance per
  * logical "batch," and generally should avoid sharing an instance among multiple threads.
+ *
+ * <p>Alternatively, a requester may be created which also flushes its queued requests on its own,
+ * in the background, as soon as enough requests are queued or the first queued request has waited
+ * long enough. See
+ * {@link #BulkLightblueRequester(LightblueClient, boolean, BulkRequestChunking, int, Duration,
+ * ScheduledExecutorService)}. Requests then do not wait for some caller to ask for a result, and
+ * batches are bounded by size and delay rather than by whatever happened to be queued when a
+ * caller did. Such a requester is a good fit for sharing among many routes and threads: a flush
+ * started by one does not much disrupt the batching of others. Flushed batches are performed while
+ * other threads go on queueing the next, and transforms of flushed results run in the flushing
+ * thread, so dependent lookups they queue are flushed in turn without anyone waiting on them.
  */
 public class BulkLightblueRequester implements LightblueRequester {
     private final LightblueClient lightblue;
     private final boolean ordered;
+    private final BulkRequestChunking chunking;
+
+    /** {@code null} if requests are only performed when a result is asked for. */
+    @Nullable
+    private final ScheduledExecutorService flushExecutor;
+    private final int flushAtQueuedRequests;
+    private final long flushAfterFirstQueuedNanos;
+
+    private final AtomicInteger queuedRequestCount = new AtomicInteger(0);
+    /** Incremented every time the queues are drained, so stale scheduled flushes can tell. */
+    private final AtomicLong drainCount = new AtomicLong(0);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    /** Whether a flush of enough queued requests is submitted, but yet to drain the queues. */
+    private final AtomicBoolean flushSubmitted = new AtomicBoolean(false);
+
+    private final AtomicInteger roundTrips = new AtomicInteger(0);
+
+    private static final Logger log = LoggerFactory.getLogger(BulkLightblueRequester.class);
     private final List<LazyRequestTransformableFuture<LightblueDataResponses>> queuedRequests =
             Collections.synchronizedList(new ArrayList<>());
     private final List<LazyRequestTransformableFuture<LightblueResponses>> queuedTryRequests =
@@ -89,16 +131,65 @@ public class BulkLightblueRequester implements LightblueRequester {
     }
 
     public BulkLightblueRequester(LightblueClient lightblue, boolean ordered) {
+        this(lightblue, ordered, BulkRequestChunking.none());
+    }
+
+    /**
+     * @param chunking Governs whether queued requests are sent in one or many bulk requests.
+     *                 Either way, each returned future gets responses for all of its requests.
+     */
+    public BulkLightblueRequester(LightblueClient lightblue, boolean ordered,
+            BulkRequestChunking chunking) {
+        this.lightblue = lightblue;
+        this.ordered = ordered;
+        this.chunking = Objects.requireNonNull(chunking, "chunking");
+        this.flushExecutor = null;
+        this.flushAtQueuedRequests = Integer.MAX_VALUE;
+        this.flushAfterFirstQueuedNanos = Long.MAX_VALUE;
+    }
+
+    /**
+     * Creates a requester which, in addition to performing queued requests when a result is asked
+     * for, flushes queued requests in the background.
+     *
+     * <p>Note that concurrent flushes are performed independently of each other, so requests are
+     * only ordered with respect to others in the same flush, even if {@code ordered} is true.
+     *
+     * @param flushAtQueuedRequests Queued requests are flushed as soon as there are at least this
+     *                              many.
+     * @param flushAfterFirstQueued Queued requests are flushed once the first of them has been
+     *                              queued this long.
+     * @param flushExecutor Flushes are scheduled and performed here, so its size bounds how many
+     *                      flushes may be in flight at once.
+     */
+    public BulkLightblueRequester(LightblueClient lightblue, boolean ordered,
+            BulkRequestChunking chunking, int flushAtQueuedRequests,
+            Duration flushAfterFirstQueued, ScheduledExecutorService flushExecutor) {
+        if (flushAtQueuedRequests < 1) {
+            throw new IllegalArgumentException("flushAtQueuedRequests must be positive but was " +
+                    flushAtQueuedRequests);
+        }
+
+        if (flushAfterFirstQueued.isNegative()) {
+            throw new IllegalArgumentException("flushAfterFirstQueued must not be negative but " +
+                    "was " + flushAfterFirstQueued);
+        }
+
         this.lightblue = lightblue;
         this.ordered = ordered;
+        this.chunking = Objects.requireNonNull(chunking, "chunking");
+        this.flushExecutor = Objects.requireNonNull(flushExecutor, "flushExecutor");
+        this.flushAtQueuedRequests = flushAtQueuedRequests;
+        this.flushAfterFirstQueuedNanos = flushAfterFirstQueued.toNanos();
     }
-    
+
     @Override
     public TransformableFuture<LightblueDataResponses> request(CRUDRequest... requests) {
         checkNoNullsInRequests(requests);
         LazyRequestTransformableFuture<LightblueDataResponses> responseFuture =
                 new LazyRequestTransformableFuture<>(requests);
         queuedRequests.add(responseFuture);
+        onQueued(requests.length);
         return responseFuture;
     }
 
@@ -114,41 +205,265 @@ public class BulkLightblueRequester implements LightblueRequester {
         LazyRequestTransformableFuture<LightblueResponses> responseFuture =
                 new LazyRequestTransformableFuture<>(req);
         queuedTryRequests.add(responseFuture);
+        onQueued(req.length);
         return responseFuture;
     }
 
-    private void doQueuedRequestsAndCompleteFutures() {
+    /**
+     * If flushing in the background, flushes now if enough requests are queued, or otherwise makes
+     * sure a flush is scheduled for the oldest queued request.
+     */
+    private void onQueued(int requests) {
+        if (flushExecutor == null) {
+            return;
+        }
+
+        queuedRequestCount.addAndGet(requests);
+        flushWhenDue();
+    }
+
+    /**
+     * Submits a flush now if enough requests are queued and one is not already submitted, or
+     * otherwise makes sure a flush is scheduled for the oldest queued request.
+     */
+    private void flushWhenDue() {
+        if (queuedRequestCount.get() >= flushAtQueuedRequests) {
+            // Only one at a time, rather than one per request queued until the queues are drained.
+            if (flushSubmitted.compareAndSet(false, true)) {
+                try {
+                    flushExecutor.execute(this::flushQueuedRequests);
+                } catch (RejectedExecutionException e) {
+                    flushSubmitted.set(false);
+                    throw e;
+                }
+            }
+            return;
+        }
+
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            long drainsBeforeSchedule = drainCount.get();
+
+            flushExecutor.schedule(() -> {
+                // If the queue has since been drained, the requests this was scheduled for are
+                // gone; a flush has been scheduled for any queued since.
+                if (drainCount.get() == drainsBeforeSchedule) {
+                    flushQueuedRequests();
+                }
+            }, flushAfterFirstQueuedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Performs all queued requests breadth first: each round performs every request queued so
+     * far, completing their futures and so running their transforms, which may queue further
+     * requests for the next round. Rounds continue until no requests are queued.
+     *
+     * <p>This way, a batch of lookups, whose transforms look up more in turn, takes as many round
+     * trips as its longest chain of dependent lookups, no matter how many lookups are in the batch
+     * or in what order their results are asked for.
+     *
+     * <p>This is what happens when a result is asked for of a requester which does not flush in
+     * the background.
+     *
+     * @return The number of rounds which performed requests.
+     */
+    public int performQueuedRequestsInRounds() {
+        int rounds = 0;
+
+        while (doQueuedRequestsAndCompleteFutures()) {
+            rounds++;
+        }
+
+        return rounds;
+    }
+
+    /**
+     * @return The number of rounds of queued requests which have been sent to lightblue so far by
+     * this requester. With a requester per batch, this is the number of round trips the batch took
+     * (or more, if {@link BulkRequestChunking chunked}).
+     */
+    public int getRoundTripCount() {
+        return roundTrips.get();
+    }
+
+    /**
+     * A requester which flushes in the background performs dependent lookups as they are queued,
+     * so a result only needs one round performed to make progress. A requester which doesn't may
+     * have no other chance to, so it performs every round at once.
+     */
+    private void triggerFutureCompletion() {
+        if (flushExecutor == null) {
+            performQueuedRequestsInRounds();
+        } else {
+            doQueuedRequestsAndCompleteFutures();
+        }
+    }
+
+    private void flushQueuedRequests() {
+        try {
+            doQueuedRequestsAndCompleteFutures();
+        } catch (RuntimeException e) {
+            log.error("Unexpected exception flushing queued lightblue requests.", e);
+        }
+    }
+
+    /**
+     * Performs one round of queued requests.
+     *
+     * @return Whether there were any queued futures to complete.
+     */
+    private boolean doQueuedRequestsAndCompleteFutures() {
         List<LazyRequestTransformableFuture<LightblueDataResponses>> batch;
         List<LazyRequestTransformableFuture<LightblueResponses>> tryBatch;
 
+        // Futures are marked while still holding the lock, so that any other thread which finds
+        // the queue empty afterwards also sees its future is already being completed.
         synchronized (queuedRequests) {
             batch = new ArrayList<>(queuedRequests);
             queuedRequests.clear();
+            batch.forEach(LazyRequestTransformableFuture::markTriggered);
         }
 
         synchronized (queuedTryRequests) {
             tryBatch = new ArrayList<>(queuedTryRequests);
             queuedTryRequests.clear();
+            tryBatch.forEach(LazyRequestTransformableFuture::markTriggered);
         }
-        
-        DataBulkRequest bulkRequest = new DataBulkRequest(ordered);
-
-        Stream.concat(batch.stream(), tryBatch.stream())
-                .flatMap(requestFuture -> Arrays.stream(requestFuture.requests))
-                // TODO: Determine if any requests are equivalent / duplicated and filter out
-                .forEach(bulkRequest::add);
 
         try {
-            LightblueBulkDataResponse bulkResponse = tryBulkRequest(bulkRequest);
+            if (flushExecutor != null) {
+                int drainedRequests = Stream.concat(batch.stream(), tryBatch.stream())
+                        .mapToInt(requestFuture -> requestFuture.requests.length)
+                        .sum();
+                queuedRequestCount.addAndGet(-drainedRequests);
+                drainCount.incrementAndGet();
+                flushScheduled.set(false);
+                flushSubmitted.set(false);
+
+                // A request queued since we emptied the queues, but before we reset the flags
+                // above, could not submit or schedule a flush of its own, and the one already
+                // scheduled is now stale.
+                if (!queuedRequests.isEmpty() || !queuedTryRequests.isEmpty()) {
+                    try {
+                        flushWhenDue();
+                    } catch (RejectedExecutionException e) {
+                        // Don't fail this round for it; they are still performed once waited on.
+                        flushScheduled.set(false);
+                        log.warn("Could not schedule flush of requests queued during a flush.", e);
+                    }
+                }
+            }
+
+            if (batch.isEmpty() && tryBatch.isEmpty()) {
+                // Another thread already took the requests we were waiting on, if any.
+                return false;
+            }
+
+            List<CRUDRequest> requestsToSend = new ArrayList<>();
+
+            // Equivalent finds are only sent once. Each queued request maps to the request
+            // actually sent, whose response it shares.
+            Map<CRUDRequest, CRUDRequest> sentRequests = new IdentityHashMap<>();
+            Map<EquivalentFind, CRUDRequest> sentFinds = new HashMap<>();
+
+            // Finds by id are sent as one find per entity, in place of the first of them.
+            Map<IdFinds, Integer> idFindsToSend = new IdentityHashMap<>();
+            Map<List<String>, IdFinds> openIdFinds = new HashMap<>();
+
+            Stream.concat(batch.stream(), tryBatch.stream())
+                    .flatMap(requestFuture -> Arrays.stream(requestFuture.requests))
+                    .forEach(request -> {
+                        if (request instanceof DataFindRequest) {
+                            CRUDRequest equivalent =
+                                    sentFinds.putIfAbsent(new EquivalentFind(request), request);
+
+                            if (equivalent != null) {
+                                sentRequests.put(request, equivalent);
+                                return;
+                            }
+
+                            Optional<String> id = IdFinds.idFoundBy(request);
+
+                            if (id.isPresent()) {
+                                IdFinds idFinds = openIdFinds.computeIfAbsent(
+                                        IdFinds.keyOf(request), key -> {
+                                            IdFinds newIdFinds = new IdFinds(
+                                                    request.getEntityName(),
+                                                    request.getEntityVersion());
+                                            idFindsToSend.put(newIdFinds,
+                                                    requestsToSend.size());
+                                            requestsToSend.add(null);
+                                            return newIdFinds;
+                                        });
+                                idFinds.add(request, id.get());
+                                return;
+                            }
+                        } else if (ordered) {
+                            // Later finds may observe this write, so they can't share a
+                            // response with earlier finds.
+                            sentFinds.clear();
+                            openIdFinds.clear();
+                        }
+
+                        sentRequests.put(request, request);
+                        requestsToSend.add(request);
+                    });
+
+            idFindsToSend.forEach((idFinds, index) -> {
+                CRUDRequest idFindsRequest = idFinds.request();
+                requestsToSend.set(index, idFindsRequest);
+                idFinds.finds().forEach(find -> sentRequests.put(find, idFindsRequest));
+            });
+
+            if (!requestsToSend.isEmpty()) {
+                roundTrips.incrementAndGet();
+            }
+
+            List<LightblueDataResponse> responses;
+            Map<CRUDRequest, Exception> failuresBySentRequest;
+
+            try {
+                responses = chunking.bulkData(lightblue, requestsToSend, ordered);
+                failuresBySentRequest = Collections.emptyMap();
+            } catch (IsolatedRequestFailuresException e) {
+                // Only futures waiting on the failed requests fail.
+                responses = e.getResponses();
+                failuresBySentRequest = e.getFailures();
+            }
+
+            Map<CRUDRequest, LightblueDataResponse> responsesBySentRequest =
+                    new IdentityHashMap<>(requestsToSend.size());
+
+            for (int i = 0; i < requestsToSend.size(); i++) {
+                responsesBySentRequest.put(requestsToSend.get(i), responses.get(i));
+            }
+
+            Map<CRUDRequest, LightblueDataResponse> responsesByRequest =
+                    new IdentityHashMap<>(sentRequests.size());
+
+            sentRequests.forEach((request, sentRequest) ->
+                    responsesByRequest.put(request, responsesBySentRequest.get(sentRequest)));
+            idFindsToSend.keySet().forEach(idFinds -> idFinds.splitResponses(responsesByRequest));
 
             for (LazyRequestTransformableFuture<LightblueDataResponses> batchedFuture : batch) {
                 CRUDRequest[] requests = batchedFuture.requests;
+                Exception failure = failureOf(requests, sentRequests, failuresBySentRequest);
+
+                if (failure != null) {
+                    batchedFuture.completeExceptionally(failure);
+                    continue;
+                }
+
                 Map<CRUDRequest, LightblueDataResponse> responseMap =
                         new HashMap<>(requests.length);
                 List<Error> errors = new ArrayList<>();
 
                 for (CRUDRequest request : requests) {
-                    LightblueDataResponse response = bulkResponse.getResponse(request);
+                    LightblueDataResponse response = responsesByRequest.get(request);
 
                     if (response instanceof LightblueErrorResponse) {
                         LightblueErrorResponse errorResponse = (LightblueErrorResponse) response;
@@ -179,36 +494,58 @@ public class BulkLightblueRequester implements LightblueRequester {
 
             for (LazyRequestTransformableFuture<LightblueResponses> batchedFuture : tryBatch) {
                 CRUDRequest[] requests = batchedFuture.requests;
+                Exception failure = failureOf(requests, sentRequests, failuresBySentRequest);
+
+                if (failure != null) {
+                    batchedFuture.completeExceptionally(failure);
+                    continue;
+                }
+
                 Map<CRUDRequest, LightblueResponse> responseMap =
                         new HashMap<>(requests.length);
 
                 for (CRUDRequest request : requests) {
-                    LightblueDataResponse response = bulkResponse.getResponse(request);
+                    LightblueDataResponse response = responsesByRequest.get(request);
                     responseMap.put(request, LightblueResponse.fromClientResponse(response));
                 }
 
                 batchedFuture.complete(new BulkResponses(responseMap));
             }
         } catch (Exception e) {
+            // The futures are already marked triggered, so no one else will complete them.
             Stream.concat(batch.stream(), tryBatch.stream())
                     .forEach(batchedFuture -> batchedFuture.completeExceptionally(e));
+        } catch (java.lang.Error e) {
+            RuntimeException failure =
+                    new RuntimeException("Error while performing lightblue requests.", e);
+            Stream.concat(batch.stream(), tryBatch.stream())
+                    .forEach(batchedFuture -> batchedFuture.completeExceptionally(failure));
+            throw e;
         }
+
+        return true;
     }
 
     /**
-     * Swallows exceptions related to errors in individual requests on purpose. The returned
-     * bulk response object may have failed responses.
-     *
-     * @throws LightblueException if something else went wrong, in which case there is no usable
-     *                            response at all.
+     * @return The exception which prevented a response to any of the requests, if any did.
      */
-    private LightblueBulkDataResponse tryBulkRequest(DataBulkRequest bulkRequest)
-            throws LightblueException {
-        try {
-            return lightblue.bulkData(bulkRequest);
-        } catch (LightblueBulkResponseException e) {
-            return e.getBulkResponse();
+    @Nullable
+    private static Exception failureOf(CRUDRequest[] requests,
+            Map<CRUDRequest, CRUDRequest> sentRequests,
+            Map<CRUDRequest, Exception> failuresBySentRequest) {
+        if (failuresBySentRequest.isEmpty()) {
+            return null;
+        }
+
+        for (CRUDRequest request : requests) {
+            Exception failure = failuresBySentRequest.get(sentRequests.get(request));
+
+            if (failure != null) {
+                return failure;
+            }
         }
+
+        return null;
     }
 
     private static void checkNoNullsInRequests(CRUDRequest[] requests) {
@@ -270,6 +607,13 @@ public class BulkLightblueRequester implements LightblueRequester {
      * async future the callbacks happen at some point in the future regardless of if anything ever
      * calls {@code .get()}.
      *
+     * <p>This future is thread safe. Its state moves from pending, optionally to triggered (once
+     * the work which will complete it has started), and finally to done (completed, failed, or
+     * cancelled). The outcome is set once, atomically, and callbacks and transforms run exactly
+     * once, whether they were added before or after the future was done. A thread which calls
+     * {@code .get()} while another thread is already completing this future waits for that
+     * completion rather than triggering it again.
+     *
      * @param <U> The type of the result of the future. See {@link TransformableFuture}.
      */
     static class LazyTransformableFuture<U> implements TransformableFuture<U> {
@@ -282,83 +626,118 @@ public class BulkLightblueRequester implements LightblueRequester {
          */
         private final Completer completer;
 
-        private U result;
-        private Exception exception;
-        private boolean completed = false;
-        private boolean cancelled = false;
+        /**
+         * The future whose result this future's result is derived from, if any. If the upstream
+         * future's completion is underway, so is ours.
+         */
+        @Nullable
+        private final LazyTransformableFuture<?> upstream;
+
+        /** {@code null} until done. Only ever set once. */
+        private final AtomicReference<Outcome<U>> outcome = new AtomicReference<>();
+        private final AtomicBoolean triggered = new AtomicBoolean(false);
+        private final CountDownLatch doneLatch = new CountDownLatch(1);
 
         /**
          * Queued up futures which are the result of applying this future's value to some transform
          * function ({@link FutureTransform}). Futures are queued up by calling APIs like
          * {@link #transformSync(FutureTransform)} and {@link #transformAsync(FutureTransform)}.
+         *
+         * <p>Whichever thread removes a future from this queue is responsible for completing it.
          */
-        private final List<LazyTransformingFuture<U, ?>> next = new ArrayList<>(1);
+        private final Queue<LazyTransformingFuture<U, ?>> next = new ConcurrentLinkedQueue<>();
 
-        private final List<FutureDoneCallback> doneCallbacks = new ArrayList<>();
+        /**
+         * Whichever thread removes a callback from this queue is responsible for calling it.
+         */
+        private final Queue<FutureDoneCallback> doneCallbacks = new ConcurrentLinkedQueue<>();
 
         private static Logger log = LoggerFactory.getLogger(LazyTransformableFuture.class);
 
+        private static final int MAX_TIMED_COMPLETION_THREADS = 64;
+
+        /**
+         * Runs {@link #completer}s for {@link #get(long, TimeUnit) timed gets}, so the caller can
+         * stop waiting once the timeout is up. Shared among all futures so that threads are not
+         * created and torn down per call; idle threads time out, so this costs nothing when unused.
+         *
+         * <p>There is no queue, so a completer never waits behind other callers' completers,
+         * eating into its caller's timeout. Instead, once all {@link #MAX_TIMED_COMPLETION_THREADS}
+         * threads are busy, the caller runs its completer itself. It may then wait past its
+         * timeout for that one round of requests, but the number of threads stays bounded.
+         */
+        private static final ExecutorService timedCompletionExecutor = new ThreadPoolExecutor(
+                0, MAX_TIMED_COMPLETION_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("bulk-lightblue-requester-%d")
+                        .setDaemon(true)
+                        .build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
         /**
          * @param completer Reference to a function which should complete this future when called.
          *                  See {@link #completer}.
          */
         LazyTransformableFuture(Completer completer) {
-            this.completer = completer;
+            this(completer, null);
         }
 
-        void complete(U responses) {
-            if (isDone()) return;
+        /**
+         * @param completer Reference to a function which should complete this future when called.
+         *                  See {@link #completer}.
+         * @param upstream The future whose result this future's result is derived from.
+         */
+        LazyTransformableFuture(Completer completer, @Nullable LazyTransformableFuture<?> upstream) {
+            this.completer = completer;
+            this.upstream = upstream;
+        }
 
-            result = responses;
-            completed = true;
-            callDoneCallbacks();
+        /**
+         * Marks that the work which will complete this future has started, so that other threads
+         * waiting on this future wait for that work instead of triggering it again.
+         */
+        void markTriggered() {
+            triggered.set(true);
+        }
 
-            // It's important that these transforms are completed eagerly, since this may queue up
-            // additional requests. See LazyTransformingFuture#complete.
-            for (LazyTransformingFuture<U, ?> next : this.next) {
-                try {
-                    next.complete(result);
-                } catch (Exception e) {
-                    log.warn("Exception caught and ignored while completing next transforming " +
-                            "future.", e);
-                }
+        void complete(U responses) {
+            if (outcome.compareAndSet(null, Outcome.completed(responses))) {
+                onDone();
             }
         }
 
         void completeExceptionally(Exception exception) {
-            if (isDone()) return;
-            completed = true;
-            this.exception = exception;
-            callDoneCallbacks();
-
-            for (LazyTransformingFuture<U, ?> next : this.next) {
-                try {
-                    next.completeExceptionally(exception);
-                } catch (Exception e) {
-                    log.warn("Exception caught and ignored while completing next transforming " +
-                            "future with exception.", e);
-                }
+            if (outcome.compareAndSet(null, Outcome.failed(exception))) {
+                onDone();
             }
         }
 
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
-            if (completed) return false;
-            cancelled = true;
-            callDoneCallbacks();
-            return true;
+            if (outcome.compareAndSet(null, Outcome.cancelled())) {
+                onDone();
+                return true;
+            }
+
+            return false;
         }
 
         @Override
         public boolean isCancelled() {
-            return cancelled;
+            Outcome<U> current = outcome.get();
+            return current != null && current.cancelled;
         }
 
         @Override
         public boolean isDone() {
-            return cancelled || completed;
+            return outcome.get() != null;
+        }
+
+        private boolean isCompletionUnderway() {
+            return isDone() || triggered.get() ||
+                    (upstream != null && upstream.isCompletionUnderway());
         }
-        
+
         private static class TimeoutDuration {
             final long duration;
             final TimeUnit timeUnit;
@@ -390,44 +769,62 @@ public class BulkLightblueRequester implements LightblueRequester {
 
         private U get(Optional<TimeoutDuration> timeout)
                 throws TimeoutException, InterruptedException, ExecutionException {
-            if (cancelled) {
-                throw new CancellationException();
-            }
+            long deadlineNanos = timeout
+                    .map(t -> System.nanoTime() + t.timeUnit.toNanos(t.duration))
+                    .orElse(0L);
 
-            if (!completed) {
+            if (!isCompletionUnderway()) {
                 if (timeout.isPresent()) {
-                    ExecutorService executor = Executors.newSingleThreadExecutor();
+                    Future<?> submittedTask = timedCompletionExecutor.submit(() -> {
+                        completer.triggerFutureCompletion();
+                    });
                     try {
-                        Future<?> submittedTask = executor.submit(() -> {
-                            completer.triggerFutureCompletion();
-                        });
-                        TimeoutDuration timeoutDuration = timeout.get();
-                        submittedTask.get(timeoutDuration.duration, timeoutDuration.timeUnit);
+                        submittedTask.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
                     } finally {
-                        executor.shutdownNow();
+                        // If we stopped waiting early, don't leave the completer running (or
+                        // waiting to run) in the background. If it already took its batch, the
+                        // interrupted request fails the batch's futures, so other threads waiting
+                        // on them are not left waiting.
+                        submittedTask.cancel(true);
                     }
                 } else {
                     completer.triggerFutureCompletion();
                 }
-                if (!completed) {
+
+                if (!isCompletionUnderway()) {
                     throw new ExecutionException(new IllegalStateException("Future attempted to "
                             + "lazily trigger completion, but completer did not actually complete "
                             + "the future. Check the provided completer function for correctness."));
                 }
             }
 
-            if (exception != null) {
-                throw new ExecutionException(exception);
+            // Completion may be happening in another thread.
+            if (timeout.isPresent()) {
+                if (!doneLatch.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw new TimeoutException();
+                }
+            } else {
+                doneLatch.await();
             }
 
-            return result;
+            Outcome<U> done = outcome.get();
+
+            if (done.cancelled) {
+                throw new CancellationException();
+            }
+
+            if (done.exception != null) {
+                throw new ExecutionException(done.exception);
+            }
+
+            return done.result;
         }
 
         @Override
         public <V> TransformableFuture<V> transformSync(FutureTransform<U, V> futureTransform) {
             LazyTransformingFuture<U, V> future =
-                    new LazyTransformingFuture<>(futureTransform, completer);
-            next.add(future);
+                    new LazyTransformingFuture<>(futureTransform, completer, this);
+            addNext(future);
             return future;
         }
 
@@ -435,8 +832,8 @@ public class BulkLightblueRequester implements LightblueRequester {
         public <V> TransformableFuture<V> transformAsync(
                 FutureTransform<U, TransformableFuture<V>> futureTransform) {
             LazyTransformingFuture<U, TransformableFuture<V>> future =
-                    new LazyTransformingFuture<>(futureTransform, completer);
-            next.add(future);
+                    new LazyTransformingFuture<>(futureTransform, completer, this);
+            addNext(future);
             return new NestedTransformableFuture<>(future);
         }
 
@@ -444,27 +841,45 @@ public class BulkLightblueRequester implements LightblueRequester {
         public TransformableFuture<Void> transformAsyncIgnoringReturn(
                 FutureTransform<U, TransformableFuture<?>> futureTransform) {
             LazyTransformingFuture<U, TransformableFuture<?>> future =
-                    new LazyTransformingFuture<>(futureTransform, completer);
-            next.add(future);
+                    new LazyTransformingFuture<>(futureTransform, completer, this);
+            addNext(future);
             return new NestedTransformableFutureIgnoringReturn(future);
         }
 
         @Override
         public TransformableFuture<U> whenDoneOrCancelled(FutureDoneCallback callback) {
+            doneCallbacks.add(callback);
+
+            // If we were done before the callback was added, no one else will call it.
             if (isDone()) {
-                try {
-                    callback.onDoneOrCancelled();
-                } catch (Exception e) {
-                    log.warn("Exception caught and ignored while running future done callback.", e);
-                }
-                return this;
+                callDoneCallbacks();
             }
-            doneCallbacks.add(callback);
+
             return this;
         }
 
+        private void addNext(LazyTransformingFuture<U, ?> future) {
+            next.add(future);
+
+            // If we were done before the future was added, no one else will complete it.
+            if (isDone()) {
+                completeNext();
+            }
+        }
+
+        private void onDone() {
+            doneLatch.countDown();
+            callDoneCallbacks();
+
+            // It's important that these transforms are completed eagerly, since this may queue up
+            // additional requests. See LazyTransformingFuture#complete.
+            completeNext();
+        }
+
         private void callDoneCallbacks() {
-            for (FutureDoneCallback doneCallback : doneCallbacks) {
+            FutureDoneCallback doneCallback;
+
+            while ((doneCallback = doneCallbacks.poll()) != null) {
                 try {
                     doneCallback.onDoneOrCancelled();
                 } catch (Exception e) {
@@ -472,17 +887,66 @@ public class BulkLightblueRequester implements LightblueRequester {
                 }
             }
         }
+
+        private void completeNext() {
+            Outcome<U> done = outcome.get();
+            LazyTransformingFuture<U, ?> nextFuture;
+
+            while ((nextFuture = next.poll()) != null) {
+                try {
+                    if (done.cancelled) {
+                        nextFuture.cancel(false);
+                    } else if (done.exception != null) {
+                        nextFuture.completeExceptionally(done.exception);
+                    } else {
+                        nextFuture.complete(done.result);
+                    }
+                } catch (Exception e) {
+                    log.warn("Exception caught and ignored while completing next transforming " +
+                            "future.", e);
+                }
+            }
+        }
+
+        /**
+         * Immutable result of a done future: exactly one of a result (which may be null), an
+         * exception, or cancellation.
+         */
+        private static final class Outcome<U> {
+            final U result;
+            final Exception exception;
+            final boolean cancelled;
+
+            private Outcome(U result, Exception exception, boolean cancelled) {
+                this.result = result;
+                this.exception = exception;
+                this.cancelled = cancelled;
+            }
+
+            static <U> Outcome<U> completed(U result) {
+                return new Outcome<>(result, null, false);
+            }
+
+            static <U> Outcome<U> failed(Exception exception) {
+                return new Outcome<>(null, exception, false);
+            }
+
+            static <U> Outcome<U> cancelled() {
+                return new Outcome<>(null, null, true);
+            }
+        }
     }
 
     /**
      * Wraps a {@link LazyTransformableFuture} and some {@link AbstractLightblueDataRequest
      * lightblue requests} which are used to complete this in
-     * {@link #doQueuedRequestsAndCompleteFutures()}. Naturally, then, that function is used as the
+     * {@link #doQueuedRequestsAndCompleteFutures()}, by way of
+     * {@link #triggerFutureCompletion()}. Naturally, then, that function is used as the
      * lazy future's completer function. That function and this implementation are tightly coupled.
      */
     class LazyRequestTransformableFuture<T> implements TransformableFuture<T> {
         private final LazyTransformableFuture<T> backingFuture =
-                new LazyTransformableFuture<>(() -> doQueuedRequestsAndCompleteFutures());
+                new LazyTransformableFuture<>(() -> triggerFutureCompletion());
 
         final CRUDRequest[] requests;
 
@@ -490,6 +954,10 @@ public class BulkLightblueRequester implements LightblueRequester {
             this.requests = requests;
         }
 
+        void markTriggered() {
+            backingFuture.markTriggered();
+        }
+
         void complete(T responses) {
             backingFuture.complete(responses);
         }
@@ -525,8 +993,12 @@ public class BulkLightblueRequester implements LightblueRequester {
         @Override
         public boolean cancel(boolean mayInterruptIfRunning) {
             if (!backingFuture.isDone()) {
-                queuedRequests.remove(this);
-                queuedTryRequests.remove(this);
+                boolean dequeued = queuedRequests.remove(this);
+                dequeued |= queuedTryRequests.remove(this);
+
+                if (dequeued && flushExecutor != null) {
+                    queuedRequestCount.addAndGet(-requests.length);
+                }
             }
 
             return backingFuture.cancel(mayInterruptIfRunning);
@@ -568,9 +1040,10 @@ public class BulkLightblueRequester implements LightblueRequester {
         private final FutureTransform<T, U> transform;
         private final LazyTransformableFuture<U> backingFuture;
 
-        LazyTransformingFuture(FutureTransform<T, U> transform, Completer completer) {
+        LazyTransformingFuture(FutureTransform<T, U> transform, Completer completer,
+                LazyTransformableFuture<T> upstream) {
             this.transform = transform;
-            this.backingFuture = new LazyTransformableFuture<>(completer);
+            this.backingFuture = new LazyTransformableFuture<>(completer, upstream);
         }
 
         /**
@@ -0,0 +1,368 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueBulkResponseException;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Governs how many requests go into a single lightblue bulk request. A large batch of requests
+ * sent as one bulk request is one large HTTP call, which succeeds or times out as a unit. Instead,
+ * requests may be split into chunks limited by number of requests and by estimated payload size
+ * (the sum of the requests' body lengths).
+ *
+ * <p>Chunks of an ordered bulk request are sent one after the other, so that requests are still
+ * performed in order. Chunks of an unordered bulk request are sent concurrently, up to a maximum
+ * number at a time.
+ *
+ * <p>Either way, responses are returned in the same order as their requests, one per request, so
+ * callers need not know how many calls were actually made.
+ *
+ * <p>Optionally, failures may be isolated. Normally, if a chunk fails without any usable
+ * responses (as opposed to some of its requests failing with errors in their responses), the
+ * whole bulk request fails. When isolating failures, a chunk which lightblue answered with errors,
+ * but without a usable response per request, is instead retried in halves, and so on, until the
+ * requests which fail on their own are found. Only those requests are failed, by way of
+ * {@link IsolatedRequestFailuresException}. Other failures, such as I/O errors or timeouts, say
+ * nothing about which requests are to blame, so they still fail the whole bulk request. Note that
+ * requests in a retried chunk may be performed more than once, so only isolate failures for
+ * requests where that is acceptable, such as finds. See {@link #withoutIsolatingFailures()}.
+ */
+public final class BulkRequestChunking implements Closeable {
+    private final int maxRequestsPerChunk;
+    private final long maxEstimatedCharsPerChunk;
+    private final boolean isolateFailures;
+
+    /** {@code null} if chunks are always sent from the calling thread. */
+    @Nullable
+    private final ExecutorService chunkExecutor;
+
+    private static final BulkRequestChunking NONE =
+            new BulkRequestChunking(Integer.MAX_VALUE, Long.MAX_VALUE, 1, false);
+
+    /**
+     * Every bulk request is sent as a single call, no matter its size.
+     */
+    public static BulkRequestChunking none() {
+        return NONE;
+    }
+
+    /**
+     * @param maxRequestsPerChunk The most requests to send in one bulk request.
+     * @param maxEstimatedCharsPerChunk The most characters of request bodies to send in one bulk
+     *                                  request. A single request larger than this is still sent,
+     *                                  alone.
+     * @param maxParallelChunks The most chunks of an unordered bulk request to send at once. If 1,
+     *                          chunks are always sent one after the other from the calling thread.
+     *                          Otherwise, chunks beyond the first are sent from a pool of up to
+     *                          {@code maxParallelChunks - 1} daemon threads, shared by all requests
+     *                          using this instance, until it is {@link #close() closed}.
+     */
+    public BulkRequestChunking(int maxRequestsPerChunk, long maxEstimatedCharsPerChunk,
+            int maxParallelChunks) {
+        this(maxRequestsPerChunk, maxEstimatedCharsPerChunk, maxParallelChunks, false);
+    }
+
+    /**
+     * @param isolateFailures Whether to retry failed chunks in halves, in order to only fail the
+     *                        requests which fail on their own. See class documentation.
+     * @see #BulkRequestChunking(int, long, int)
+     */
+    public BulkRequestChunking(int maxRequestsPerChunk, long maxEstimatedCharsPerChunk,
+            int maxParallelChunks, boolean isolateFailures) {
+        if (maxRequestsPerChunk < 1) {
+            throw new IllegalArgumentException("maxRequestsPerChunk must be positive but was " +
+                    maxRequestsPerChunk);
+        }
+
+        if (maxEstimatedCharsPerChunk < 1) {
+            throw new IllegalArgumentException("maxEstimatedCharsPerChunk must be positive but " +
+                    "was " + maxEstimatedCharsPerChunk);
+        }
+
+        if (maxParallelChunks < 1) {
+            throw new IllegalArgumentException("maxParallelChunks must be positive but was " +
+                    maxParallelChunks);
+        }
+
+        this.maxRequestsPerChunk = maxRequestsPerChunk;
+        this.maxEstimatedCharsPerChunk = maxEstimatedCharsPerChunk;
+        this.isolateFailures = isolateFailures;
+
+        if (maxParallelChunks == 1) {
+            chunkExecutor = null;
+        } else {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    maxParallelChunks - 1, maxParallelChunks - 1,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("lightblue-bulk-chunk-%d")
+                            .setDaemon(true)
+                            .build());
+            executor.allowCoreThreadTimeOut(true);
+            chunkExecutor = executor;
+        }
+    }
+
+    private BulkRequestChunking(BulkRequestChunking chunking, boolean isolateFailures) {
+        this.maxRequestsPerChunk = chunking.maxRequestsPerChunk;
+        this.maxEstimatedCharsPerChunk = chunking.maxEstimatedCharsPerChunk;
+        this.isolateFailures = isolateFailures;
+        this.chunkExecutor = chunking.chunkExecutor;
+    }
+
+    /**
+     * The same chunking, sharing the same threads, but which never isolates failures. For
+     * requests which must not be performed more than once, like inserts and updates.
+     *
+     * <p>As threads are shared, closing either chunking closes both.
+     */
+    public BulkRequestChunking withoutIsolatingFailures() {
+        return isolateFailures ? new BulkRequestChunking(this, false) : this;
+    }
+
+    /**
+     * Performs the requests in as many bulk requests as this chunking calls for.
+     *
+     * <p>Like a single bulk request, individual requests may fail without failing the whole: their
+     * responses will contain the errors.
+     *
+     * @return One response per request, in the same order as the requests.
+     * @throws IsolatedRequestFailuresException If isolating failures, and some requests failed on
+     *                                          their own such that they have no usable response.
+     *                                          The others' responses are in the exception.
+     * @throws LightblueException If any chunk failed such that it has no usable responses, in
+     *                            which case there are no usable responses at all.
+     */
+    public List<LightblueDataResponse> bulkData(LightblueClient lightblue,
+            List<? extends CRUDRequest> requests, boolean ordered) throws LightblueException {
+        List<List<CRUDRequest>> chunks = chunk(requests);
+
+        if (chunks.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Map<CRUDRequest, Exception> failures =
+                Collections.synchronizedMap(new IdentityHashMap<>());
+        List<LightblueDataResponse> responses = bulkData(lightblue, chunks, ordered, failures);
+
+        if (!failures.isEmpty()) {
+            throw new IsolatedRequestFailuresException(responses, failures);
+        }
+
+        return responses;
+    }
+
+    private List<LightblueDataResponse> bulkData(LightblueClient lightblue,
+            List<List<CRUDRequest>> chunks, boolean ordered, Map<CRUDRequest, Exception> failures)
+            throws LightblueException {
+        int requestCount = chunks.stream().mapToInt(List::size).sum();
+
+        List<LightblueDataResponse> responses = new ArrayList<>(requestCount);
+
+        if (ordered || chunkExecutor == null || chunkExecutor.isShutdown() || chunks.size() == 1) {
+            for (List<CRUDRequest> chunk : chunks) {
+                responses.addAll(bulkDataForChunk(lightblue, chunk, ordered, failures));
+            }
+
+            return responses;
+        }
+
+        List<Future<List<LightblueDataResponse>>> otherChunks = new ArrayList<>(chunks.size() - 1);
+
+        try {
+            for (List<CRUDRequest> chunk : chunks.subList(1, chunks.size())) {
+                otherChunks.add(chunkExecutor.submit(
+                        () -> bulkDataForChunk(lightblue, chunk, false, failures)));
+            }
+
+            // Make use of the calling thread rather than only wait.
+            responses.addAll(bulkDataForChunk(lightblue, chunks.get(0), false, failures));
+
+            for (Future<List<LightblueDataResponse>> chunkResponses : otherChunks) {
+                responses.addAll(chunkResponses.get());
+            }
+
+            return responses;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LightblueException("Interrupted while waiting for bulk request chunks.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof LightblueException) {
+                throw (LightblueException) cause;
+            }
+
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new LightblueException("Bulk request chunk failed.", cause);
+        } finally {
+            // No-op for those already done. Otherwise we have failed, and don't need the rest.
+            otherChunks.forEach(chunkResponses -> chunkResponses.cancel(true));
+        }
+    }
+
+    /**
+     * Stops the threads used to send chunks concurrently, if any, once chunks already underway
+     * are sent. Afterwards, chunks are always sent one after the other from the calling thread.
+     */
+    @Override
+    public void close() {
+        if (chunkExecutor != null) {
+            chunkExecutor.shutdown();
+        }
+    }
+
+    List<List<CRUDRequest>> chunk(List<? extends CRUDRequest> requests) {
+        List<List<CRUDRequest>> chunks = new ArrayList<>();
+        List<CRUDRequest> chunk = new ArrayList<>();
+        long chunkChars = 0;
+
+        for (CRUDRequest request : requests) {
+            String body = request.getBody();
+            long requestChars = body == null ? 0 : body.length();
+
+            if (!chunk.isEmpty() && (chunk.size() == maxRequestsPerChunk ||
+                    chunkChars + requestChars > maxEstimatedCharsPerChunk)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkChars = 0;
+            }
+
+            chunk.add(request);
+            chunkChars += requestChars;
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Performs a chunk, isolating its failures if configured to.
+     *
+     * @param failures Receives the exceptions of requests which failed on their own. Their
+     *                 responses are {@code null}.
+     * @throws LightblueException if something went wrong such that there is no usable response
+     *                            at all, and either failures are not being isolated, or the
+     *                            failure cannot be blamed on particular requests.
+     */
+    private List<LightblueDataResponse> bulkDataForChunk(LightblueClient lightblue,
+            List<CRUDRequest> chunk, boolean ordered, Map<CRUDRequest, Exception> failures)
+            throws LightblueException {
+        try {
+            return tryBulkData(lightblue, chunk, ordered);
+        } catch (LightblueBulkResponseException e) {
+            if (!isolateFailures || Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+
+            if (chunk.size() == 1) {
+                failures.put(chunk.get(0), e);
+                return Collections.singletonList(null);
+            }
+
+            // Halves are performed in order, so this is fine for ordered requests too.
+            int half = chunk.size() / 2;
+            List<LightblueDataResponse> responses = new ArrayList<>(chunk.size());
+            responses.addAll(bulkDataForChunk(lightblue, chunk.subList(0, half), ordered,
+                    failures));
+            responses.addAll(bulkDataForChunk(lightblue, chunk.subList(half, chunk.size()), ordered,
+                    failures));
+            return responses;
+        }
+    }
+
+    /**
+     * Swallows exceptions related to errors in individual requests on purpose. The returned
+     * responses may be failed.
+     *
+     * @throws LightblueBulkResponseException if lightblue answered with errors, but not with a
+     *                                        response for every request.
+     * @throws LightblueException if something else went wrong, in which case there is no usable
+     *                            response at all.
+     */
+    private static List<LightblueDataResponse> tryBulkData(LightblueClient lightblue,
+            List<CRUDRequest> chunk, boolean ordered) throws LightblueException {
+        DataBulkRequest bulkRequest = new DataBulkRequest(ordered);
+        bulkRequest.addAll(chunk);
+
+        LightblueBulkDataResponse bulkResponse;
+
+        try {
+            bulkResponse = lightblue.bulkData(bulkRequest);
+        } catch (LightblueBulkResponseException e) {
+            bulkResponse = e.getBulkResponse();
+
+            if (bulkResponse == null) {
+                throw e;
+            }
+
+            List<LightblueDataResponse> responses = responsesFor(chunk, bulkResponse);
+
+            if (responses.contains(null)) {
+                throw e;
+            }
+
+            return responses;
+        }
+
+        return responsesFor(chunk, bulkResponse);
+    }
+
+    private static List<LightblueDataResponse> responsesFor(List<CRUDRequest> chunk,
+            LightblueBulkDataResponse bulkResponse) {
+        List<LightblueDataResponse> responses = new ArrayList<>(chunk.size());
+
+        for (CRUDRequest request : chunk) {
+            responses.add(bulkResponse.getResponse(request));
+        }
+
+        return responses;
+    }
+}
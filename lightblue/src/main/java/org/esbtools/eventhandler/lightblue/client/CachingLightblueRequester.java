@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import org.esbtools.eventhandler.TransformableFuture;
+import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester.BulkDataResponses;
+import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester.BulkResponses;
+
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Decorates another requester, answering find requests from a shared {@link FindResponseCache}
+ * where possible and only passing along the requests which missed.
+ *
+ * <p>Requests which are not cacheable, including all writes, go straight to the wrapped
+ * requester. A write to a cached entity evicts that entity's cached responses, both when it is
+ * requested and again once it has been performed.
+ *
+ * <p>Responses for requests which were all cache hits are available immediately; otherwise they
+ * are available whenever the wrapped requester's are. This means wrapping a
+ * {@link BulkLightblueRequester} keeps its batching behavior for the requests that are sent.
+ */
+public class CachingLightblueRequester implements LightblueRequester {
+    private final LightblueRequester requester;
+    private final FindResponseCache cache;
+
+    public CachingLightblueRequester(LightblueRequester requester, FindResponseCache cache) {
+        this.requester = Objects.requireNonNull(requester, "requester");
+        this.cache = Objects.requireNonNull(cache, "cache");
+    }
+
+    @Override
+    public TransformableFuture<LightblueDataResponses> request(CRUDRequest... requests) {
+        Map<CRUDRequest, LightblueDataResponse> responses = new HashMap<>();
+        List<CRUDRequest> misses = lookUpCachedResponses(requests, responses);
+
+        if (misses.isEmpty()) {
+            return TransformableFuture.immediate(new BulkDataResponses(responses));
+        }
+
+        return requester.request(misses).transformSync(missResponses -> {
+            for (CRUDRequest miss : misses) {
+                LightblueDataResponse response = missResponses.forRequest(miss);
+                responses.put(miss, response);
+                remember(miss, response);
+            }
+            return new BulkDataResponses(responses);
+        });
+    }
+
+    @Override
+    public TransformableFuture<LightblueDataResponses> request(
+            Collection<? extends CRUDRequest> requests) {
+        return request(requests.toArray(new CRUDRequest[requests.size()]));
+    }
+
+    @Override
+    public TransformableFuture<LightblueResponses> tryRequest(CRUDRequest... requests) {
+        Map<CRUDRequest, LightblueDataResponse> cachedResponses = new HashMap<>();
+        List<CRUDRequest> misses = lookUpCachedResponses(requests, cachedResponses);
+
+        Map<CRUDRequest, LightblueResponse> responses = new HashMap<>();
+        cachedResponses.forEach((request, response) ->
+                responses.put(request, new SuccessLightblueResponse(response)));
+
+        if (misses.isEmpty()) {
+            return TransformableFuture.immediate(new BulkResponses(responses));
+        }
+
+        return requester.tryRequest(misses).transformSync(missResponses -> {
+            for (CRUDRequest miss : misses) {
+                LightblueResponse response = missResponses.forRequest(miss);
+                responses.put(miss, response);
+
+                if (response.isSuccess()) {
+                    remember(miss, response.getSuccess());
+                }
+            }
+            return new BulkResponses(responses);
+        });
+    }
+
+    /**
+     * Fills {@code cachedResponses} with the requests which can be answered from the cache, and
+     * returns the rest, in their original order.
+     */
+    private List<CRUDRequest> lookUpCachedResponses(CRUDRequest[] requests,
+            Map<CRUDRequest, LightblueDataResponse> cachedResponses) {
+        Objects.requireNonNull(requests, "requests");
+
+        List<CRUDRequest> misses = new ArrayList<>(requests.length);
+
+        for (int i = 0; i < requests.length; i++) {
+            CRUDRequest request = Objects.requireNonNull(requests[i], "requests[" + i + "]");
+
+            if (!cache.isCacheable(request)) {
+                cache.invalidateWrittenEntity(request);
+                misses.add(request);
+                continue;
+            }
+
+            LightblueDataResponse cached = cache.getIfPresent(request);
+
+            if (cached == null) {
+                misses.add(request);
+            } else {
+                cachedResponses.put(request, cached);
+            }
+        }
+
+        return misses;
+    }
+
+    private void remember(CRUDRequest request, LightblueDataResponse response) {
+        if (cache.isCacheable(request)) {
+            cache.put(request, response);
+        } else {
+            cache.invalidateWrittenEntity(request);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.redhat.lightblue.client.Query;
+import com.redhat.lightblue.client.request.data.DataDeleteRequest;
+
+import java.time.Instant;
+import java.util.Date;
+
+public abstract class DeleteRequests {
+    /**
+     * Constructs a delete request which deletes all entities whose {@code dateField} is older
+     * than {@code tooOld}.
+     *
+     * @see org.esbtools.eventhandler.lightblue.PeriodicDeleteOldEntitiesRoute
+     */
+    public static DataDeleteRequest entitiesOlderThan(String entityName, String entityVersion,
+            String dateField, Instant tooOld) {
+        DataDeleteRequest deleteRequest = new DataDeleteRequest(entityName, entityVersion);
+        deleteRequest.where(Query.withValue(dateField, Query.BinOp.lt, Date.from(tooOld)));
+        return deleteRequest;
+    }
+}
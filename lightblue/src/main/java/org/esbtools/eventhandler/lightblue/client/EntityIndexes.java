@@ -0,0 +1,268 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import org.esbtools.eventhandler.lightblue.DocumentEventEntity;
+import org.esbtools.lightbluenotificationhook.NotificationEntity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Index declarations for the entities this module queries, kept beside {@link FindRequests},
+ * {@link UpdateRequests}, and the periodic routes so that changes to the queries and the indexes
+ * which serve them are made together.
+ *
+ * <p>The metadata generator has no way to declare indexes on an entity class, so they are added
+ * to generated metadata json after the fact, either with {@link #addTo(ObjectNode)} or by running
+ * {@link #main(String[])} over the generated metadata files.
+ */
+public abstract class EntityIndexes {
+    /**
+     * Serves finds of unprocessed document events, which match canonical types, optionally
+     * partitions, and a status, and sort by priority then age.
+     *
+     * @see FindRequests#priorityDocumentEventsForTypesUpToByStatus
+     */
+    public static final Index DOCUMENT_EVENT_PRIORITY = new Index(
+            "documentEvent_canonicalType_status_priority_creationDate",
+            Field.asc("canonicalType"), Field.asc("status"), Field.desc("priority"),
+            Field.asc("creationDate"));
+
+    /**
+     * Serves finds and updates of processing document events which have expired. These are few,
+     * so this wins over {@link #DOCUMENT_EVENT_PRIORITY} for expired finds despite their sort.
+     *
+     * @see FindRequests#priorityDocumentEventsForTypesUpToByStatus
+     * @see UpdateRequests#expiredProcessingToUnprocessed
+     */
+    public static final Index DOCUMENT_EVENT_EXPIRED = new Index(
+            "documentEvent_status_processingDate",
+            Field.asc("status"), Field.asc("processingDate"));
+
+    /** @see DeleteRequests#entitiesOlderThan */
+    public static final Index DOCUMENT_EVENT_AGE = new Index(
+            "documentEvent_creationDate",
+            Field.asc("creationDate"));
+
+    /**
+     * Serves finds of unprocessed notifications, which match entity names and a status and sort
+     * by age.
+     *
+     * @see FindRequests#oldestNotificationsForEntitiesUpToByStatus
+     */
+    public static final Index NOTIFICATION_OLDEST = new Index(
+            "notification_entityName_status_clientRequestDate",
+            Field.asc("entityName"), Field.asc("status"), Field.asc("clientRequestDate"));
+
+    /**
+     * Serves finds and updates of processing notifications which have expired.
+     *
+     * @see FindRequests#oldestNotificationsForEntitiesUpToByStatus
+     * @see UpdateRequests#expiredProcessingToUnprocessed
+     */
+    public static final Index NOTIFICATION_EXPIRED = new Index(
+            "notification_status_processingDate",
+            Field.asc("status"), Field.asc("processingDate"));
+
+    /** @see DeleteRequests#entitiesOlderThan */
+    public static final Index NOTIFICATION_AGE = new Index(
+            "notification_clientRequestDate",
+            Field.asc("clientRequestDate"));
+
+    private static final JsonNodeFactory jsonNodeFactory = JsonNodeFactory.instance;
+
+    private static final Logger log = LoggerFactory.getLogger(EntityIndexes.class);
+
+    /**
+     * @return The indexes declared for the entity of the given name, or an empty list if there
+     * are none.
+     */
+    public static List<Index> forEntity(String entityName) {
+        switch (entityName) {
+            case DocumentEventEntity.ENTITY_NAME:
+                return Arrays.asList(
+                        DOCUMENT_EVENT_PRIORITY, DOCUMENT_EVENT_EXPIRED, DOCUMENT_EVENT_AGE);
+            case NotificationEntity.ENTITY_NAME:
+                return Arrays.asList(
+                        NOTIFICATION_OLDEST, NOTIFICATION_EXPIRED, NOTIFICATION_AGE);
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Replaces the indexes in the given entity metadata json with those declared for its entity,
+     * if any are declared. The {@code _id} index is kept, since lightblue expects one.
+     *
+     * @return Whether any indexes were declared for the entity, and so whether the metadata was
+     * changed.
+     */
+    public static boolean addTo(ObjectNode entityMetadata) {
+        JsonNode entityInfo = entityMetadata.get("entityInfo");
+
+        if (!(entityInfo instanceof ObjectNode) || !entityInfo.has("name")) {
+            throw new IllegalArgumentException("Not entity metadata, missing entityInfo.name: " +
+                    entityMetadata);
+        }
+
+        List<Index> indexes = forEntity(entityInfo.get("name").asText());
+
+        if (indexes.isEmpty()) {
+            return false;
+        }
+
+        ArrayNode indexesJson = jsonNodeFactory.arrayNode();
+
+        for (JsonNode existing : entityInfo.path("indexes")) {
+            if (isIdIndex(existing)) {
+                indexesJson.add(existing);
+            }
+        }
+
+        for (Index index : indexes) {
+            indexesJson.add(index.toJson());
+        }
+
+        ((ObjectNode) entityInfo).set("indexes", indexesJson);
+        return true;
+    }
+
+    /**
+     * Adds declared indexes to entity metadata json files, in place.
+     *
+     * @param args Metadata json files, or directories of them. Files for entities without
+     *             declared indexes are left alone.
+     */
+    public static void main(String[] args) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+
+        for (String arg : args) {
+            File file = new File(arg);
+            File[] files = file.isDirectory()
+                    ? file.listFiles((dir, name) -> name.endsWith(".json"))
+                    : new File[]{file};
+
+            if (files == null) {
+                throw new IOException("Could not list metadata files in: " + file);
+            }
+
+            for (File metadataFile : files) {
+                JsonNode metadata = mapper.readTree(metadataFile);
+
+                if (metadata instanceof ObjectNode && metadata.has("entityInfo") &&
+                        addTo((ObjectNode) metadata)) {
+                    mapper.writerWithDefaultPrettyPrinter().writeValue(metadataFile, metadata);
+                    log.info("Added indexes to {}", metadataFile);
+                }
+            }
+        }
+    }
+
+    private static boolean isIdIndex(JsonNode index) {
+        JsonNode fields = index.path("fields");
+        return fields.size() == 1 && "_id".equals(fields.get(0).path("field").asText());
+    }
+
+    public static final class Index {
+        private final String name;
+        private final List<Field> fields;
+
+        Index(String name, Field... fields) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.fields = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(fields)));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Field> getFields() {
+            return fields;
+        }
+
+        ObjectNode toJson() {
+            ObjectNode index = jsonNodeFactory.objectNode();
+            index.put("name", name);
+            index.put("unique", false);
+
+            ArrayNode fieldsJson = index.putArray("fields");
+
+            for (Field field : fields) {
+                fieldsJson.addObject()
+                        .put("field", field.getName())
+                        .put("dir", field.isDescending() ? "$desc" : "$asc");
+            }
+
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return "Index{" +
+                    "name='" + name + '\'' +
+                    ", fields=" + fields +
+                    '}';
+        }
+    }
+
+    public static final class Field {
+        private final String name;
+        private final boolean descending;
+
+        static Field asc(String name) {
+            return new Field(name, false);
+        }
+
+        static Field desc(String name) {
+            return new Field(name, true);
+        }
+
+        private Field(String name, boolean descending) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.descending = descending;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+
+        @Override
+        public String toString() {
+            return (descending ? "-" : "+") + name;
+        }
+    }
+}
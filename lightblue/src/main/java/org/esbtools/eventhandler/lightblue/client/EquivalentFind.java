@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.redhat.lightblue.client.request.CRUDRequest;
+
+import java.util.Objects;
+
+/**
+ * Identifies find requests which would return the same response: the same kind of request,
+ * for the same entity and version, with the same body (query, projection, sort, and range).
+ */
+final class EquivalentFind {
+    private final Class<?> type;
+    private final String entityName;
+    private final String entityVersion;
+    private final String body;
+
+    EquivalentFind(CRUDRequest request) {
+        this.type = request.getClass();
+        this.entityName = request.getEntityName();
+        this.entityVersion = request.getEntityVersion();
+        this.body = request.getBody();
+    }
+
+    String entityName() {
+        return entityName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        EquivalentFind that = (EquivalentFind) o;
+        return Objects.equals(type, that.type) &&
+                Objects.equals(entityName, that.entityName) &&
+                Objects.equals(entityVersion, that.entityVersion) &&
+                Objects.equals(body, that.body);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, entityName, entityVersion, body);
+    }
+
+    @Override
+    public String toString() {
+        return "EquivalentFind{" +
+                "type=" + type.getSimpleName() +
+                ", entityName='" + entityName + '\'' +
+                ", entityVersion='" + entityVersion + '\'' +
+                ", body='" + body + '\'' +
+                '}';
+    }
+}
@@ -19,6 +19,7 @@
 package org.esbtools.eventhandler.lightblue.client;
 
 import org.esbtools.eventhandler.lightblue.DocumentEventEntity;
+import org.esbtools.eventhandler.lightblue.DocumentEventPartitioning;
 import org.esbtools.eventhandler.lightblue.config.EventHandlerConfigEntity;
 import org.esbtools.lightbluenotificationhook.NotificationEntity;
 
@@ -26,10 +27,15 @@ import com.redhat.lightblue.client.Literal;
 import com.redhat.lightblue.client.Projection;
 import com.redhat.lightblue.client.Query;
 import com.redhat.lightblue.client.Sort;
+import com.redhat.lightblue.client.request.DataBulkRequest;
 import com.redhat.lightblue.client.request.data.DataFindRequest;
 
+import javax.annotation.Nullable;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 public abstract class FindRequests {
     /**
@@ -42,6 +48,43 @@ public abstract class FindRequests {
      */
     public static DataFindRequest oldestNotificationsForEntitiesUpTo(String[] entityNames,
             int maxNotifications, Instant expiredProcessingDate) {
+        return oldestNotificationsForEntitiesWhere(entityNames,
+                Query.or(unprocessed(), expired(expiredProcessingDate)), maxNotifications);
+    }
+
+    /**
+     * Like {@link #oldestNotificationsForEntitiesUpTo(String[], int, Instant)}, but instead of one
+     * find with a disjunction of unprocessed or expired notifications, which plans poorly against
+     * the sort on large collections, makes one find for each in a single bulk request. Each is
+     * sorted and limited on its own, so their results must be merged to find the oldest
+     * {@code maxNotifications} of both.
+     *
+     * <p>The first request finds unprocessed notifications, and the second expired
+     * notifications.
+     */
+    public static DataBulkRequest oldestNotificationsForEntitiesUpToByStatus(String[] entityNames,
+            int maxNotifications, Instant expiredProcessingDate) {
+        DataBulkRequest findByStatus = new DataBulkRequest(false);
+        findByStatus.add(oldestNotificationsForEntitiesWhere(entityNames,
+                unprocessed(), maxNotifications));
+        findByStatus.add(oldestNotificationsForEntitiesWhere(entityNames,
+                expired(expiredProcessingDate), maxNotifications));
+        return findByStatus;
+    }
+
+    /**
+     * Like {@link #oldestNotificationsForEntitiesUpTo(String[], int, Instant)}, but only retrieves
+     * unprocessed notifications. For use when expired notifications are reclaimed separately.
+     *
+     * @see org.esbtools.eventhandler.lightblue.PeriodicReclaimExpiredEntitiesRoute
+     */
+    public static DataFindRequest oldestUnprocessedNotificationsForEntitiesUpTo(
+            String[] entityNames, int maxNotifications) {
+        return oldestNotificationsForEntitiesWhere(entityNames, unprocessed(), maxNotifications);
+    }
+
+    private static DataFindRequest oldestNotificationsForEntitiesWhere(String[] entityNames,
+            Query status, int maxNotifications) {
         DataFindRequest findEntities = new DataFindRequest(
                 NotificationEntity.ENTITY_NAME,
                 NotificationEntity.ENTITY_VERSION);
@@ -49,12 +92,7 @@ public abstract class FindRequests {
         findEntities.where(Query.and(
                 Query.withValue("clientRequestDate", Query.neq, Literal.value(null)),
                 Query.withValues("entityName", Query.NaryOp.in, Literal.values(entityNames)),
-                Query.or(
-                        Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.unprocessed),
-                        Query.and(
-                                Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.processing),
-                                Query.withValue("processingDate", Query.BinOp.lte, Date.from(expiredProcessingDate)))
-                )));
+                status));
         findEntities.select(Projection.includeFieldRecursively("*"));
         findEntities.sort(Sort.asc("clientRequestDate"));
         findEntities.range(0, maxNotifications - 1);
@@ -72,24 +110,263 @@ public abstract class FindRequests {
      */
     public static DataFindRequest priorityDocumentEventsForTypesUpTo(String[] types,
         int maxEvents, Instant expiredProcessingDate) {
+        return priorityDocumentEventsForTypesUpTo(types, DocumentEventPartitioning.none(),
+                maxEvents, expiredProcessingDate);
+    }
+
+    /**
+     * Like {@link #priorityDocumentEventsForTypesUpTo(String[], int, Instant)}, but only
+     * retrieves events in partitions owned according to the provided {@code partitioning}.
+     */
+    public static DataFindRequest priorityDocumentEventsForTypesUpTo(String[] types,
+        DocumentEventPartitioning partitioning, int maxEvents, Instant expiredProcessingDate) {
+        return priorityDocumentEventsForTypesUpTo(types, partitioning, 0, maxEvents,
+                expiredProcessingDate);
+    }
+
+    /**
+     * Like {@link #priorityDocumentEventsForTypesUpTo(String[], DocumentEventPartitioning, int,
+     * Instant)}, but skips the first {@code skipEvents} events in priority order, so that
+     * concurrent pollers may each read a different window of events.
+     *
+     * @see org.esbtools.eventhandler.lightblue.PriorityWindowing
+     */
+    public static DataFindRequest priorityDocumentEventsForTypesUpTo(String[] types,
+        DocumentEventPartitioning partitioning, int skipEvents, int maxEvents,
+        Instant expiredProcessingDate) {
+        DataFindRequest findEntities = priorityDocumentEventsForTypesWhere(types,
+                ownedOrUnpartitioned(partitioning),
+                Query.or(unprocessed(), expired(expiredProcessingDate)), skipEvents, maxEvents);
+        findEntities.select(Projection.includeFieldRecursively("*"));
+        return findEntities;
+    }
+
+    /**
+     * Like {@link #priorityDocumentEventsForTypesUpTo(String[], DocumentEventPartitioning, int,
+     * Instant)}, but instead of one find with a disjunction of unprocessed or expired events, which
+     * plans poorly against the sort on large collections, makes one find for each in a single bulk
+     * request. Each is sorted and limited on its own, so their results must be merged to find the
+     * highest priority {@code maxEvents} of both.
+     *
+     * <p>The first request finds unprocessed events, and the second expired events. If
+     * partitioned, these only find events in owned partitions. If the owned partitions include
+     * events without a partition, two more requests follow which find unprocessed and then expired
+     * events without a partition, rather than adding a disjunction to the first two.
+     */
+    public static DataBulkRequest priorityDocumentEventsForTypesUpToByStatus(String[] types,
+        DocumentEventPartitioning partitioning, int maxEvents, Instant expiredProcessingDate) {
+        return priorityDocumentEventsForTypesUpToByStatus(types, partitioning, 0, maxEvents,
+                expiredProcessingDate);
+    }
+
+    /**
+     * Like {@link #priorityDocumentEventsForTypesUpToByStatus(String[], DocumentEventPartitioning,
+     * int, Instant)}, but skips the first {@code skipEvents} unprocessed events.
+     *
+     * <p>Expired events are always found from the first, as there are normally few of them, and
+     * skipping them consistently would require reading every window before the one we want from
+     * both finds. So a window of merged results is approximate: it includes the highest priority
+     * expired events rather than those which would have fallen within the window. The same goes
+     * for events without a partition, which only remain from before partitioning was enabled.
+     */
+    public static DataBulkRequest priorityDocumentEventsForTypesUpToByStatus(String[] types,
+        DocumentEventPartitioning partitioning, int skipEvents, int maxEvents,
+        Instant expiredProcessingDate) {
+        return priorityDocumentEventsForTypesByStatus(types, partitioning, skipEvents, maxEvents,
+                expiredProcessingDate, Projection.includeFieldRecursively("*"));
+    }
+
+    /**
+     * Like {@link #priorityDocumentEventsForTypesUpToByStatus(String[], DocumentEventPartitioning,
+     * int, int, Instant)}, but only retrieves unprocessed events. For use when expired events are
+     * reclaimed separately.
+     *
+     * <p>This is one find, unless the owned partitions include events without a partition, in
+     * which case a second find retrieves those. Either way, results must be merged.
+     *
+     * @param claimsOnly Whether to only retrieve the fields needed to lock events, as in
+     * {@link #priorityDocumentEventClaimsForTypesUpToByStatus(String[], DocumentEventPartitioning,
+     * int, Instant)}.
+     * @see org.esbtools.eventhandler.lightblue.PeriodicReclaimExpiredEntitiesRoute
+     */
+    public static DataBulkRequest unprocessedPriorityDocumentEventsForTypesUpTo(String[] types,
+        DocumentEventPartitioning partitioning, int skipEvents, int maxEvents,
+        boolean claimsOnly) {
+        Projection[] projection = claimsOnly
+                ? documentEventClaimFields()
+                : new Projection[]{Projection.includeFieldRecursively("*")};
+
+        DataFindRequest findInOwnedPartitions = priorityDocumentEventsForTypesWhere(types,
+                inOwnedPartitions(partitioning), unprocessed(), skipEvents, maxEvents);
+        findInOwnedPartitions.select(projection);
+
+        DataBulkRequest findUnprocessed = new DataBulkRequest(false);
+        findUnprocessed.add(findInOwnedPartitions);
+
+        if (partitioning.isPartitioned() && partitioning.ownsUnpartitioned()) {
+            DataFindRequest findUnpartitioned = priorityDocumentEventsForTypesWhere(types,
+                    unpartitioned(), unprocessed(), 0, maxEvents);
+            findUnpartitioned.select(projection);
+            findUnprocessed.add(findUnpartitioned);
+        }
+
+        return findUnprocessed;
+    }
+
+    /**
+     * Like {@link #priorityDocumentEventsForTypesUpToByStatus(String[], DocumentEventPartitioning,
+     * int, Instant)}, but only retrieves the fields needed to parse events and determine their
+     * identities, in order to lock them. Fields which are only needed to process or optimize an
+     * event, such as its survivors, are left out.
+     *
+     * <p>Locked events are then retrieved in full with
+     * {@link #unprocessedOrExpiredDocumentEventsByIds(Collection, Instant)}.
+     */
+    public static DataBulkRequest priorityDocumentEventClaimsForTypesUpToByStatus(String[] types,
+        DocumentEventPartitioning partitioning, int maxEvents, Instant expiredProcessingDate) {
+        return priorityDocumentEventClaimsForTypesUpToByStatus(types, partitioning, 0, maxEvents,
+                expiredProcessingDate);
+    }
+
+    /**
+     * Like {@link #priorityDocumentEventClaimsForTypesUpToByStatus(String[],
+     * DocumentEventPartitioning, int, Instant)}, but skips the first {@code skipEvents}
+     * unprocessed events, as in {@link #priorityDocumentEventsForTypesUpToByStatus(String[],
+     * DocumentEventPartitioning, int, int, Instant)}.
+     */
+    public static DataBulkRequest priorityDocumentEventClaimsForTypesUpToByStatus(String[] types,
+        DocumentEventPartitioning partitioning, int skipEvents, int maxEvents,
+        Instant expiredProcessingDate) {
+        return priorityDocumentEventsForTypesByStatus(types, partitioning, skipEvents, maxEvents,
+                expiredProcessingDate, documentEventClaimFields());
+    }
+
+    /**
+     * Constructs a find request which retrieves, in full, those of the document events with the
+     * given ids which are still either {@link DocumentEventEntity.Status#unprocessed} or expired,
+     * as in {@link #priorityDocumentEventsForTypesUpTo(String[], int, Instant)}.
+     */
+    public static DataFindRequest unprocessedOrExpiredDocumentEventsByIds(Collection<String> ids,
+        Instant expiredProcessingDate) {
         DataFindRequest findEntities = new DataFindRequest(DocumentEventEntity.ENTITY_NAME,
                 DocumentEventEntity.VERSION);
 
         findEntities.where(Query.and(
-                Query.withValues("canonicalType", Query.NaryOp.in, Literal.values(types)),
-                Query.or(
-                        Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.unprocessed),
-                        Query.and(
-                                Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.processing),
-                                Query.withValue("processingDate", Query.BinOp.lte, Date.from(expiredProcessingDate)))
-                )));
+                Query.withValues("_id", Query.NaryOp.in,
+                        Literal.values(ids.toArray(new String[ids.size()]))),
+                Query.or(unprocessed(), expired(expiredProcessingDate))));
         findEntities.select(Projection.includeFieldRecursively("*"));
+
+        return findEntities;
+    }
+
+    private static DataBulkRequest priorityDocumentEventsForTypesByStatus(String[] types,
+        DocumentEventPartitioning partitioning, int skipEvents, int maxEvents,
+        Instant expiredProcessingDate, Projection... projection) {
+        DataBulkRequest findByStatus = new DataBulkRequest(false);
+        addPriorityDocumentEventsForTypesByStatus(findByStatus, types,
+                inOwnedPartitions(partitioning), skipEvents, maxEvents, expiredProcessingDate,
+                projection);
+
+        if (partitioning.isPartitioned() && partitioning.ownsUnpartitioned()) {
+            addPriorityDocumentEventsForTypesByStatus(findByStatus, types, unpartitioned(), 0,
+                    maxEvents, expiredProcessingDate, projection);
+        }
+
+        return findByStatus;
+    }
+
+    private static void addPriorityDocumentEventsForTypesByStatus(DataBulkRequest findByStatus,
+        String[] types, @Nullable Query partition, int skipEvents, int maxEvents,
+        Instant expiredProcessingDate, Projection... projection) {
+        DataFindRequest findUnprocessed = priorityDocumentEventsForTypesWhere(types, partition,
+                unprocessed(), skipEvents, maxEvents);
+        findUnprocessed.select(projection);
+
+        DataFindRequest findExpired = priorityDocumentEventsForTypesWhere(types, partition,
+                expired(expiredProcessingDate), 0, maxEvents);
+        findExpired.select(projection);
+
+        findByStatus.add(findUnprocessed);
+        findByStatus.add(findExpired);
+    }
+
+    /**
+     * @param partition Which partitions to find events in, or {@code null} for any.
+     */
+    private static DataFindRequest priorityDocumentEventsForTypesWhere(String[] types,
+        @Nullable Query partition, Query status, int skipEvents, int maxEvents) {
+        DataFindRequest findEntities = new DataFindRequest(DocumentEventEntity.ENTITY_NAME,
+                DocumentEventEntity.VERSION);
+
+        List<Query> conditions = new ArrayList<>(3);
+        conditions.add(Query.withValues("canonicalType", Query.NaryOp.in, Literal.values(types)));
+
+        if (partition != null) {
+            conditions.add(partition);
+        }
+
+        conditions.add(status);
+
+        findEntities.where(Query.and(conditions));
         findEntities.sort(Sort.desc("priority"), Sort.asc("creationDate"));
-        findEntities.range(0, maxEvents - 1);
+        findEntities.range(skipEvents, skipEvents + maxEvents - 1);
 
         return findEntities;
     }
 
+    /**
+     * @return A condition on events' partitions matching owned partitions, or {@code null} if not
+     * partitioned. Events without a partition do not match, even if owned.
+     */
+    @Nullable
+    private static Query inOwnedPartitions(DocumentEventPartitioning partitioning) {
+        return partitioning.isPartitioned()
+                ? Query.withValues("partition", Query.NaryOp.in,
+                        Literal.values((Object[]) partitioning.getOwnedPartitionsArray()))
+                : null;
+    }
+
+    /**
+     * Like {@link #inOwnedPartitions(DocumentEventPartitioning)}, but also matches events without a
+     * partition if owned. For single finds which already use a disjunction.
+     */
+    @Nullable
+    private static Query ownedOrUnpartitioned(DocumentEventPartitioning partitioning) {
+        Query inOwnedPartitions = inOwnedPartitions(partitioning);
+
+        return inOwnedPartitions != null && partitioning.ownsUnpartitioned()
+                ? Query.or(inOwnedPartitions, unpartitioned())
+                : inOwnedPartitions;
+    }
+
+    private static Query unpartitioned() {
+        return Query.withValue("partition", Query.BinOp.eq, Literal.value(null));
+    }
+
+    private static Projection[] documentEventClaimFields() {
+        return new Projection[]{
+                Projection.includeField("_id"),
+                Projection.includeField("canonicalType"),
+                Projection.includeFieldRecursively("parameters"),
+                Projection.includeField("status"),
+                Projection.includeField("priority"),
+                Projection.includeField("creationDate"),
+                Projection.includeField("processingDate"),
+                Projection.includeField("partition")};
+    }
+
+    /** Document events and notifications share status names. */
+    private static Query unprocessed() {
+        return Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.unprocessed);
+    }
+
+    private static Query expired(Instant expiredProcessingDate) {
+        return Query.and(
+                Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.processing),
+                Query.withValue("processingDate", Query.BinOp.lte, Date.from(expiredProcessingDate)));
+    }
+
     public static DataFindRequest eventHandlerConfigForDomain(String configDomain) {
         DataFindRequest findConfig = new DataFindRequest(
                 EventHandlerConfigEntity.ENTITY_NAME,
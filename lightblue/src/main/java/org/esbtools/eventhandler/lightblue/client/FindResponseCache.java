@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import javax.annotation.Nullable;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers successful responses to find requests for a configured set of entities, so that
+ * repeated lookups of slow-changing reference data need not go to lightblue every batch.
+ *
+ * <p>Caching is opt-in per entity name: finds for any other entity, and all writes, are never
+ * cached. Entries are evicted after a fixed time to live from when they were cached, and when the
+ * cache holds more than its maximum number of responses, least recently used first. This means
+ * a cached response may be stale by up to the time to live, so only opt in entities where that is
+ * acceptable.
+ *
+ * <p>A cache is meant to be long lived and shared among many short lived
+ * {@link CachingLightblueRequester}s, typically one per batch. It is thread safe.
+ */
+public class FindResponseCache {
+    private final Set<String> cachedEntityNames;
+    private final Cache<EquivalentFind, LightblueDataResponse> responses;
+
+    /**
+     * @param cachedEntityNames Names of the entities whose find responses may be cached.
+     * @param maximumSize The maximum number of responses to keep at once.
+     * @param timeToLive How long a response may be reused after it was received.
+     */
+    public FindResponseCache(Collection<String> cachedEntityNames, long maximumSize,
+            Duration timeToLive) {
+        this(cachedEntityNames, maximumSize, timeToLive, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock Used to determine when responses have expired.
+     * @see #FindResponseCache(Collection, long, Duration)
+     */
+    public FindResponseCache(Collection<String> cachedEntityNames, long maximumSize,
+            Duration timeToLive, Clock clock) {
+        this.cachedEntityNames = Collections.unmodifiableSet(new HashSet<>(cachedEntityNames));
+        this.responses = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive.toNanos(), TimeUnit.NANOSECONDS)
+                .ticker(new Ticker() {
+                    @Override
+                    public long read() {
+                        return TimeUnit.MILLISECONDS.toNanos(clock.millis());
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public Set<String> getCachedEntityNames() {
+        return cachedEntityNames;
+    }
+
+    /**
+     * @return The number of times a cacheable find was answered from this cache.
+     */
+    public long getHitCount() {
+        return responses.stats().hitCount();
+    }
+
+    /**
+     * @return The number of times a cacheable find had to be sent to lightblue because no
+     * unexpired response was cached for it.
+     */
+    public long getMissCount() {
+        return responses.stats().missCount();
+    }
+
+    /**
+     * @return The approximate number of responses currently cached.
+     */
+    public long size() {
+        return responses.size();
+    }
+
+    public void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    boolean isCacheable(CRUDRequest request) {
+        return request instanceof DataFindRequest &&
+                cachedEntityNames.contains(request.getEntityName());
+    }
+
+    /**
+     * Counts as a hit or a miss. Only call this for {@link #isCacheable(CRUDRequest) cacheable}
+     * requests.
+     */
+    @Nullable
+    LightblueDataResponse getIfPresent(CRUDRequest find) {
+        return responses.getIfPresent(new EquivalentFind(find));
+    }
+
+    void put(CRUDRequest find, LightblueDataResponse response) {
+        responses.put(new EquivalentFind(find), response);
+    }
+
+    /**
+     * Drops all responses for the written entity, if it is one we cache, so that a writer does not
+     * read its own write stale. Writes from elsewhere are only picked up after expiry.
+     */
+    void invalidateWrittenEntity(CRUDRequest write) {
+        String entityName = write.getEntityName();
+
+        if (!cachedEntityNames.contains(entityName)) {
+            return;
+        }
+
+        responses.asMap().keySet().removeIf(find -> entityName.equals(find.entityName()));
+    }
+}
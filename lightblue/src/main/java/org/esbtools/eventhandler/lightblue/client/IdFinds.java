@@ -0,0 +1,272 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.redhat.lightblue.client.Literal;
+import com.redhat.lightblue.client.Projection;
+import com.redhat.lightblue.client.Query;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Finds of single documents by id, for the same entity and version, which are sent as one find
+ * of all of their ids. The merged response is split back out by id, so each find still gets a
+ * response with only its own document.
+ *
+ * <p>Only finds exactly like {@link #findById(String, String, String)} are merged: the id is
+ * needed in each processed document to split them back out, and other finds may have sorts,
+ * ranges, or projections the merged find could not keep.
+ */
+final class IdFinds {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String entityName;
+    private final String entityVersion;
+    private final List<CRUDRequest> finds = new ArrayList<>();
+    private final List<String> ids = new ArrayList<>();
+
+    /** Lazily created, once all finds have been added. */
+    private CRUDRequest request;
+
+    IdFinds(String entityName, String entityVersion) {
+        this.entityName = Objects.requireNonNull(entityName, "entityName");
+        this.entityVersion = Objects.requireNonNull(entityVersion, "entityVersion");
+    }
+
+    static DataFindRequest findById(String entityName, String entityVersion, String id) {
+        DataFindRequest findById = new DataFindRequest(entityName, entityVersion);
+        findById.where(Query.withValue("_id", Query.BinOp.eq, id));
+        findById.select(Projection.includeFieldRecursively("*"));
+        return findById;
+    }
+
+    /**
+     * @return The id the request finds, if it is a find which can be merged with others.
+     */
+    static Optional<String> idFoundBy(CRUDRequest request) {
+        if (request.getClass() != DataFindRequest.class || request.getEntityName() == null ||
+                request.getEntityVersion() == null || request.getBody() == null) {
+            return Optional.empty();
+        }
+
+        try {
+            JsonNode body = mapper.readTree(request.getBody());
+            JsonNode id = body.path("query").path("rvalue");
+
+            if (!id.isTextual()) {
+                return Optional.empty();
+            }
+
+            // Compare with how the client itself writes such a find, rather than assume its JSON.
+            String expected = findById(request.getEntityName(), request.getEntityVersion(),
+                    id.asText()).getBody();
+
+            return body.equals(mapper.readTree(expected))
+                    ? Optional.of(id.asText())
+                    : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Identifies which finds may be merged together: those for the same entity and version.
+     */
+    static List<String> keyOf(CRUDRequest find) {
+        List<String> key = new ArrayList<>(2);
+        key.add(find.getEntityName());
+        key.add(find.getEntityVersion());
+        return key;
+    }
+
+    void add(CRUDRequest find, String id) {
+        if (request != null) {
+            throw new IllegalStateException("Finds already merged into: " + request);
+        }
+
+        finds.add(find);
+        ids.add(id);
+    }
+
+    List<CRUDRequest> finds() {
+        return finds;
+    }
+
+    /**
+     * @return The find to send in place of all of the added finds: the only one, if there is only
+     * one, or otherwise a find of all of their ids.
+     */
+    CRUDRequest request() {
+        if (request == null) {
+            request = finds.size() == 1 ? finds.get(0) : findByIds();
+        }
+
+        return request;
+    }
+
+    /**
+     * Replaces the response to the merged find, which every added find maps to in
+     * {@code responsesByFind}, with a response per find of only its own document. Failed
+     * responses are left as they are, as they failed for every find alike.
+     */
+    void splitResponses(Map<CRUDRequest, LightblueDataResponse> responsesByFind) {
+        if (finds.size() == 1) {
+            return;
+        }
+
+        for (int i = 0; i < finds.size(); i++) {
+            LightblueDataResponse merged = responsesByFind.get(finds.get(i));
+
+            if (merged == null || !LightblueResponse.fromClientResponse(merged).isSuccess()) {
+                continue;
+            }
+
+            responsesByFind.put(finds.get(i), responseFor(ids.get(i), merged));
+        }
+    }
+
+    private DataFindRequest findByIds() {
+        LinkedHashSet<String> distinctIds = new LinkedHashSet<>(ids);
+
+        DataFindRequest findByIds = new DataFindRequest(entityName, entityVersion);
+        findByIds.where(Query.withValues("_id", Query.NaryOp.in,
+                Literal.values(distinctIds.toArray(new String[distinctIds.size()]))));
+        findByIds.select(Projection.includeFieldRecursively("*"));
+        return findByIds;
+    }
+
+    /**
+     * The client's response types are interfaces we don't control the methods of, so the split
+     * response is a proxy which answers what concerns processed documents itself, and delegates
+     * the rest to the merged response.
+     */
+    private static LightblueDataResponse responseFor(String id, LightblueDataResponse merged) {
+        JsonNode processed = merged.getJson().path("processed");
+        List<Integer> indexes = new ArrayList<>(1);
+
+        for (int i = 0; i < processed.size(); i++) {
+            if (id.equals(processed.get(i).path("_id").asText())) {
+                indexes.add(i);
+            }
+        }
+
+        return (LightblueDataResponse) Proxy.newProxyInstance(
+                LightblueDataResponse.class.getClassLoader(),
+                new Class<?>[] {LightblueDataResponse.class},
+                new SplitResponse(merged, indexes));
+    }
+
+    private static final class SplitResponse implements InvocationHandler {
+        private final LightblueDataResponse merged;
+        private final List<Integer> indexes;
+
+        SplitResponse(LightblueDataResponse merged, List<Integer> indexes) {
+            this.merged = merged;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            int arguments = args == null ? 0 : args.length;
+
+            switch (method.getName() + "/" + arguments) {
+                case "parseProcessed/1":
+                    return parseProcessed((Class<?>) args[0]);
+                case "parseMatchCount/0":
+                    return indexes.size();
+                case "getJson/0":
+                    return json();
+                case "getText/0":
+                    return json().toString();
+                case "getProcessed/0":
+                    if (method.getReturnType().isAssignableFrom(JsonNode.class)) {
+                        return json().path("processed");
+                    }
+                    break;
+                case "equals/1":
+                    return proxy == args[0];
+                case "hashCode/0":
+                    return System.identityHashCode(proxy);
+                case "toString/0":
+                    return "SplitResponse{indexes=" + indexes + ", merged=" + merged + '}';
+            }
+
+            try {
+                return method.invoke(merged, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object parseProcessed(Class<?> type) throws Exception {
+            Class<?> arrayType = type.isArray() ? type : Array.newInstance(type, 0).getClass();
+            Object split = Array.newInstance(arrayType.getComponentType(), indexes.size());
+
+            if (!indexes.isEmpty()) {
+                Object all = merged.parseProcessed(arrayType);
+
+                for (int i = 0; i < indexes.size(); i++) {
+                    Array.set(split, i, Array.get(all, indexes.get(i)));
+                }
+            }
+
+            if (type.isArray()) {
+                return split;
+            }
+
+            return indexes.isEmpty() ? null : Array.get(split, 0);
+        }
+
+        private JsonNode json() {
+            JsonNode json = merged.getJson();
+
+            if (!json.isObject()) {
+                return json;
+            }
+
+            ObjectNode splitJson = ((ObjectNode) json).deepCopy();
+            ArrayNode processed = splitJson.putArray("processed");
+
+            for (int index : indexes) {
+                processed.add(json.path("processed").get(index));
+            }
+
+            splitJson.put("matchCount", indexes.size());
+            return splitJson;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.client;
+
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thrown when some requests of a bulk request failed outright, but they were isolated from the
+ * others, so the others still have usable responses. Like
+ * {@link com.redhat.lightblue.client.response.LightblueBulkResponseException}, this may be caught
+ * in order to examine the responses which were received.
+ *
+ * @see BulkRequestChunking
+ */
+public class IsolatedRequestFailuresException extends LightblueException {
+    private final List<LightblueDataResponse> responses;
+    private final Map<CRUDRequest, Exception> failures;
+
+    /**
+     * @param responses One response per request, in request order, {@code null} for those which
+     *                  failed.
+     * @param failures The exception which prevented a response, by failed request.
+     */
+    public IsolatedRequestFailuresException(List<LightblueDataResponse> responses,
+            Map<CRUDRequest, Exception> failures) {
+        super(failures.size() + " of " + responses.size() + " requests failed without a " +
+                "response. Failures were: " + failures.values());
+
+        this.responses = Collections.unmodifiableList(responses);
+        this.failures = Collections.unmodifiableMap(new IdentityHashMap<>(failures));
+    }
+
+    /**
+     * @return One response per request, in request order, {@code null} for those which failed.
+     */
+    public List<LightblueDataResponse> getResponses() {
+        return responses;
+    }
+
+    /**
+     * @return The exception which prevented a response, by failed request. Requests are compared
+     * by identity.
+     */
+    public Map<CRUDRequest, Exception> getFailures() {
+        return failures;
+    }
+}
@@ -22,6 +22,7 @@ import org.esbtools.eventhandler.lightblue.DocumentEventEntity;
 import org.esbtools.lightbluenotificationhook.NotificationEntity;
 
 import com.redhat.lightblue.client.Literal;
+import com.redhat.lightblue.client.Projection;
 import com.redhat.lightblue.client.Query;
 import com.redhat.lightblue.client.Query.BinOp;
 import com.redhat.lightblue.client.Update;
@@ -30,6 +31,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -74,6 +76,31 @@ public abstract class UpdateRequests {
         return requests;
     }
 
+    /**
+     * Constructs an update which resets all entities of the given entity name and version which
+     * have been processing since at or before {@code expiredProcessingDate} back to unprocessed, so
+     * they may be retrieved again.
+     *
+     * <p>The processing date is left as is. Status updates are conditional on it, so an update
+     * from the original processor still only succeeds if no one has retrieved the entity since.
+     *
+     * <p>Document events and notifications share the status names and date fields this relies
+     * on.
+     */
+    public static DataUpdateRequest expiredProcessingToUnprocessed(String entityName,
+            String entityVersion, Instant expiredProcessingDate) {
+        DataUpdateRequest request = new DataUpdateRequest(entityName, entityVersion);
+
+        request.where(Query.and(
+                Query.withValue("status", BinOp.eq,
+                        DocumentEventEntity.Status.processing.toString()),
+                Query.withValue("processingDate", BinOp.lte, Date.from(expiredProcessingDate))));
+        request.updates(Update.set("status", DocumentEventEntity.Status.unprocessed.toString()));
+        request.returns(Projection.includeField("_id"));
+
+        return request;
+    }
+
     /** "Status" here means status and corresponding date(s) to go along with it. */
     public static DataUpdateRequest notificationStatusIfCurrent(NotificationEntity entity,
             @Nullable Date originalProcessingDate) {
@@ -31,6 +31,7 @@ import com.redhat.lightblue.generator.Version;
 
 import javax.annotation.Nullable;
 import java.time.Duration;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 
@@ -215,4 +216,32 @@ public class EventHandlerConfigEntity implements LightblueNotificationRepository
     public void setNotificationExpireThresholdSeconds(Integer notificationExpireThresholdSeconds) {
         this.notificationExpireThresholdSeconds = notificationExpireThresholdSeconds;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        EventHandlerConfigEntity that = (EventHandlerConfigEntity) o;
+        return Objects.equals(domain, that.domain) &&
+                Objects.equals(canonicalTypesToProcess, that.canonicalTypesToProcess) &&
+                Objects.equals(documentEventsBatchSize, that.documentEventsBatchSize) &&
+                Objects.equals(entityNamesToProcess, that.entityNamesToProcess) &&
+                Objects.equals(notificationProcessingTimeoutSeconds,
+                        that.notificationProcessingTimeoutSeconds) &&
+                Objects.equals(notificationExpireThresholdSeconds,
+                        that.notificationExpireThresholdSeconds) &&
+                Objects.equals(documentEventProcessingTimeoutSeconds,
+                        that.documentEventProcessingTimeoutSeconds) &&
+                Objects.equals(documentEventExpireThresholdSeconds,
+                        that.documentEventExpireThresholdSeconds) &&
+                Objects.equals(maxDocumentEventsPerInsert, that.maxDocumentEventsPerInsert);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(domain, canonicalTypesToProcess, documentEventsBatchSize,
+                entityNamesToProcess, notificationProcessingTimeoutSeconds,
+                notificationExpireThresholdSeconds, documentEventProcessingTimeoutSeconds,
+                documentEventExpireThresholdSeconds, maxDocumentEventsPerInsert);
+    }
 }
@@ -18,6 +18,7 @@
 
 package org.esbtools.eventhandler.lightblue.config;
 
+import org.esbtools.eventhandler.BacklogDrivenPolling;
 import org.esbtools.eventhandler.lightblue.client.FindRequests;
 
 import com.redhat.lightblue.client.LightblueClient;
@@ -36,12 +37,16 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class PollingLightblueConfigUpdateRoute extends RouteBuilder {
     private final String configDomain;
     private final Duration pollingInterval;
+    private final BacklogDrivenPolling backlogDrivenPolling;
     private final LightblueClient lightblue;
     private final MutableLightblueNotificationRepositoryConfig notificationRepositoryConfig;
     private final MutableLightblueDocumentEventRepositoryConfig documentEventRepositoryConfig;
 
     private final DataFindRequest findConfig;
 
+    /** The config found by the previous poll. Only accessed from the polling thread. */
+    private EventHandlerConfigEntity lastStoredConfig;
+
     private static final AtomicInteger idCounter = new AtomicInteger(1);
     private final int id = idCounter.getAndIncrement();
 
@@ -57,7 +62,25 @@ public class PollingLightblueConfigUpdateRoute extends RouteBuilder {
             LightblueClient lightblue,
             MutableLightblueNotificationRepositoryConfig notificationRepositoryConfig,
             MutableLightblueDocumentEventRepositoryConfig documentEventRepositoryConfig) {
+        this(configDomain, pollingInterval, BacklogDrivenPolling.disabled(), lightblue,
+                notificationRepositoryConfig, documentEventRepositoryConfig);
+    }
+
+    /**
+     * @param backlogDrivenPolling Decides how far to back off from the polling interval while
+     *                             the stored configuration is unchanged. Config is a single
+     *                             document, so there is no batch to fill, and the route never
+     *                             polls again right away. A change made while backed off is
+     *                             picked up within the back off's max idle intervals.
+     * @see #PollingLightblueConfigUpdateRoute(String, Duration, LightblueClient, MutableLightblueNotificationRepositoryConfig, MutableLightblueDocumentEventRepositoryConfig)
+     */
+    public PollingLightblueConfigUpdateRoute(String configDomain, Duration pollingInterval,
+            BacklogDrivenPolling backlogDrivenPolling, LightblueClient lightblue,
+            MutableLightblueNotificationRepositoryConfig notificationRepositoryConfig,
+            MutableLightblueDocumentEventRepositoryConfig documentEventRepositoryConfig) {
         this.pollingInterval = Objects.requireNonNull(pollingInterval, "pollingInterval");
+        this.backlogDrivenPolling = Objects.requireNonNull(backlogDrivenPolling,
+                "backlogDrivenPolling");
         this.lightblue = Objects.requireNonNull(lightblue, "lightblue");
         this.notificationRepositoryConfig = Objects.requireNonNull(notificationRepositoryConfig,
                 "notificationRepositoryConfig");
@@ -72,10 +95,16 @@ public class PollingLightblueConfigUpdateRoute extends RouteBuilder {
     public void configure() throws Exception {
         from("timer:pollForEventHandlerConfigUpdates" + id + "?period=" + pollingInterval.toMillis())
         .routeId("eventHandlerConfigUpdater-" + id)
+        .filter(exchange -> backlogDrivenPolling.isPollDue())
         .process(exchange -> {
             EventHandlerConfigEntity storedConfig =
                     lightblue.data(findConfig, EventHandlerConfigEntity.class);
 
+            // An unchanged config is the equivalent of an empty batch.
+            boolean changed = !Objects.equals(storedConfig, lastStoredConfig);
+            backlogDrivenPolling.onPolled(1, changed ? 1 : 0);
+            lastStoredConfig = storedConfig;
+
             if (storedConfig == null) {
                 log.info("No event handler config found for domain: {}", configDomain);
                 return;
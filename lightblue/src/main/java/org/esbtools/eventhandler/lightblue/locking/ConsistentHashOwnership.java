@@ -0,0 +1,355 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.locking;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Divides ownership of a set of names, such as canonical types or notification entity names, among
+ * the members of a cluster using consistent hashing, and claims each owned name with a lease (a
+ * lock) so that no two members own the same name at the same time.
+ *
+ * <p>Membership is also tracked with leases: each member holds one of {@code maxMembers} member
+ * slots, and discovers which other slots are held by attempting to acquire them. Live slots are
+ * placed on a hash ring with several virtual nodes each, and every name is owned by the slot which
+ * follows the name's hash on the ring. When a member joins or leaves, only the names adjacent to
+ * its virtual nodes change owners.
+ *
+ * <p>Ownership is refreshed at most once per {@code refreshInterval}, when owned names are asked
+ * for. While ownership moves, a name may briefly have no owner: its new owner cannot claim it
+ * until its old owner notices and releases it, or its lease expires. A name is never owned by two
+ * members at once, so long as the lock strategy's locks are exclusive.
+ *
+ * <p>All members of a group must agree on {@code groupName}, {@code maxMembers}, and
+ * {@code virtualNodesPerMember}.
+ */
+public class ConsistentHashOwnership implements Closeable {
+    private final String groupName;
+    private final LockStrategy lockStrategy;
+    private final int maxMembers;
+    private final int virtualNodesPerMember;
+    private final Duration refreshInterval;
+    private final Clock clock;
+
+    @Nullable
+    private LockedResource<String> memberSlot;
+    private int memberSlotIndex = -1;
+    private final Map<String, LockedResource<String>> leasesByName = new HashMap<>();
+
+    private Set<String> lastCandidates = Collections.emptySet();
+    private Set<String> owned = Collections.emptySet();
+    @Nullable
+    private Instant lastRefresh;
+
+    public static final int DEFAULT_MAX_MEMBERS = 16;
+    public static final int DEFAULT_VIRTUAL_NODES_PER_MEMBER = 32;
+
+    private static final HashFunction RING_HASH = Hashing.murmur3_32();
+    private static final Logger logger = LoggerFactory.getLogger(ConsistentHashOwnership.class);
+
+    /**
+     * Same as {@link #ConsistentHashOwnership(String, LockStrategy, int, int, Duration, Clock)}
+     * with {@link #DEFAULT_MAX_MEMBERS} and {@link #DEFAULT_VIRTUAL_NODES_PER_MEMBER}, using the
+     * system clock.
+     */
+    public ConsistentHashOwnership(String groupName, LockStrategy lockStrategy,
+            Duration refreshInterval) {
+        this(groupName, lockStrategy, DEFAULT_MAX_MEMBERS, DEFAULT_VIRTUAL_NODES_PER_MEMBER,
+                refreshInterval, Clock.systemUTC());
+    }
+
+    /**
+     * @param groupName Prefixes the resource ids of all member slot and name leases, so that
+     *                  unrelated groups, for example one for canonical types and one for entity
+     *                  names, do not collide.
+     * @param lockStrategy Provides the leases. Leases are held until released, so the strategy
+     *                     should keep them alive, as {@link LightblueAutoPingLockStrategy} does,
+     *                     but also let them expire if this member dies.
+     * @param maxMembers How many members may participate at once. Each refresh checks every slot,
+     *                   so this should be not much larger than the expected cluster size.
+     * @param virtualNodesPerMember How many points each member has on the hash ring. More points
+     *                              spread names among members more evenly.
+     * @param refreshInterval How often to check membership and rebalance, at most.
+     */
+    public ConsistentHashOwnership(String groupName, LockStrategy lockStrategy, int maxMembers,
+            int virtualNodesPerMember, Duration refreshInterval, Clock clock) {
+        if (maxMembers < 1) {
+            throw new IllegalArgumentException("Max members must be positive, but was: " +
+                    maxMembers);
+        }
+
+        if (virtualNodesPerMember < 1) {
+            throw new IllegalArgumentException("Virtual nodes per member must be positive, but " +
+                    "was: " + virtualNodesPerMember);
+        }
+
+        this.groupName = groupName;
+        this.lockStrategy = lockStrategy;
+        this.maxMembers = maxMembers;
+        this.virtualNodesPerMember = virtualNodesPerMember;
+        this.refreshInterval = refreshInterval;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns which of the {@code candidates} this member currently owns, first refreshing
+     * membership and leases if the refresh interval has passed or the candidates changed.
+     */
+    public synchronized Set<String> ownedAmong(Set<String> candidates) {
+        Instant now = clock.instant();
+
+        if (lastRefresh == null || !candidates.equals(lastCandidates) ||
+                !now.isBefore(lastRefresh.plus(refreshInterval))) {
+            lastCandidates = new HashSet<>(candidates);
+            lastRefresh = now;
+            owned = Collections.unmodifiableSet(refresh(lastCandidates));
+        }
+
+        return owned;
+    }
+
+    /**
+     * Forces the next call to {@link #ownedAmong(Set)} to refresh.
+     */
+    public synchronized void invalidate() {
+        lastRefresh = null;
+    }
+
+    /**
+     * Releases this member's slot and all name leases, so other members may take them over at
+     * their next refresh.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        List<LockedResource<?>> leases = new ArrayList<>(leasesByName.values());
+        if (memberSlot != null) {
+            leases.add(memberSlot);
+        }
+
+        leasesByName.clear();
+        memberSlot = null;
+        memberSlotIndex = -1;
+        owned = Collections.emptySet();
+        lastRefresh = null;
+
+        lockStrategy.releaseAll(leases);
+    }
+
+    private Set<String> refresh(Set<String> candidates) {
+        if (!ensureMemberSlot()) {
+            logger.warn("All {} member slots of group {} are taken. Not owning anything.",
+                    maxMembers, groupName);
+            releaseLeasesExcept(Collections.emptySet());
+            return Collections.emptySet();
+        }
+
+        SortedSet<Integer> liveSlots = findLiveSlots();
+        TreeMap<Integer, Integer> ring = buildRing(liveSlots);
+
+        Set<String> assigned = new HashSet<>();
+        for (String candidate : candidates) {
+            if (ownerOf(ring, candidate) == memberSlotIndex) {
+                assigned.add(candidate);
+            }
+        }
+
+        releaseLeasesExcept(assigned);
+
+        Set<String> leased = new HashSet<>();
+        for (String name : assigned) {
+            if (holdsLease(name)) {
+                leased.add(name);
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Member slot {} of group {} with live slots {} is assigned {} and " +
+                    "owns {}", memberSlotIndex, groupName, liveSlots, assigned, leased);
+        }
+
+        return leased;
+    }
+
+    /**
+     * @return Whether we hold a member slot, acquiring one if we do not.
+     */
+    private boolean ensureMemberSlot() {
+        if (memberSlot != null) {
+            try {
+                memberSlot.ensureAcquiredOrThrow("Will try to join group again.");
+                return true;
+            } catch (LostLockException e) {
+                logger.warn("Lost member slot " + memberSlotIndex + " of group " + groupName, e);
+                memberSlot = null;
+                memberSlotIndex = -1;
+            }
+        }
+
+        for (int slot = 0; slot < maxMembers; slot++) {
+            try {
+                memberSlot = lockStrategy.tryAcquire(memberSlotResourceId(slot));
+                memberSlotIndex = slot;
+                logger.info("Joined group {} as member slot {}", groupName, slot);
+                return true;
+            } catch (LockNotAvailableException e) {
+                // Taken by another member; try the next.
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A slot we are able to acquire is not held by any member, so we release it right away.
+     */
+    private SortedSet<Integer> findLiveSlots() {
+        SortedSet<Integer> live = new TreeSet<>();
+        live.add(memberSlotIndex);
+
+        for (int slot = 0; slot < maxMembers; slot++) {
+            if (slot == memberSlotIndex) {
+                continue;
+            }
+
+            try {
+                LockedResource<String> probe = lockStrategy.tryAcquire(memberSlotResourceId(slot));
+                try {
+                    probe.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to release probed member slot " + slot + " of group " +
+                            groupName + ". It will appear live until its lease expires.", e);
+                }
+            } catch (LockNotAvailableException e) {
+                live.add(slot);
+            }
+        }
+
+        return live;
+    }
+
+    private TreeMap<Integer, Integer> buildRing(Collection<Integer> liveSlots) {
+        TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+        for (Integer slot : liveSlots) {
+            for (int node = 0; node < virtualNodesPerMember; node++) {
+                ring.put(hash(groupName + "-member-" + slot + "-node-" + node), slot);
+            }
+        }
+
+        return ring;
+    }
+
+    private int ownerOf(TreeMap<Integer, Integer> ring, String name) {
+        Map.Entry<Integer, Integer> owner = ring.ceilingEntry(hash(name));
+        return owner == null ? ring.firstEntry().getValue() : owner.getValue();
+    }
+
+    private boolean holdsLease(String name) {
+        LockedResource<String> lease = leasesByName.get(name);
+
+        if (lease != null) {
+            try {
+                lease.ensureAcquiredOrThrow("Will try to claim it again.");
+                return true;
+            } catch (LostLockException e) {
+                logger.warn("Lost lease on " + name + " in group " + groupName, e);
+                leasesByName.remove(name);
+            }
+        }
+
+        try {
+            leasesByName.put(name, lockStrategy.tryAcquire(leaseResourceId(name), name));
+            return true;
+        } catch (LockNotAvailableException e) {
+            logger.debug("Lease on {} in group {} is still held by its previous owner.",
+                    name, groupName);
+            return false;
+        }
+    }
+
+    private void releaseLeasesExcept(Set<String> keep) {
+        List<LockedResource<String>> toRelease = new ArrayList<>();
+
+        Iterator<Map.Entry<String, LockedResource<String>>> leases =
+                leasesByName.entrySet().iterator();
+        while (leases.hasNext()) {
+            Map.Entry<String, LockedResource<String>> lease = leases.next();
+            if (!keep.contains(lease.getKey())) {
+                toRelease.add(lease.getValue());
+                leases.remove();
+            }
+        }
+
+        if (toRelease.isEmpty()) {
+            return;
+        }
+
+        try {
+            lockStrategy.releaseAll(toRelease);
+        } catch (IOException e) {
+            logger.warn("Failed to release leases no longer owned in group " + groupName +
+                    ". Their new owners will have to wait for them to expire.", e);
+        }
+    }
+
+    private String memberSlotResourceId(int slot) {
+        return groupName + "-member-" + slot;
+    }
+
+    private String leaseResourceId(String name) {
+        return groupName + "-owner-" + name;
+    }
+
+    private static int hash(String value) {
+        return RING_HASH.hashString(value, StandardCharsets.UTF_8).asInt();
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashOwnership{" +
+                "groupName='" + groupName + '\'' +
+                ", maxMembers=" + maxMembers +
+                ", virtualNodesPerMember=" + virtualNodesPerMember +
+                ", refreshInterval=" + refreshInterval +
+                '}';
+    }
+}
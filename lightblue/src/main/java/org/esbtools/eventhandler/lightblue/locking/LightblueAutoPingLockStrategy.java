@@ -18,20 +18,35 @@
 
 package org.esbtools.eventhandler.lightblue.locking;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.redhat.lightblue.client.LightblueException;
 import com.redhat.lightblue.client.Locking;
 import com.redhat.lightblue.client.response.lock.InvalidLockException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Uses lightblue's locking APIs with TTL, automatically pinging the lock in the background until it
@@ -41,13 +56,31 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * However, locks with TTLs may expire prematurely. By pinging the lock in a separate thread
  * periodically, we can substantially lesson the likelihood of unintentionally losing the lock.
  *
+ * <p>All locks acquired by a strategy instance share a single, small pool of pinging threads. Once
+ * every {@code autoPingInterval}, every lock currently held is pinged in one pass, split among
+ * the pool's threads. The number of threads therefore does not grow with the number of locks held.
+ * A separate pool of as many threads is used to {@link #tryAcquireAll(Collection) acquire} and
+ * {@link #releaseAll(Collection) release} many locks concurrently, so that a large batch of
+ * acquisitions does not hold up pinging the locks already held.
+ * {@link #close() Closing} the strategy stops pinging and releases any locks still held.
+ *
  * <p>Consumers are expected to check the lock at critical points to ensure it did not expire by
  * calling {@link LockedResource#ensureAcquiredOrThrow(String)}.
  */
-public class LightblueAutoPingLockStrategy implements LockStrategy {
+public class LightblueAutoPingLockStrategy implements LockStrategy, Closeable {
     private final Locking locking;
-    private final Duration autoPingInterval;
     private final Duration timeToLive;
+    private final int lockingThreads;
+
+    private final Set<AutoPingingLock<?>> heldLocks = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService autoPingScheduler;
+    private final ExecutorService bulkLockingExecutor;
+    private final ScheduledFuture<?> autoPinger;
+
+    public static final int DEFAULT_LOCKING_THREADS = 4;
+
+    private static final AtomicInteger idCounter = new AtomicInteger(1);
+    private static final Logger logger = LoggerFactory.getLogger(LightblueAutoPingLockStrategy.class);
 
     /**
      * Same as {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration)}
@@ -57,6 +90,15 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
         this(locking, autoPingInterval, autoPingInterval.multipliedBy(5));
     }
 
+    /**
+     * Same as {@link #LightblueAutoPingLockStrategy(Locking, Duration, Duration, int)} except
+     * the number of locking threads defaults to {@link #DEFAULT_LOCKING_THREADS}.
+     */
+    public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
+            Duration timeToLive) {
+        this(locking, autoPingInterval, timeToLive, DEFAULT_LOCKING_THREADS);
+    }
+
     /**
      * Validates {@code timeToLive} is greater than the {@code autoPingInterval}.
      * @param locking The locking client to use which holds knowledge of the locking domain to use.
@@ -64,17 +106,49 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
      * @param autoPingInterval Amount of time in between automatic pings of acquired locks.
      * @param timeToLive Time until locks automatically expire. Should be [much] larger than the
      *                   {@code autoPingInterval} to ensure locks do not accidentally expire.
+     * @param lockingThreads Number of threads shared by all locks acquired by this strategy which
+     *                       are used to ping them. Each ping pass splits the held locks among
+     *                       these threads. Locks are acquired and released in bulk by a separate
+     *                       pool of up to as many threads, which time out while idle.
      */
     public LightblueAutoPingLockStrategy(Locking locking, Duration autoPingInterval,
-            Duration timeToLive) {
+            Duration timeToLive, int lockingThreads) {
         this.locking = locking;
-        this.autoPingInterval = autoPingInterval;
         this.timeToLive = timeToLive;
+        this.lockingThreads = lockingThreads;
 
         if (timeToLive.compareTo(autoPingInterval) <= 0) {
             throw new IllegalArgumentException("Time to live should be greater than auto ping " +
                     "interval, otherwise the lock will likely be lost.");
         }
+
+        if (lockingThreads < 1) {
+            throw new IllegalArgumentException("Need at least one thread to ping locks, but " +
+                    "lockingThreads was: " + lockingThreads);
+        }
+
+        int id = idCounter.getAndIncrement();
+
+        autoPingScheduler = Executors.newScheduledThreadPool(lockingThreads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lightblue-lock-pinger-" + id + "-%d")
+                        .setDaemon(true)
+                        .build());
+
+        ThreadPoolExecutor bulkLockingPool = new ThreadPoolExecutor(lockingThreads,
+                lockingThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("lightblue-lock-acquirer-" + id + "-%d")
+                        .setDaemon(true)
+                        .build());
+        bulkLockingPool.allowCoreThreadTimeOut(true);
+        bulkLockingExecutor = bulkLockingPool;
+
+        autoPinger = autoPingScheduler.scheduleWithFixedDelay(
+                this::pingHeldLocks,
+                /* initial delay*/ autoPingInterval.toMillis(),
+                /* delay */ autoPingInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -82,42 +156,174 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
         try {
             // TODO: May want to include hostname and/or thread information in clientId
             String callerId = UUID.randomUUID().toString();
-            return new AutoPingingLock<>(locking, callerId, resourceId, resource, autoPingInterval,
-                    timeToLive);
+            return new AutoPingingLock<>(this, callerId, resourceId, resource);
         } catch (LightblueException e) {
             throw new LockNotAvailableException(resourceId, resource, e);
         }
     }
 
+    /**
+     * Attempts to acquire all of the locks concurrently using this strategy's bulk locking
+     * threads, so that acquiring many locks takes roughly as many round trips to lightblue as
+     * there are lockables divided by the number of locking threads.
+     */
+    @Override
+    public <T extends Lockable> LockedResources<T> tryAcquireAll(Collection<? extends T> lockables) {
+        if (lockables.size() <= 1 || lockingThreads == 1) {
+            return LockStrategy.super.tryAcquireAll(lockables);
+        }
+
+        List<T> attempted = new ArrayList<>(lockables);
+        List<Future<LockedResource<T>>> attempts = new ArrayList<>(attempted.size());
+
+        for (T lockable : attempted) {
+            attempts.add(bulkLockingExecutor.submit(() -> tryAcquire(lockable)));
+        }
+
+        List<LockedResource<T>> locks = new ArrayList<>(attempted.size());
+        List<T> unavailable = new ArrayList<>(0);
+
+        for (int i = 0; i < attempted.size(); i++) {
+            T lockable = attempted.get(i);
+
+            try {
+                // Uninterruptible so we never lose track of a lock which was acquired.
+                locks.add(Uninterruptibles.getUninterruptibly(attempts.get(i)));
+            } catch (ExecutionException e) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Lock not available for resource: " + lockable, e.getCause());
+                }
+                unavailable.add(lockable);
+            }
+        }
+
+        return LockedResources.fromLocks(locks, unavailable, this);
+    }
+
+    /**
+     * Releases all of the locks concurrently using this strategy's bulk locking threads.
+     */
+    @Override
+    public void releaseAll(Collection<? extends LockedResource<?>> locks) throws IOException {
+        if (locks.size() <= 1 || lockingThreads == 1 || bulkLockingExecutor.isShutdown()) {
+            LockStrategy.super.releaseAll(locks);
+            return;
+        }
+
+        List<Future<?>> releases = new ArrayList<>(locks.size());
+
+        for (LockedResource<?> lock : locks) {
+            releases.add(bulkLockingExecutor.submit(() -> {
+                lock.close();
+                return null;
+            }));
+        }
+
+        List<IOException> exceptions = new ArrayList<>(0);
+
+        for (Future<?> release : releases) {
+            try {
+                Uninterruptibles.getUninterruptibly(release);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                exceptions.add(cause instanceof IOException
+                        ? (IOException) cause
+                        : new IOException(cause));
+            }
+        }
+
+        if (!exceptions.isEmpty()) {
+            if (exceptions.size() == 1) {
+                throw exceptions.get(0);
+            }
+
+            throw new MultipleIOExceptions(exceptions);
+        }
+    }
+
+    /**
+     * Stops pinging and releases all locks which are still held. The strategy should not be used
+     * after it is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        autoPinger.cancel(false);
+
+        try {
+            releaseAll(new ArrayList<>(heldLocks));
+        } finally {
+            autoPingScheduler.shutdownNow();
+            bulkLockingExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Pings every currently held lock once. If there is more than one pinging thread, the locks
+     * are partitioned among them and this thread pings the last partition itself.
+     */
+    private void pingHeldLocks() {
+        List<AutoPingingLock<?>> locks = new ArrayList<>(heldLocks);
+
+        if (locks.isEmpty()) {
+            return;
+        }
+
+        if (lockingThreads == 1 || locks.size() == 1) {
+            locks.forEach(AutoPingingLock::ping);
+            return;
+        }
+
+        int partitionSize = (int) Math.ceil((double) locks.size() / lockingThreads);
+        List<List<AutoPingingLock<?>>> partitions = Lists.partition(locks, partitionSize);
+        List<Future<?>> pingingPartitions = new ArrayList<>(partitions.size() - 1);
+
+        try {
+            for (List<AutoPingingLock<?>> partition : partitions.subList(0, partitions.size() - 1)) {
+                pingingPartitions.add(autoPingScheduler.submit(
+                        () -> partition.forEach(AutoPingingLock::ping)));
+            }
+
+            partitions.get(partitions.size() - 1).forEach(AutoPingingLock::ping);
+
+            for (Future<?> pingingPartition : pingingPartitions) {
+                pingingPartition.get();
+            }
+        } catch (InterruptedException e) {
+            pingingPartitions.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Unexpected failure pinging locks. Will try again next interval.", e);
+        } catch (RuntimeException e) {
+            // Likely rejected because scheduler is shutting down.
+            logger.debug("Could not complete lock ping pass.", e);
+        }
+
+        logger.debug("Periodic lock ping pass complete. Locks pinged: {}", locks.size());
+    }
+
     static final class AutoPingingLock<T> implements LockedResource<T> {
         private final String callerId;
         private final T resource;
         private final String resourceId;
         private final Locking locking;
-        private final ScheduledExecutorService autoPingScheduler =
-                Executors.newSingleThreadScheduledExecutor();
-        private final ScheduledFuture<?> autoPinger;
+        private final Set<AutoPingingLock<?>> heldLocks;
         private final AtomicBoolean isClosed = new AtomicBoolean(false);
 
         private static final Logger logger = LoggerFactory.getLogger(AutoPingingLock.class);
 
-        AutoPingingLock(Locking locking, String callerId, String resourceId, T resource,
-                Duration autoPingInterval, Duration ttl) throws LightblueException,
-                LockNotAvailableException {
+        AutoPingingLock(LightblueAutoPingLockStrategy strategy, String callerId, String resourceId,
+                T resource) throws LightblueException, LockNotAvailableException {
             this.callerId = callerId;
             this.resource = resource;
-            this.locking = locking;
+            this.locking = strategy.locking;
             this.resourceId = resourceId;
+            this.heldLocks = strategy.heldLocks;
 
-            if (!locking.acquire(callerId, resourceId, ttl.toMillis())) {
+            if (!locking.acquire(callerId, resourceId, strategy.timeToLive.toMillis())) {
                 throw new LockNotAvailableException(resourceId, resource);
             }
 
-            this.autoPinger = autoPingScheduler.scheduleWithFixedDelay(
-                    new PingTask(this),
-                    /* initial delay*/ autoPingInterval.toMillis(),
-                    /* delay */ autoPingInterval.toMillis(),
-                    TimeUnit.MILLISECONDS);
+            heldLocks.add(this);
         }
 
         @Override
@@ -153,10 +359,10 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
             }
 
             try {
-                autoPinger.cancel(true);
-                autoPingScheduler.shutdownNow();
+                // Only stop pinging once released, so a lock which failed to release is kept.
                 locking.release(callerId, resourceId);
                 isClosed.set(true);
+                heldLocks.remove(this);
             } catch (LightblueException e) {
                 throw new IOException("Unable to release lock. callerId: " + callerId +
                         ", resourceId: " + resourceId, e);
@@ -177,37 +383,36 @@ public class LightblueAutoPingLockStrategy implements LockStrategy {
          * and you are not okay with it expiring on its own, use {@link #close()}.
          */
         private void stopPinging() {
-            autoPinger.cancel(true);
-            autoPingScheduler.shutdownNow();
+            heldLocks.remove(this);
             isClosed.set(true);
         }
 
-        static class PingTask implements Runnable {
-            final AutoPingingLock lock;
-
-            PingTask(AutoPingingLock lock) {
-                this.lock = lock;
+        /**
+         * Called periodically from the strategy's shared ping pass. Never throws; a lock which is
+         * found to be lost is simply no longer pinged.
+         */
+        void ping() {
+            if (isClosed.get()) {
+                return;
             }
 
-            @Override
-            public void run() {
-                try {
-                    if (!lock.locking.ping(lock.callerId, lock.resourceId)) {
-                        lock.stopPinging();
-                        throw new RuntimeException("Lost lock. Will stop pinging. Lock was: " + lock);
-                    }
-
-                    logger.debug("Periodic lock ping successful. callerId={} resourceId={}",
-                            lock.callerId, lock.resourceId);
-                } catch (InvalidLockException e) {
-                    logger.error("Tried to ping an invalid lock. Will stop pinging. Lock was: " +
-                            lock, e);
-                    lock.stopPinging();
-                    throw new RuntimeException(e);
-                } catch (LightblueException e) {
-                    logger.error("Periodic lock ping failed for callerId <{}> and " +
-                            "resourceId <{}>. Will keep trying.", lock.callerId, lock.resourceId, e);
+            try {
+                if (!locking.ping(callerId, resourceId)) {
+                    stopPinging();
+                    logger.error("Lost lock. Will stop pinging. Lock was: {}", this);
+                    return;
                 }
+
+                logger.debug("Periodic lock ping successful. callerId={} resourceId={}",
+                        callerId, resourceId);
+            } catch (InvalidLockException e) {
+                logger.error("Tried to ping an invalid lock. Will stop pinging. Lock was: " +
+                        this, e);
+                stopPinging();
+            } catch (LightblueException | RuntimeException e) {
+                // Never let an exception escape, or the shared ping task would stop for every lock.
+                logger.error("Periodic lock ping failed for callerId <{}> and " +
+                        "resourceId <{}>. Will keep trying.", callerId, resourceId, e);
             }
         }
     }
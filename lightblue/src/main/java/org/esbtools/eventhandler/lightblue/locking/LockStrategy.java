@@ -18,6 +18,11 @@
 
 package org.esbtools.eventhandler.lightblue.locking;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Abstracts an atomic exclusive locking mechanism which is used to coordinate concurrent work on
  * logical "resources."
@@ -59,4 +64,47 @@ public interface LockStrategy {
     default LockedResource<String> tryAcquire(String resourceId) throws LockNotAvailableException {
         return tryAcquire(resourceId, resourceId);
     }
+
+    /**
+     * Attempts to acquire locks for all of the provided {@code lockables}, as if by calling
+     * {@link #tryAcquire(Lockable)} for each. Unlike {@code tryAcquire}, a lock which is not
+     * available does not result in an exception. Instead, the returned {@link LockedResources}
+     * reports which resources were {@link LockedResources#getLocks() locked} and which were
+     * {@link LockedResources#getUnavailable() not}.
+     *
+     * <p>The default implementation acquires each lock one at a time. Implementations are
+     * encouraged to override this if they are able to acquire many locks more efficiently, for
+     * example concurrently.
+     *
+     * <p>Closing the returned {@code LockedResources} releases all acquired locks via
+     * {@link #releaseAll(Collection)}.
+     */
+    default <T extends Lockable> LockedResources<T> tryAcquireAll(Collection<? extends T> lockables) {
+        List<LockedResource<T>> locks = new ArrayList<>(lockables.size());
+        List<T> unavailable = new ArrayList<>(0);
+
+        for (T lockable : lockables) {
+            try {
+                locks.add(tryAcquire(lockable));
+            } catch (LockNotAvailableException e) {
+                unavailable.add(lockable);
+            }
+        }
+
+        return LockedResources.fromLocks(locks, unavailable, this);
+    }
+
+    /**
+     * Releases all of the provided locks, attempting to release every one of them even if some
+     * fail.
+     *
+     * <p>The default implementation releases each lock one at a time. Implementations are
+     * encouraged to override this if they are able to release many locks more efficiently.
+     *
+     * @throws IOException if any lock could not be released. If more than one failed, the
+     * failures are available as {@link Throwable#getSuppressed() suppressed} exceptions.
+     */
+    default void releaseAll(Collection<? extends LockedResource<?>> locks) throws IOException {
+        WrappedLockedResources.releaseEach(locks);
+    }
 }
@@ -20,11 +20,28 @@ package org.esbtools.eventhandler.lightblue.locking;
 
 import java.io.Closeable;
 import java.util.Collection;
+import java.util.Collections;
 
 public interface LockedResources<T> extends Closeable {
     Collection<LockedResource<T>> getLocks();
 
+    /**
+     * @return Resources which were attempted to be locked along with those in {@link #getLocks()},
+     * but which were not available.
+     * @see LockStrategy#tryAcquireAll(Collection)
+     */
+    Collection<T> getUnavailable();
+
     static <T> LockedResources<T> fromLocks(Collection<LockedResource<T>> locks) {
-        return new WrappedLockedResources<>(locks);
+        return new WrappedLockedResources<>(locks, Collections.emptyList(), null);
+    }
+
+    /**
+     * @param releaseStrategy The strategy whose {@link LockStrategy#releaseAll(Collection)} is
+     *                        used to release the {@code locks} when the returned object is closed.
+     */
+    static <T> LockedResources<T> fromLocks(Collection<LockedResource<T>> locks,
+            Collection<T> unavailable, LockStrategy releaseStrategy) {
+        return new WrappedLockedResources<>(locks, unavailable, releaseStrategy);
     }
 }
@@ -18,6 +18,7 @@
 
 package org.esbtools.eventhandler.lightblue.locking;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -26,9 +27,19 @@ import java.util.List;
 
 class WrappedLockedResources<T> implements LockedResources<T> {
     private final Collection<LockedResource<T>> locks;
+    private final Collection<T> unavailable;
+    private final @Nullable LockStrategy releaseStrategy;
 
-    public WrappedLockedResources(Collection<LockedResource<T>> locks) {
+    /**
+     * @param releaseStrategy If provided, locks are released in bulk using this strategy's
+     *                        {@link LockStrategy#releaseAll(Collection)}. Otherwise, each lock is
+     *                        simply closed one at a time.
+     */
+    public WrappedLockedResources(Collection<LockedResource<T>> locks, Collection<T> unavailable,
+            @Nullable LockStrategy releaseStrategy) {
         this.locks = locks;
+        this.unavailable = unavailable;
+        this.releaseStrategy = releaseStrategy;
     }
 
     @Override
@@ -36,12 +47,25 @@ class WrappedLockedResources<T> implements LockedResources<T> {
         return Collections.unmodifiableCollection(locks);
     }
 
+    @Override
+    public Collection<T> getUnavailable() {
+        return Collections.unmodifiableCollection(unavailable);
+    }
+
     @Override
     public void close() throws IOException {
         if (locks.isEmpty()) {
             return;
         }
 
+        if (releaseStrategy != null) {
+            releaseStrategy.releaseAll(locks);
+        } else {
+            releaseEach(locks);
+        }
+    }
+
+    static void releaseEach(Collection<? extends LockedResource<?>> locks) throws IOException {
         List<IOException> exceptions = new ArrayList<>(0);
 
         for (LockedResource lock : locks) {
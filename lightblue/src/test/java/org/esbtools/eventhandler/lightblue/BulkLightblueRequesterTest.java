@@ -10,18 +10,30 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.when;
 
 import java.net.UnknownHostException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.esbtools.eventhandler.TransformableFuture;
 import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.BulkRequestChunking;
 import org.esbtools.eventhandler.lightblue.client.LightblueDataResponses;
 import org.esbtools.eventhandler.lightblue.client.LightblueResponse;
 import org.esbtools.eventhandler.lightblue.client.LightblueResponseException;
@@ -37,18 +49,23 @@ import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.LightblueException;
 import com.redhat.lightblue.client.Projection;
 import com.redhat.lightblue.client.Query;
 import com.redhat.lightblue.client.integration.test.LightblueExternalResource;
+import com.redhat.lightblue.client.request.CRUDRequest;
 import com.redhat.lightblue.client.request.DataBulkRequest;
 import com.redhat.lightblue.client.request.data.DataFindRequest;
 import com.redhat.lightblue.client.request.data.DataInsertRequest;
 import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueBulkResponseException;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
 import com.redhat.lightblue.client.response.LightblueParseException;
 
 public class BulkLightblueRequesterTest {
@@ -132,6 +149,51 @@ public class BulkLightblueRequesterTest {
 
     }
     
+    @Test(timeout = 10000)
+    public void shouldPerformQueuedRequestsOnlyOnceWhenManyThreadsGetTheSameFutures()
+            throws Exception {
+        SlowDataLightblueClient slowClient = Mockito.spy(new SlowDataLightblueClient(client));
+        requester = new BulkLightblueRequester(slowClient);
+
+        insertUser("cooltester2000");
+
+        slowClient.pauseBeforeRequests();
+        DataFindRequest findTester = findUserByUsername("cooltester2000");
+
+        TransformableFuture<TestUser> futureTester = requester.request(findTester)
+                .transformSync(responses -> {
+                    return responses.forRequest(findTester).parseProcessed(TestUser.class);
+                });
+
+        int threads = 5;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch getting = new CountDownLatch(threads);
+
+        try {
+            List<Future<TestUser>> gets = new ArrayList<>(threads);
+
+            for (int i = 0; i < threads; i++) {
+                gets.add(executor.submit(() -> {
+                    getting.countDown();
+                    return futureTester.get();
+                }));
+            }
+
+            getting.await();
+            slowClient.waitUntilPausedRequestQueuedAtMost(Duration.ofSeconds(5));
+            Thread.sleep(100);
+            slowClient.unpause();
+
+            for (Future<TestUser> get : gets) {
+                assertEquals("cooltester2000", get.get().getUsername());
+            }
+
+            Mockito.verify(slowClient, Mockito.times(1)).bulkData(Mockito.any());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void shouldCompleteSuccessfullyIfResponseTimeDoesNotExceedLimit()
             throws ExecutionException, InterruptedException, LightblueException, TimeoutException {
@@ -280,6 +342,43 @@ public class BulkLightblueRequesterTest {
                 .containsExactly("findAnotherTester", "findAnotherCoder");
     }
 
+    @Test
+    public void shouldPerformChainedRequestsInOneRoundTripPerLevelRegardlessOfGetOrder()
+            throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        BulkLightblueRequester mockRequester = new BulkLightblueRequester(mockClient);
+
+        List<Future<?>> chains = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            DataFindRequest findUser = findUserByUsername("user" + i);
+            DataFindRequest findFriend = findUserByUsername("friend" + i);
+            DataFindRequest findFriendOfFriend = findUserByUsername("friendOfFriend" + i);
+
+            chains.add(mockRequester.request(findUser)
+                    .transformAsync(responses -> mockRequester.request(findFriend))
+                    .transformAsync(responses -> mockRequester.request(findFriendOfFriend)));
+        }
+
+        Collections.reverse(chains);
+
+        for (Future<?> chain : chains) {
+            chain.get();
+        }
+
+        ArgumentCaptor<DataBulkRequest> bulkRequests = ArgumentCaptor.forClass(DataBulkRequest.class);
+        Mockito.verify(mockClient, Mockito.times(3)).bulkData(bulkRequests.capture());
+        for (DataBulkRequest bulkRequest : bulkRequests.getAllValues()) {
+            assertThat(bulkRequest.getRequests()).hasSize(3);
+        }
+        assertThat(mockRequester.getRoundTripCount()).isEqualTo(3);
+    }
+
     @Test
     public void shouldCallDoneCallbacksWhenFuturesCompleteSuccessfully() throws Exception {
         DataFindRequest findTester = findUserByUsername("cooltester2000");
@@ -474,6 +573,100 @@ public class BulkLightblueRequesterTest {
         }));
     }
    
+    @Test
+    public void shouldSendEquivalentFindsOnceAndShareTheResponse() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        LightblueDataResponse response = Mockito.mock(LightblueDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class))).thenReturn(response);
+
+        BulkLightblueRequester unOrderedRequester = new BulkLightblueRequester(mockClient, false);
+
+        DataFindRequest findTester = findUserByUsername("cooltester2000");
+        DataFindRequest findTesterAgain = findUserByUsername("cooltester2000");
+        DataFindRequest findCoder = findUserByUsername("aw3som3cod3r");
+
+        TransformableFuture<LightblueDataResponses> futureTester =
+                unOrderedRequester.request(findTester, findCoder);
+        TransformableFuture<LightblueDataResponses> futureTesterAgain =
+                unOrderedRequester.request(findTesterAgain);
+
+        assertThat(futureTester.get().forRequest(findTester)).isSameAs(response);
+        assertThat(futureTesterAgain.get().forRequest(findTesterAgain)).isSameAs(response);
+
+        ArgumentCaptor<DataBulkRequest> bulkRequest = ArgumentCaptor.forClass(DataBulkRequest.class);
+        Mockito.verify(mockClient).bulkData(bulkRequest.capture());
+        assertThat(bulkRequest.getValue().getRequests()).containsExactly(findTester, findCoder);
+    }
+
+    @Test
+    public void shouldSendFindsByIdAsOneFindAndSplitTheResponseById() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        LightblueDataResponse response = Mockito.mock(LightblueDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class))).thenReturn(response);
+
+        TestUser tester = new TestUser();
+        tester.set_id("1");
+        tester.setUsername("cooltester2000");
+        TestUser coder = new TestUser();
+        coder.set_id("2");
+        coder.setUsername("aw3som3cod3r");
+
+        when(response.getJson()).thenReturn(new ObjectMapper().readTree("{\"matchCount\":2," +
+                "\"processed\":[{\"_id\":\"2\",\"username\":\"aw3som3cod3r\"}," +
+                "{\"_id\":\"1\",\"username\":\"cooltester2000\"}]}"));
+        when(response.parseProcessed(TestUser[].class)).thenReturn(new TestUser[] {coder, tester});
+
+        BulkLightblueRequester unOrderedRequester = new BulkLightblueRequester(mockClient, false);
+
+        DataFindRequest findTester = findUserById("1");
+        DataFindRequest findCoder = findUserById("2");
+        DataFindRequest findNobody = findUserById("3");
+
+        TransformableFuture<LightblueDataResponses> futureTester =
+                unOrderedRequester.request(findTester);
+        TransformableFuture<LightblueDataResponses> futureOthers =
+                unOrderedRequester.request(findCoder, findNobody);
+
+        assertThat(futureTester.get().forRequest(findTester).parseProcessed(TestUser.class))
+                .isSameAs(tester);
+        assertThat(futureOthers.get().forRequest(findCoder).parseProcessed(TestUser[].class))
+                .asList().containsExactly(coder);
+        assertThat(futureOthers.get().forRequest(findNobody).parseProcessed(TestUser[].class))
+                .asList().isEmpty();
+        assertThat(futureOthers.get().forRequest(findNobody).parseMatchCount()).isEqualTo(0);
+
+        ArgumentCaptor<DataBulkRequest> bulkRequest = ArgumentCaptor.forClass(DataBulkRequest.class);
+        Mockito.verify(mockClient).bulkData(bulkRequest.capture());
+        assertThat(bulkRequest.getValue().getRequests()).hasSize(1);
+        assertThat(bulkRequest.getValue().getRequests()).containsNoneOf(
+                findTester, findCoder, findNobody);
+    }
+
+    @Test
+    public void shouldNotShareFindResponsesAcrossWritesIfOrdered() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+
+        BulkLightblueRequester orderedRequester = new BulkLightblueRequester(mockClient, true);
+
+        DataFindRequest findTester = findUserByUsername("cooltester2000");
+        DataInsertRequest insertTester =
+                new DataInsertRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
+        DataFindRequest findTesterAgain = findUserByUsername("cooltester2000");
+
+        orderedRequester.request(findTester, insertTester, findTesterAgain).get();
+
+        ArgumentCaptor<DataBulkRequest> bulkRequest = ArgumentCaptor.forClass(DataBulkRequest.class);
+        Mockito.verify(mockClient).bulkData(bulkRequest.capture());
+        assertThat(bulkRequest.getValue().getRequests())
+                .containsExactly(findTester, insertTester, findTesterAgain).inOrder();
+    }
+
     private void insertUser(String username) throws LightblueException {
         DataInsertRequest insertRequest = new DataInsertRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
         TestUser user = new TestUser();
@@ -482,6 +675,449 @@ public class BulkLightblueRequesterTest {
         client.data(insertRequest);
     }
 
+    @Test
+    public void shouldSendChunksOfUnorderedRequestsAndReassembleResponsesByRequest()
+            throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        Map<CRUDRequest, LightblueDataResponse> responsesByRequest = new IdentityHashMap<>();
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class))).thenAnswer(invocation ->
+                responsesByRequest.get(invocation.getArguments()[0]));
+
+        try (BulkRequestChunking chunking = new BulkRequestChunking(2, Long.MAX_VALUE, 3)) {
+            BulkLightblueRequester chunkingRequester =
+                    new BulkLightblueRequester(mockClient, false, chunking);
+
+            List<DataFindRequest> finds = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                DataFindRequest find = findUserByUsername("user" + i);
+                finds.add(find);
+                responsesByRequest.put(find, Mockito.mock(LightblueDataResponse.class));
+            }
+
+            LightblueDataResponses responses = chunkingRequester.request(finds).get();
+
+            for (DataFindRequest find : finds) {
+                assertThat(responses.forRequest(find)).isSameAs(responsesByRequest.get(find));
+            }
+
+            ArgumentCaptor<DataBulkRequest> bulkRequests =
+                    ArgumentCaptor.forClass(DataBulkRequest.class);
+            Mockito.verify(mockClient, Mockito.times(3)).bulkData(bulkRequests.capture());
+            List<CRUDRequest> sent = new ArrayList<>();
+            for (DataBulkRequest bulkRequest : bulkRequests.getAllValues()) {
+                assertThat(bulkRequest.getRequests().size()).isAtMost(2);
+                sent.addAll(bulkRequest.getRequests());
+            }
+            assertThat(sent).containsExactlyElementsIn(finds);
+        }
+    }
+
+    @Test
+    public void shouldSendChunksOfOrderedRequestsInOrder() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        try (BulkRequestChunking chunking = new BulkRequestChunking(2, Long.MAX_VALUE, 3)) {
+            BulkLightblueRequester chunkingRequester =
+                    new BulkLightblueRequester(mockClient, true, chunking);
+
+            DataFindRequest findTester = findUserByUsername("cooltester2000");
+            DataInsertRequest insertTester =
+                    new DataInsertRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
+            DataFindRequest findCoder = findUserByUsername("aw3som3cod3r");
+
+            chunkingRequester.request(findTester, insertTester, findCoder).get();
+
+            ArgumentCaptor<DataBulkRequest> bulkRequests =
+                    ArgumentCaptor.forClass(DataBulkRequest.class);
+            Mockito.verify(mockClient, Mockito.times(2)).bulkData(bulkRequests.capture());
+            assertThat(bulkRequests.getAllValues().get(0).getRequests())
+                    .containsExactly(findTester, insertTester).inOrder();
+            assertThat(bulkRequests.getAllValues().get(1).getRequests())
+                    .containsExactly(findCoder);
+        }
+    }
+
+    @Test
+    public void shouldSendChunksFromCallingThreadOnceChunkingIsClosed() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        List<Thread> sendingThreads = Collections.synchronizedList(new ArrayList<>());
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenAnswer(invocation -> {
+            sendingThreads.add(Thread.currentThread());
+            return bulkResponse;
+        });
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        BulkRequestChunking chunking = new BulkRequestChunking(1, Long.MAX_VALUE, 3);
+        chunking.close();
+
+        new BulkLightblueRequester(mockClient, false, chunking)
+                .request(findUserByUsername("cooltester2000"), findUserByUsername("aw3som3cod3r"))
+                .get();
+
+        assertThat(sendingThreads).containsExactly(Thread.currentThread(), Thread.currentThread());
+    }
+
+    @Test
+    public void shouldOnlyFailFuturesOfRequestsWhichFailOnTheirOwnIfIsolatingFailures()
+            throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        LightblueDataResponse response = Mockito.mock(LightblueDataResponse.class);
+        when(bulkResponse.getResponse(any(CRUDRequest.class))).thenReturn(response);
+
+        DataFindRequest poisonFind = findUserByUsername("poison");
+        LightblueBulkResponseException poisoned =
+                Mockito.mock(LightblueBulkResponseException.class);
+
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenAnswer(invocation -> {
+            DataBulkRequest bulkRequest = (DataBulkRequest) invocation.getArguments()[0];
+            if (bulkRequest.getRequests().contains(poisonFind)) {
+                throw poisoned;
+            }
+            return bulkResponse;
+        });
+
+        BulkLightblueRequester isolatingRequester = new BulkLightblueRequester(mockClient, true,
+                new BulkRequestChunking(Integer.MAX_VALUE, Long.MAX_VALUE, 1, true));
+
+        List<TransformableFuture<LightblueDataResponses>> healthyFutures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            healthyFutures.add(isolatingRequester.request(findUserByUsername("user" + i)));
+        }
+        TransformableFuture<LightblueDataResponses> poisonedFuture =
+                isolatingRequester.request(poisonFind);
+        for (int i = 3; i < 6; i++) {
+            healthyFutures.add(isolatingRequester.request(findUserByUsername("user" + i)));
+        }
+
+        for (TransformableFuture<LightblueDataResponses> healthyFuture : healthyFutures) {
+            assertNotNull(healthyFuture.get());
+        }
+
+        try {
+            poisonedFuture.get();
+            fail("Expected poisoned request to fail.");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isSameAs(poisoned);
+        }
+    }
+
+    @Test
+    public void shouldFailWholeChunkWithoutRetryingIfFailureIsNotFromLightblueErrors()
+            throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueException timedOut = new LightblueException("timed out");
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenThrow(timedOut);
+
+        BulkLightblueRequester isolatingRequester = new BulkLightblueRequester(mockClient, true,
+                new BulkRequestChunking(Integer.MAX_VALUE, Long.MAX_VALUE, 1, true));
+
+        List<TransformableFuture<LightblueDataResponses>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(isolatingRequester.request(findUserByUsername("user" + i)));
+        }
+
+        for (TransformableFuture<LightblueDataResponses> future : futures) {
+            try {
+                future.get();
+                fail("Expected request to fail.");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isSameAs(timedOut);
+            }
+        }
+
+        Mockito.verify(mockClient, Mockito.times(1)).bulkData(any(DataBulkRequest.class));
+    }
+
+    @Test
+    public void shouldFlushInTheBackgroundOnceEnoughRequestsAreQueued() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        try {
+            BulkLightblueRequester flushingRequester = new BulkLightblueRequester(mockClient, true,
+                    BulkRequestChunking.none(), 2, Duration.ofHours(1), flushExecutor);
+
+            TransformableFuture<LightblueDataResponses> futureTester =
+                    flushingRequester.request(findUserByUsername("cooltester2000"));
+
+            Mockito.verify(mockClient, Mockito.after(100).never())
+                    .bulkData(any(DataBulkRequest.class));
+
+            flushingRequester.request(findUserByUsername("aw3som3cod3r"));
+
+            Mockito.verify(mockClient, Mockito.timeout(5000)).bulkData(any(DataBulkRequest.class));
+            assertThat(futureTester.get(5, TimeUnit.SECONDS)).isNotNull();
+            Mockito.verify(mockClient, Mockito.times(1)).bulkData(any(DataBulkRequest.class));
+        } finally {
+            flushExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldFlushInTheBackgroundOnceFirstQueuedRequestHasWaitedLongEnough()
+            throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        try {
+            BulkLightblueRequester flushingRequester = new BulkLightblueRequester(mockClient, true,
+                    BulkRequestChunking.none(), 100, Duration.ofMillis(50), flushExecutor);
+
+            DataFindRequest findTester = findUserByUsername("cooltester2000");
+            DataFindRequest findCoder = findUserByUsername("aw3som3cod3r");
+
+            TransformableFuture<LightblueDataResponses> futureTester =
+                    flushingRequester.request(findTester);
+            TransformableFuture<LightblueDataResponses> futureCoder =
+                    flushingRequester.request(findCoder);
+
+            ArgumentCaptor<DataBulkRequest> bulkRequest =
+                    ArgumentCaptor.forClass(DataBulkRequest.class);
+            Mockito.verify(mockClient, Mockito.timeout(5000)).bulkData(bulkRequest.capture());
+            assertThat(bulkRequest.getValue().getRequests()).containsExactly(findTester, findCoder);
+            assertThat(futureTester.get(5, TimeUnit.SECONDS)).isNotNull();
+            assertThat(futureCoder.get(5, TimeUnit.SECONDS)).isNotNull();
+            Mockito.verify(mockClient, Mockito.times(1)).bulkData(any(DataBulkRequest.class));
+        } finally {
+            flushExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * A request queued while a flush is emptying the queue cannot schedule its own flush, and the
+     * flush already scheduled no longer applies. The window is small, so this repeats queueing a
+     * request just as the previous one's flush starts, with nothing queued after it to flush it
+     * instead, and checks each is flushed without waiting on it.
+     */
+    @Test(timeout = 30000)
+    public void shouldFlushRequestsQueuedWhileAnotherFlushIsInProgress() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        try {
+            BulkLightblueRequester flushingRequester = new BulkLightblueRequester(mockClient, true,
+                    BulkRequestChunking.none(), 100, Duration.ZERO, flushExecutor);
+
+            for (int i = 0; i < 20000; i++) {
+                flushingRequester.request(findUserByUsername("cooltester2000"));
+                TransformableFuture<LightblueDataResponses> futureCoder =
+                        flushingRequester.request(findUserByUsername("aw3som3cod3r"));
+
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                while (!futureCoder.isDone() && System.nanoTime() < deadline) {
+                    Thread.yield();
+                }
+
+                assertTrue("Request " + i + " should have been flushed in the background.",
+                        futureCoder.isDone());
+            }
+        } finally {
+            flushExecutor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldOnlySubmitOneFlushAtATimeOnceEnoughRequestsAreQueued() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        CountDownLatch firstFlushStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstFlush = new CountDownLatch(1);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenAnswer(invocation -> {
+            firstFlushStarted.countDown();
+            releaseFirstFlush.await();
+            return bulkResponse;
+        });
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        AtomicInteger submittedFlushes = new AtomicInteger(0);
+        ScheduledExecutorService flushExecutor = new ScheduledThreadPoolExecutor(1) {
+            @Override
+            public void execute(Runnable command) {
+                submittedFlushes.incrementAndGet();
+                super.execute(command);
+            }
+        };
+
+        try {
+            BulkLightblueRequester flushingRequester = new BulkLightblueRequester(mockClient, true,
+                    BulkRequestChunking.none(), 1, Duration.ofHours(1), flushExecutor);
+
+            flushingRequester.request(findUserByUsername("cooltester2000"));
+            firstFlushStarted.await();
+
+            List<TransformableFuture<LightblueDataResponses>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(flushingRequester.request(findUserByUsername("user" + i)));
+            }
+
+            assertEquals(2, submittedFlushes.get());
+
+            releaseFirstFlush.countDown();
+
+            for (TransformableFuture<LightblueDataResponses> future : futures) {
+                assertThat(future.get(5, TimeUnit.SECONDS)).isNotNull();
+            }
+        } finally {
+            flushExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldFailFuturesOfFlushedRequestsWhichCouldNotBeSent() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        RuntimeException badBody = new RuntimeException("bad body");
+        DataFindRequest badFind = Mockito.mock(DataFindRequest.class);
+        when(badFind.getBody()).thenThrow(badBody);
+
+        ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        try {
+            BulkLightblueRequester flushingRequester = new BulkLightblueRequester(mockClient, true,
+                    BulkRequestChunking.none(), 1, Duration.ofHours(1), flushExecutor);
+
+            TransformableFuture<LightblueDataResponses> futureBad =
+                    flushingRequester.request(badFind);
+
+            try {
+                futureBad.get(5, TimeUnit.SECONDS);
+                fail("Expected request which could not be sent to fail.");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isSameAs(badBody);
+            }
+        } finally {
+            flushExecutor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotQueueCompletionOfTimedGetsBehindOtherCallers() throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(300);
+            return bulkResponse;
+        });
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        // Well more callers than cores, each with its own requester, so each get has a
+        // completer of its own to run.
+        int callers = 4 * Math.max(4, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        CountDownLatch ready = new CountDownLatch(callers);
+        CountDownLatch go = new CountDownLatch(1);
+
+        try {
+            List<Future<LightblueDataResponses>> gets = new ArrayList<>(callers);
+
+            for (int i = 0; i < callers; i++) {
+                BulkLightblueRequester callerRequester = new BulkLightblueRequester(mockClient);
+                TransformableFuture<LightblueDataResponses> futureResponses =
+                        callerRequester.request(findUserByUsername("user" + i));
+
+                gets.add(executor.submit(() -> {
+                    ready.countDown();
+                    go.await();
+                    return futureResponses.get(1, TimeUnit.SECONDS);
+                }));
+            }
+
+            ready.await();
+            go.countDown();
+
+            for (Future<LightblueDataResponses> get : gets) {
+                assertThat(get.get()).isNotNull();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldRunCompletionOfTimedGetsOnCallingThreadOnceCompletionThreadsAreBusy()
+            throws Exception {
+        LightblueClient mockClient = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        Set<String> sendingThreads = ConcurrentHashMap.newKeySet();
+        when(mockClient.bulkData(any(DataBulkRequest.class))).thenAnswer(invocation -> {
+            sendingThreads.add(Thread.currentThread().getName());
+            Thread.sleep(300);
+            return bulkResponse;
+        });
+        when(bulkResponse.getResponse(any(CRUDRequest.class)))
+                .thenReturn(Mockito.mock(LightblueDataResponse.class));
+
+        // More callers than there are threads to complete timed gets.
+        int callers = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        CountDownLatch ready = new CountDownLatch(callers);
+        CountDownLatch go = new CountDownLatch(1);
+
+        try {
+            List<Future<LightblueDataResponses>> gets = new ArrayList<>(callers);
+
+            for (int i = 0; i < callers; i++) {
+                BulkLightblueRequester callerRequester = new BulkLightblueRequester(mockClient);
+                TransformableFuture<LightblueDataResponses> futureResponses =
+                        callerRequester.request(findUserByUsername("user" + i));
+
+                gets.add(executor.submit(() -> {
+                    ready.countDown();
+                    go.await();
+                    return futureResponses.get(5, TimeUnit.SECONDS);
+                }));
+            }
+
+            ready.await();
+            go.countDown();
+
+            for (Future<LightblueDataResponses> get : gets) {
+                assertThat(get.get()).isNotNull();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long completionThreads = sendingThreads.stream()
+                .filter(name -> name.startsWith("bulk-lightblue-requester-"))
+                .count();
+
+        assertThat(completionThreads).isAtMost(64L);
+        assertThat(sendingThreads.size()).isEqualTo(callers);
+    }
+
+    private static DataFindRequest findUserById(String id) {
+        DataFindRequest findUser = new DataFindRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
+        findUser.where(Query.withValue("_id", Query.BinOp.eq, id));
+        findUser.select(Projection.includeFieldRecursively("*"));
+        return findUser;
+    }
+
     private static DataFindRequest findUserByUsername(String username) {
         DataFindRequest findUser = new DataFindRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
         findUser.where(Query.withValue("username", Query.BinOp.eq, username));
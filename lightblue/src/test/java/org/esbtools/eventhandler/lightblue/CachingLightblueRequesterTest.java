@@ -0,0 +1,122 @@
+package org.esbtools.eventhandler.lightblue;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import org.esbtools.eventhandler.lightblue.client.BulkLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.CachingLightblueRequester;
+import org.esbtools.eventhandler.lightblue.client.FindResponseCache;
+import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
+import org.esbtools.eventhandler.lightblue.testing.TestUser;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.Projection;
+import com.redhat.lightblue.client.Query;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import com.redhat.lightblue.client.response.LightblueBulkDataResponse;
+import com.redhat.lightblue.client.response.LightblueDataResponse;
+
+public class CachingLightblueRequesterTest {
+    LightblueClient client;
+    LightblueDataResponse response;
+
+    FindResponseCache cache;
+
+    @Before
+    public void initializeMockClient() throws Exception {
+        client = Mockito.mock(LightblueClient.class);
+        LightblueBulkDataResponse bulkResponse = Mockito.mock(LightblueBulkDataResponse.class);
+        response = Mockito.mock(LightblueDataResponse.class);
+        when(client.bulkData(any(DataBulkRequest.class))).thenReturn(bulkResponse);
+        when(bulkResponse.getResponse(any(CRUDRequest.class))).thenReturn(response);
+
+        cache = new FindResponseCache(Collections.singleton(TestUser.ENTITY_NAME), 100,
+                Duration.ofMinutes(5));
+    }
+
+    @Test
+    public void shouldAnswerEquivalentFindsInLaterBatchesFromTheCache() throws Exception {
+        DataFindRequest findTester = findUserByUsername("cooltester2000");
+        DataFindRequest findTesterAgain = findUserByUsername("cooltester2000");
+
+        assertThat(newBatchRequester().request(findTester).get().forRequest(findTester))
+                .isSameAs(response);
+        assertThat(newBatchRequester().request(findTesterAgain).get().forRequest(findTesterAgain))
+                .isSameAs(response);
+        assertThat(newBatchRequester().tryRequest(findTesterAgain).get()
+                .forRequest(findTesterAgain).getSuccess())
+                .isSameAs(response);
+
+        verify(client, times(1)).bulkData(any(DataBulkRequest.class));
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldOnlySendCacheMissesToLightblue() throws Exception {
+        DataFindRequest findTester = findUserByUsername("cooltester2000");
+        DataFindRequest findCoder = findUserByUsername("aw3som3cod3r");
+
+        newBatchRequester().request(findTester).get();
+        newBatchRequester().request(findTester, findCoder).get();
+
+        ArgumentCaptor<DataBulkRequest> bulkRequest = ArgumentCaptor.forClass(DataBulkRequest.class);
+        verify(client, times(2)).bulkData(bulkRequest.capture());
+        assertThat(bulkRequest.getValue().getRequests()).containsExactly(findCoder);
+    }
+
+    @Test
+    public void shouldNotCacheFindsForEntitiesWhichAreNotOptedIn() throws Exception {
+        cache = new FindResponseCache(Collections.singleton("someOtherEntity"), 100,
+                Duration.ofMinutes(5));
+
+        newBatchRequester().request(findUserByUsername("cooltester2000")).get();
+        newBatchRequester().request(findUserByUsername("cooltester2000")).get();
+
+        verify(client, times(2)).bulkData(any(DataBulkRequest.class));
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.getHitCount() + cache.getMissCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldSendWritesAndEvictCachedResponsesForTheWrittenEntity() throws Exception {
+        DataInsertRequest insertTester =
+                new DataInsertRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
+
+        newBatchRequester().request(findUserByUsername("cooltester2000")).get();
+        assertThat(cache.size()).isEqualTo(1);
+
+        newBatchRequester().request(insertTester).get();
+        assertThat(cache.size()).isEqualTo(0);
+
+        newBatchRequester().request(insertTester).get();
+        newBatchRequester().request(findUserByUsername("cooltester2000")).get();
+
+        verify(client, times(4)).bulkData(any(DataBulkRequest.class));
+        assertThat(cache.getHitCount()).isEqualTo(0);
+    }
+
+    private LightblueRequester newBatchRequester() {
+        return new CachingLightblueRequester(new BulkLightblueRequester(client), cache);
+    }
+
+    private static DataFindRequest findUserByUsername(String username) {
+        DataFindRequest findUser = new DataFindRequest(TestUser.ENTITY_NAME, TestUser.ENTITY_VERSION);
+        findUser.where(Query.withValue("username", Query.BinOp.eq, username));
+        findUser.select(Projection.includeFieldRecursively("*"));
+        return findUser;
+    }
+}
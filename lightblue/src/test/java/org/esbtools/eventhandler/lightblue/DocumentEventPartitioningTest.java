@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.esbtools.eventhandler.lightblue.testing.TypeIdentity;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class DocumentEventPartitioningTest {
+    @Test
+    public void shouldAssignSameIdentityToSamePartition() {
+        DocumentEventPartitioning partitioning = DocumentEventPartitioning.forMember(0, 1, 8);
+
+        Identity identity = new TypeAndValueIdentity(String.class, "foo");
+        Identity sameIdentity = new TypeAndValueIdentity(String.class, "foo");
+
+        assertThat(partitioning.partitionOf(identity))
+                .isEqualTo(partitioning.partitionOf(sameIdentity));
+    }
+
+    @Test
+    public void shouldSpreadIdentitiesAcrossPartitions() {
+        DocumentEventPartitioning partitioning = DocumentEventPartitioning.forMember(0, 1, 8);
+
+        Set<Integer> partitions = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            partitions.add(partitioning.partitionOf(
+                    new TypeAndValueIdentity(String.class, Integer.toString(i))));
+        }
+
+        assertThat(partitions).containsExactly(0, 1, 2, 3, 4, 5, 6, 7);
+    }
+
+    @Test
+    public void shouldAssignDisjointPartitionsCoveringAllPartitionsAmongMembers() {
+        assertThat(DocumentEventPartitioning.forMember(0, 3, 8).getOwnedPartitions())
+                .containsExactly(0, 3, 6).inOrder();
+        assertThat(DocumentEventPartitioning.forMember(1, 3, 8).getOwnedPartitions())
+                .containsExactly(1, 4, 7).inOrder();
+        assertThat(DocumentEventPartitioning.forMember(2, 3, 8).getOwnedPartitions())
+                .containsExactly(2, 5).inOrder();
+    }
+
+    @Test
+    public void shouldOnlyOwnUnpartitionedEventsIfOwningFirstPartition() {
+        assertThat(DocumentEventPartitioning.forMember(0, 2, 4).ownsUnpartitioned()).isTrue();
+        assertThat(DocumentEventPartitioning.forMember(1, 2, 4).ownsUnpartitioned()).isFalse();
+    }
+
+    @Test
+    public void shouldNotAssignPartitionsIfNotPartitioned() {
+        assertThat(DocumentEventPartitioning.none().isPartitioned()).isFalse();
+        assertThat(DocumentEventPartitioning.none()
+                .partitionOf(new TypeIdentity(DocumentEventPartitioningTest.class))).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectOwnedPartitionsOutOfRange() {
+        new DocumentEventPartitioning(4, Arrays.asList(1, 4));
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.esbtools.eventhandler.lightblue.client.EntityIndexes;
+import org.esbtools.eventhandler.lightblue.client.FindRequests;
+import org.esbtools.eventhandler.lightblue.client.UpdateRequests;
+import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
+import org.esbtools.eventhandler.lightblue.testing.LightblueClientConfigurations;
+import org.esbtools.eventhandler.lightblue.testing.LightblueClients;
+import org.esbtools.eventhandler.lightblue.testing.MongoQueries;
+import org.esbtools.eventhandler.lightblue.testing.MultiStringNotification;
+import org.esbtools.eventhandler.lightblue.testing.StringNotification;
+import org.esbtools.eventhandler.lightblue.testing.TestMetadataJson;
+import org.esbtools.lightbluenotificationhook.NotificationEntity;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueClientConfiguration;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.integration.test.LightblueExternalResource;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.request.DataBulkRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that mongo plans the requests we actually send using the indexes declared for them.
+ *
+ * <p>Each test inserts entities resembling a backlog: many of other types or entity names, many
+ * currently processing, and few expired. Against that, the query planner prefers whichever index
+ * narrows its scan the most, rather than whichever it happens to try first.
+ */
+@RunWith(JUnit4.class)
+public class EntityIndexesTest {
+    @ClassRule
+    public static LightblueExternalResource lightblueExternalResource = new LightblueExternalResource(
+            TestMetadataJson.forEntities(DocumentEventEntity.class, NotificationEntity.class));
+
+    LightblueClient client;
+
+    static final Clock fixedClock = Clock.fixed(Instant.now(), ZoneId.of("GMT"));
+    static final Instant expiredProcessingDate = fixedClock.instant().minus(Duration.ofMinutes(10));
+    static final String[] types = {"String"};
+    static final String[] entityNames = {"String"};
+    static final int BATCH_SIZE = 10;
+    static final int MANY = 200;
+
+    @Before
+    public void initializeClientAndDropEntities() throws UnknownHostException {
+        LightblueClientConfiguration config = LightblueClientConfigurations
+                .fromLightblueExternalResource(lightblueExternalResource);
+        client = LightblueClients.withJavaTimeSerializationSupport(config);
+
+        lightblueExternalResource.cleanupMongoCollections(
+                DocumentEventEntity.ENTITY_NAME, NotificationEntity.ENTITY_NAME);
+    }
+
+    @Test
+    public void shouldReplaceAllButIdIndexInDocumentEventMetadata() throws IOException {
+        ObjectNode metadata = (ObjectNode) new ObjectMapper().readTree("{\"entityInfo\":{" +
+                "\"name\":\"documentEvent\",\"indexes\":[" +
+                "{\"name\":\"id\",\"unique\":true,\"fields\":[{\"field\":\"_id\",\"dir\":\"$asc\"}]}," +
+                "{\"name\":\"stale\",\"fields\":[{\"field\":\"status\",\"dir\":\"$asc\"}]}]}}");
+
+        assertThat(EntityIndexes.addTo(metadata)).isTrue();
+
+        List<String> indexNames = new ArrayList<>();
+        metadata.path("entityInfo").path("indexes")
+                .forEach(index -> indexNames.add(index.path("name").asText()));
+
+        assertThat(indexNames).containsExactly("id",
+                EntityIndexes.DOCUMENT_EVENT_PRIORITY.getName(),
+                EntityIndexes.DOCUMENT_EVENT_EXPIRED.getName(),
+                EntityIndexes.DOCUMENT_EVENT_AGE.getName()).inOrder();
+        assertThat(metadata.path("entityInfo").path("indexes").get(1).path("fields").toString())
+                .isEqualTo("[{\"field\":\"canonicalType\",\"dir\":\"$asc\"}," +
+                        "{\"field\":\"status\",\"dir\":\"$asc\"}," +
+                        "{\"field\":\"priority\",\"dir\":\"$desc\"}," +
+                        "{\"field\":\"creationDate\",\"dir\":\"$asc\"}]");
+    }
+
+    @Test
+    public void shouldLeaveMetadataOfEntitiesWithoutDeclaredIndexesAlone() throws IOException {
+        String json = "{\"entityInfo\":{\"name\":\"eventHandlerConfig\"}}";
+        ObjectNode metadata = (ObjectNode) new ObjectMapper().readTree(json);
+
+        assertThat(EntityIndexes.addTo(metadata)).isFalse();
+        assertThat(metadata.toString()).isEqualTo(json);
+    }
+
+    @Test
+    public void shouldCreateDeclaredIndexesForDocumentEventsAndNotifications() throws Exception {
+        assertThat(indexNamesOf(DocumentEventEntity.ENTITY_NAME)).containsAllOf(
+                EntityIndexes.DOCUMENT_EVENT_PRIORITY.getName(),
+                EntityIndexes.DOCUMENT_EVENT_EXPIRED.getName(),
+                EntityIndexes.DOCUMENT_EVENT_AGE.getName());
+        assertThat(indexNamesOf(NotificationEntity.ENTITY_NAME)).containsAllOf(
+                EntityIndexes.NOTIFICATION_OLDEST.getName(),
+                EntityIndexes.NOTIFICATION_EXPIRED.getName(),
+                EntityIndexes.NOTIFICATION_AGE.getName());
+    }
+
+    @Test
+    public void shouldFindUnprocessedAndExpiredDocumentEventsUsingPriorityAndExpiredIndexes()
+            throws Exception {
+        insertDocumentEventBacklog();
+
+        DataBulkRequest findByStatus = FindRequests.priorityDocumentEventsForTypesUpToByStatus(
+                types, DocumentEventPartitioning.none(), BATCH_SIZE, expiredProcessingDate);
+
+        assertUsesIndexes(findByStatus, EntityIndexes.DOCUMENT_EVENT_PRIORITY,
+                EntityIndexes.DOCUMENT_EVENT_EXPIRED);
+    }
+
+    @Test
+    public void shouldFindDocumentEventClaimsUsingPriorityAndExpiredIndexes() throws Exception {
+        insertDocumentEventBacklog();
+
+        DataBulkRequest findClaims = FindRequests.priorityDocumentEventClaimsForTypesUpToByStatus(
+                types, DocumentEventPartitioning.none(), BATCH_SIZE, expiredProcessingDate);
+
+        assertUsesIndexes(findClaims, EntityIndexes.DOCUMENT_EVENT_PRIORITY,
+                EntityIndexes.DOCUMENT_EVENT_EXPIRED);
+    }
+
+    @Test
+    public void shouldFindPartitionedDocumentEventsOwningUnpartitionedUsingPriorityIndex()
+            throws Exception {
+        insertDocumentEventBacklog();
+
+        DocumentEventPartitioning partitioning = DocumentEventPartitioning.forMember(0, 2, 4);
+        assertThat(partitioning.ownsUnpartitioned()).isTrue();
+
+        DataBulkRequest findByStatus = FindRequests.priorityDocumentEventsForTypesUpToByStatus(
+                types, partitioning, BATCH_SIZE, expiredProcessingDate);
+
+        // Events without a partition are found separately, rather than with a disjunction.
+        assertUsesIndexes(findByStatus,
+                EntityIndexes.DOCUMENT_EVENT_PRIORITY, EntityIndexes.DOCUMENT_EVENT_EXPIRED,
+                EntityIndexes.DOCUMENT_EVENT_PRIORITY, EntityIndexes.DOCUMENT_EVENT_EXPIRED);
+        assertNoDisjunctions(findByStatus);
+    }
+
+    @Test
+    public void shouldFindPartitionedDocumentEventsNotOwningUnpartitionedUsingPriorityIndex()
+            throws Exception {
+        insertDocumentEventBacklog();
+
+        DocumentEventPartitioning partitioning = DocumentEventPartitioning.forMember(1, 2, 4);
+        assertThat(partitioning.ownsUnpartitioned()).isFalse();
+
+        DataBulkRequest findByStatus = FindRequests.priorityDocumentEventsForTypesUpToByStatus(
+                types, partitioning, BATCH_SIZE, expiredProcessingDate);
+
+        assertUsesIndexes(findByStatus,
+                EntityIndexes.DOCUMENT_EVENT_PRIORITY, EntityIndexes.DOCUMENT_EVENT_EXPIRED);
+        assertNoDisjunctions(findByStatus);
+    }
+
+    @Test
+    public void shouldFindOnlyUnprocessedDocumentEventsUsingPriorityIndex() throws Exception {
+        insertDocumentEventBacklog();
+
+        assertUsesIndexes(FindRequests.unprocessedPriorityDocumentEventsForTypesUpTo(
+                types, DocumentEventPartitioning.none(), BATCH_SIZE, BATCH_SIZE, false),
+                EntityIndexes.DOCUMENT_EVENT_PRIORITY);
+    }
+
+    @Test
+    public void shouldFindOnlyUnprocessedPartitionedDocumentEventsUsingPriorityIndex()
+            throws Exception {
+        insertDocumentEventBacklog();
+
+        DataBulkRequest findUnprocessed =
+                FindRequests.unprocessedPriorityDocumentEventsForTypesUpTo(types,
+                        DocumentEventPartitioning.forMember(0, 2, 4), BATCH_SIZE, BATCH_SIZE,
+                        false);
+
+        assertUsesIndexes(findUnprocessed,
+                EntityIndexes.DOCUMENT_EVENT_PRIORITY, EntityIndexes.DOCUMENT_EVENT_PRIORITY);
+        assertNoDisjunctions(findUnprocessed);
+    }
+
+    @Test
+    public void shouldReclaimExpiredDocumentEventsUsingExpiredIndex() throws Exception {
+        insertDocumentEventBacklog();
+
+        assertUsesIndex(UpdateRequests.expiredProcessingToUnprocessed(
+                DocumentEventEntity.ENTITY_NAME, DocumentEventEntity.VERSION,
+                expiredProcessingDate),
+                EntityIndexes.DOCUMENT_EVENT_EXPIRED);
+    }
+
+    @Test
+    public void shouldDeleteOldDocumentEventsUsingAgeIndex() throws Exception {
+        insertDocumentEventBacklog();
+
+        PeriodicDeleteOldEntitiesRoute deleter = PeriodicDeleteOldEntitiesRoute
+                .deletingDocumentEventsOlderThan(Duration.ofDays(7), Duration.ofHours(1), client,
+                        "testDomain", new InMemoryLockStrategy(), fixedClock);
+
+        assertUsesIndex(deleter.deleteRequest(fixedClock.instant().minus(Duration.ofDays(7))),
+                EntityIndexes.DOCUMENT_EVENT_AGE);
+    }
+
+    @Test
+    public void shouldFindUnprocessedAndExpiredNotificationsUsingOldestAndExpiredIndexes()
+            throws Exception {
+        insertNotificationBacklog();
+
+        DataBulkRequest findByStatus = FindRequests.oldestNotificationsForEntitiesUpToByStatus(
+                entityNames, BATCH_SIZE, expiredProcessingDate);
+
+        assertUsesIndexes(findByStatus, EntityIndexes.NOTIFICATION_OLDEST,
+                EntityIndexes.NOTIFICATION_EXPIRED);
+    }
+
+    @Test
+    public void shouldFindOnlyUnprocessedNotificationsUsingOldestIndex() throws Exception {
+        insertNotificationBacklog();
+
+        assertUsesIndex(FindRequests.oldestUnprocessedNotificationsForEntitiesUpTo(
+                entityNames, BATCH_SIZE),
+                EntityIndexes.NOTIFICATION_OLDEST);
+    }
+
+    @Test
+    public void shouldReclaimExpiredNotificationsUsingExpiredIndex() throws Exception {
+        insertNotificationBacklog();
+
+        assertUsesIndex(UpdateRequests.expiredProcessingToUnprocessed(
+                NotificationEntity.ENTITY_NAME, NotificationEntity.ENTITY_VERSION,
+                expiredProcessingDate),
+                EntityIndexes.NOTIFICATION_EXPIRED);
+    }
+
+    @Test
+    public void shouldDeleteOldNotificationsUsingAgeIndex() throws Exception {
+        insertNotificationBacklog();
+
+        PeriodicDeleteOldEntitiesRoute deleter = PeriodicDeleteOldEntitiesRoute
+                .deletingNotificationsOlderThan(Duration.ofDays(7), Duration.ofHours(1), client,
+                        "testDomain", new InMemoryLockStrategy(), fixedClock);
+
+        assertUsesIndex(deleter.deleteRequest(fixedClock.instant().minus(Duration.ofDays(7))),
+                EntityIndexes.NOTIFICATION_AGE);
+    }
+
+    /** Requests in a bulk request are checked in order against the expected indexes. */
+    private void assertUsesIndexes(DataBulkRequest bulkRequest, EntityIndexes.Index... indexes)
+            throws IOException {
+        List<CRUDRequest> requests = bulkRequest.getRequests();
+
+        assertThat(requests).hasSize(indexes.length);
+
+        for (int i = 0; i < indexes.length; i++) {
+            assertUsesIndex(requests.get(i), indexes[i]);
+        }
+    }
+
+    private static void assertNoDisjunctions(DataBulkRequest bulkRequest) {
+        for (CRUDRequest request : bulkRequest.getRequests()) {
+            assertThat(request.getBody()).doesNotContain("$or");
+        }
+    }
+
+    private void assertUsesIndex(CRUDRequest request, EntityIndexes.Index index)
+            throws IOException {
+        Set<String> indexesUsed = MongoQueries.indexesUsedBy(request,
+                collection(request.getEntityName()));
+
+        assertThat(indexesUsed).named("indexes used by " + request.getBody())
+                .containsExactly(index.getName());
+    }
+
+    private List<String> indexNamesOf(String collectionName) throws UnknownHostException {
+        List<String> names = new ArrayList<>();
+
+        for (DBObject index : collection(collectionName).getIndexInfo()) {
+            names.add(String.valueOf(index.get("name")));
+        }
+
+        return names;
+    }
+
+    private DBCollection collection(String collectionName) throws UnknownHostException {
+        return lightblueExternalResource.getControllerInstance().getMongoDB()
+                .getCollection(collectionName);
+    }
+
+    /**
+     * Many unprocessed events of another type, a few unprocessed events of the type we look for,
+     * many of them processing, and a couple expired.
+     */
+    private void insertDocumentEventBacklog() throws LightblueException {
+        ZonedDateTime now = ZonedDateTime.now(fixedClock);
+        ZonedDateTime expired = ZonedDateTime.ofInstant(
+                expiredProcessingDate.minus(Duration.ofMinutes(1)), fixedClock.getZone());
+
+        List<DocumentEventEntity> entities = new ArrayList<>();
+        entities.addAll(documentEvents("Other", MANY, DocumentEventEntity.Status.unprocessed, null));
+        entities.addAll(documentEvents("String", 5, DocumentEventEntity.Status.unprocessed, null));
+        entities.addAll(documentEvents("String", MANY, DocumentEventEntity.Status.processing, now));
+        entities.addAll(documentEvents("String", 2, DocumentEventEntity.Status.processing, expired));
+
+        DataInsertRequest insertEntities = new DataInsertRequest(
+                DocumentEventEntity.ENTITY_NAME, DocumentEventEntity.VERSION);
+        insertEntities.create(entities.toArray());
+        client.data(insertEntities);
+    }
+
+    /** Like {@link #insertDocumentEventBacklog()}, but for notifications. */
+    private void insertNotificationBacklog() throws LightblueException {
+        Date now = Date.from(fixedClock.instant());
+        Date expired = Date.from(expiredProcessingDate.minus(Duration.ofMinutes(1)));
+
+        List<NotificationEntity> entities = new ArrayList<>();
+
+        for (int i = 0; i < MANY; i++) {
+            entities.add(new MultiStringNotification(
+                    Collections.singletonList(Integer.toString(i)),
+                    NotificationEntity.Operation.insert, "tester", fixedClock)
+                    .wrappedNotificationEntity());
+            entities.add(stringNotification(i, NotificationEntity.Status.processing, now));
+        }
+
+        entities.add(stringNotification(-1, NotificationEntity.Status.unprocessed, null));
+        entities.add(stringNotification(-2, NotificationEntity.Status.processing, expired));
+
+        DataInsertRequest insertEntities = new DataInsertRequest(
+                NotificationEntity.ENTITY_NAME, NotificationEntity.ENTITY_VERSION);
+        insertEntities.create(entities.toArray());
+        client.data(insertEntities);
+    }
+
+    private static List<DocumentEventEntity> documentEvents(String type, int amount,
+            DocumentEventEntity.Status status, @Nullable ZonedDateTime processingDate) {
+        List<DocumentEventEntity> entities = new ArrayList<>(amount);
+
+        for (int i = 0; i < amount; i++) {
+            DocumentEventEntity entity = DocumentEventEntity.newlyCreated(null, type, i % 100,
+                    ZonedDateTime.now(fixedClock).minusSeconds(i),
+                    new DocumentEventEntity.KeyAndValue("value", Integer.toString(i)));
+            entity.setStatus(status);
+            entity.setProcessingDate(processingDate);
+            entities.add(entity);
+        }
+
+        return entities;
+    }
+
+    private static NotificationEntity stringNotification(int value,
+            NotificationEntity.Status status, @Nullable Date processingDate) {
+        NotificationEntity entity = new StringNotification(Integer.toString(value),
+                NotificationEntity.Operation.insert, "tester", fixedClock)
+                .wrappedNotificationEntity();
+        entity.setStatus(status);
+        entity.setProcessingDate(processingDate);
+        return entity;
+    }
+}
@@ -20,9 +20,14 @@ package org.esbtools.eventhandler.lightblue;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import org.esbtools.eventhandler.FailedDocumentEvent;
+import org.esbtools.eventhandler.lightblue.client.BulkRequestChunking;
 import org.esbtools.eventhandler.lightblue.config.MutableLightblueDocumentEventRepositoryConfig;
+import org.esbtools.eventhandler.lightblue.LightblueDocumentEventRepository.SharedIdentityEvents;
+import org.esbtools.eventhandler.lightblue.locking.LockedResource;
+import org.esbtools.eventhandler.lightblue.locking.LockedResources;
 import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
 import org.esbtools.eventhandler.lightblue.testing.LightblueClientConfigurations;
 import org.esbtools.eventhandler.lightblue.testing.LightblueClients;
@@ -31,6 +36,7 @@ import org.esbtools.eventhandler.lightblue.testing.SlowDataLightblueClient;
 import org.esbtools.eventhandler.lightblue.testing.StringDocumentEvent;
 import org.esbtools.eventhandler.lightblue.testing.TestLogger;
 import org.esbtools.eventhandler.lightblue.testing.TestMetadataJson;
+import org.esbtools.eventhandler.lightblue.testing.VersionedStringDocumentEvent;
 
 import com.redhat.lightblue.client.LightblueClient;
 import com.redhat.lightblue.client.LightblueClientConfiguration;
@@ -38,9 +44,12 @@ import com.redhat.lightblue.client.LightblueException;
 import com.redhat.lightblue.client.Projection;
 import com.redhat.lightblue.client.Query;
 import com.redhat.lightblue.client.integration.test.LightblueExternalResource;
+import com.redhat.lightblue.client.request.DataBulkRequest;
 import com.redhat.lightblue.client.request.data.DataFindRequest;
 import com.redhat.lightblue.client.request.data.DataInsertRequest;
 import com.redhat.lightblue.client.request.data.DataSaveRequest;
+import com.redhat.lightblue.client.request.data.DataUpdateRequest;
+import com.redhat.lightblue.client.response.LightblueBulkResponseException;
 
 import org.hamcrest.CoreMatchers;
 import org.junit.Before;
@@ -49,6 +58,9 @@ import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
 
 import javax.annotation.Nullable;
 import java.net.UnknownHostException;
@@ -74,6 +86,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class LightblueDocumentEventRepositoryTest {
@@ -102,6 +115,7 @@ public class LightblueDocumentEventRepositoryTest {
             new HashMap<String, DocumentEventFactory>() {{
                 put("String", StringDocumentEvent::new);
                 put("MultiString", MultiStringDocumentEvent::new);
+                put("VersionedString", VersionedStringDocumentEvent::new);
                 put("Fails", (entity, requester) -> { throw new RuntimeException("Uh oh"); });
             }};
 
@@ -288,6 +302,36 @@ public class LightblueDocumentEventRepositoryTest {
         assertThat(priorities).containsExactly(100, 99, 70, 55, 50);
     }
 
+    @Test
+    public void shouldRetrieveUnprocessedAndExpiredDocumentEventsTogetherInPriorityOrder()
+            throws Exception {
+        Instant timedOut = fixedClock.instant()
+                .minus(PROCESSING_TIMEOUT)
+                .minus(Duration.ofMillis(1));
+
+        DocumentEventEntity expired90 = newRandomStringDocumentEventEntityWithPriorityOverride(90);
+        expired90.setStatus(DocumentEventEntity.Status.processing);
+        expired90.setProcessingDate(ZonedDateTime.ofInstant(timedOut, fixedClock.getZone()));
+
+        DocumentEventEntity expired10 = newRandomStringDocumentEventEntityWithPriorityOverride(10);
+        expired10.setStatus(DocumentEventEntity.Status.processing);
+        expired10.setProcessingDate(ZonedDateTime.ofInstant(timedOut, fixedClock.getZone()));
+
+        insertDocumentEventEntities(
+                newRandomStringDocumentEventEntityWithPriorityOverride(100),
+                expired90,
+                newRandomStringDocumentEventEntityWithPriorityOverride(50),
+                expired10,
+                newRandomStringDocumentEventEntityWithPriorityOverride(5));
+
+        List<Integer> priorities = repository.retrievePriorityDocumentEventsUpTo(3).stream()
+                .map(LightblueDocumentEvent::wrappedDocumentEventEntity)
+                .map(DocumentEventEntity::getPriority)
+                .collect(Collectors.toList());
+
+        assertThat(priorities).containsExactly(100, 90, 50).inOrder();
+    }
+
     @Test
     public void shouldIgnoreSupersededEventsAndMarkAsSupersededAndTrackVictimIds() throws Exception {
         Clock creationTimeClock = Clock.offset(fixedClock, Duration.ofHours(1).negated());
@@ -333,6 +377,66 @@ public class LightblueDocumentEventRepositoryTest {
         assertThat(supersededSurvivorOfIds).named("superseded entities survivor of ids").isEmpty();
     }
 
+    @Test
+    public void shouldSupersedeAllButHighestVersionOfCoalescableEventsWithTheSameKey()
+            throws Exception {
+        insertDocumentEventEntities(
+                newVersionedStringDocumentEventEntity("coalesced", 3),
+                newVersionedStringDocumentEventEntity("coalesced", 1),
+                newVersionedStringDocumentEventEntity("coalesced", 5),
+                newVersionedStringDocumentEventEntity("coalesced", 2));
+
+        List<LightblueDocumentEvent> retrieved = repository.retrievePriorityDocumentEventsUpTo(5);
+
+        List<DocumentEventEntity> supersededEntities = findDocumentEventEntitiesWhere(
+                Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.superseded));
+        List<DocumentEventEntity> survivorEntities = findDocumentEventEntitiesWhere(
+                Query.withValue("status", Query.BinOp.neq, DocumentEventEntity.Status.superseded));
+
+        assertEquals(1, retrieved.size());
+        assertEquals(5, ((VersionedStringDocumentEvent) retrieved.get(0)).version());
+        assertEquals(1, survivorEntities.size());
+        assertEquals(3, supersededEntities.size());
+
+        List<String> supersededIds = supersededEntities.stream()
+                .map(DocumentEventEntity::get_id)
+                .collect(Collectors.toList());
+
+        assertThat(survivorEntities.get(0).getSurvivorOfIds())
+                .containsExactlyElementsIn(supersededIds);
+    }
+
+    @Test
+    public void shouldSupersedeCoalescableEventsWithNonCoalescableEventsOfTheSameIdentity()
+            throws Exception {
+        insertDocumentEventEntities(
+                newVersionedStringDocumentEventEntity("mixed", 1),
+                newStringDocumentEventEntity("mixed"),
+                newVersionedStringDocumentEventEntity("mixed", 2),
+                newVersionedStringDocumentEventEntity("other", 1));
+
+        List<LightblueDocumentEvent> retrieved = repository.retrievePriorityDocumentEventsUpTo(5);
+
+        List<DocumentEventEntity> supersededEntities = findDocumentEventEntitiesWhere(
+                Query.withValue("status", Query.BinOp.eq, DocumentEventEntity.Status.superseded));
+
+        assertEquals(2, retrieved.size());
+        assertThat(retrieved.stream()
+                .filter(e -> e instanceof StringDocumentEvent)
+                .map(e -> ((StringDocumentEvent) e).value())
+                .collect(Collectors.toList()))
+                .containsExactly("mixed");
+        assertThat(retrieved.stream()
+                .filter(e -> e instanceof VersionedStringDocumentEvent)
+                .map(e -> ((VersionedStringDocumentEvent) e).value())
+                .collect(Collectors.toList()))
+                .containsExactly("other");
+        assertThat(supersededEntities.stream()
+                .map(e -> e.getParameterByKey("version"))
+                .collect(Collectors.toList()))
+                .containsExactly("1", "2");
+    }
+
     @Test
     public void shouldCheckIfLowerPriorityEventsSupersedeHigherPriorityEventsAndMarkAsSupersededAndTrackVictimsIds()
             throws Exception {
@@ -948,6 +1052,211 @@ public class LightblueDocumentEventRepositoryTest {
         assertEquals(1, repository.retrievePriorityDocumentEventsUpTo(10).size());
     }
 
+    @Test
+    public void shouldOnlyRetrieveEventsInOwnedPartitions() throws Exception {
+        LightblueDocumentEventRepository member0Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.forMember(0, 2, 4));
+        LightblueDocumentEventRepository member1Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.forMember(1, 2, 4));
+
+        member0Repository.addNewDocumentEvents(randomNewStringDocumentEvents(10));
+
+        List<LightblueDocumentEvent> member0Events =
+                member0Repository.retrievePriorityDocumentEventsUpTo(10);
+        List<LightblueDocumentEvent> member1Events =
+                member1Repository.retrievePriorityDocumentEventsUpTo(10);
+
+        assertEquals(10, member0Events.size() + member1Events.size());
+
+        for (LightblueDocumentEvent event : member0Events) {
+            assertThat(member0Repository.getPartitioning().getOwnedPartitions())
+                    .contains(event.wrappedDocumentEventEntity().getPartition());
+        }
+
+        for (LightblueDocumentEvent event : member1Events) {
+            assertThat(member1Repository.getPartitioning().getOwnedPartitions())
+                    .contains(event.wrappedDocumentEventEntity().getPartition());
+        }
+    }
+
+    @Test
+    public void shouldRetrieveUnpartitionedEventsOnlyInOwnerOfFirstPartition() throws Exception {
+        insertDocumentEventEntities(newStringDocumentEventEntity("unpartitioned"));
+
+        LightblueDocumentEventRepository member1Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.forMember(1, 2, 4));
+        LightblueDocumentEventRepository member0Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.forMember(0, 2, 4));
+
+        assertThat(member1Repository.retrievePriorityDocumentEventsUpTo(10)).isEmpty();
+        assertThat(member0Repository.retrievePriorityDocumentEventsUpTo(10)).hasSize(1);
+    }
+
+    @Test
+    public void shouldRetrieveDifferentEventsInConcurrentPriorityWindows() throws Exception {
+        LightblueDocumentEventRepository poller0Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.none(), null,
+                new PriorityWindowing(0, 2));
+        LightblueDocumentEventRepository poller1Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.none(), null,
+                new PriorityWindowing(1, 2));
+
+        repository.addNewDocumentEvents(randomNewStringDocumentEvents(20));
+
+        List<LightblueDocumentEvent> poller0Events =
+                poller0Repository.retrievePriorityDocumentEventsUpTo(10);
+        List<LightblueDocumentEvent> poller1Events =
+                poller1Repository.retrievePriorityDocumentEventsUpTo(10);
+
+        assertEquals(10, poller0Events.size());
+        assertEquals(10, poller1Events.size());
+
+        List<String> poller0Ids = poller0Events.stream()
+                .map(e -> e.wrappedDocumentEventEntity().get_id())
+                .collect(Collectors.toList());
+        List<String> poller1Ids = poller1Events.stream()
+                .map(e -> e.wrappedDocumentEventEntity().get_id())
+                .collect(Collectors.toList());
+
+        assertThat(poller0Ids).containsNoneIn(poller1Ids);
+    }
+
+    @Test
+    public void shouldReadFirstPriorityWindowWhenWindowIsPastEndOfBacklog() throws Exception {
+        LightblueDocumentEventRepository poller1Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.none(), null,
+                new PriorityWindowing(1, 2));
+
+        repository.addNewDocumentEvents(randomNewStringDocumentEvents(5));
+
+        assertThat(poller1Repository.retrievePriorityDocumentEventsUpTo(10)).hasSize(5);
+    }
+
+    @Test
+    public void shouldMergeHighestPriorityExpiredEventsIntoLaterPriorityWindows()
+            throws Exception {
+        LightblueDocumentEventRepository poller1Repository = new LightblueDocumentEventRepository(
+                client, lockStrategy, config, documentEventFactoriesByType, fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.none(), null,
+                new PriorityWindowing(1, 2));
+
+        Instant timedOut = fixedClock.instant()
+                .minus(PROCESSING_TIMEOUT)
+                .minus(Duration.ofMillis(1));
+
+        DocumentEventEntity expired90 = newRandomStringDocumentEventEntityWithPriorityOverride(90);
+        expired90.setStatus(DocumentEventEntity.Status.processing);
+        expired90.setProcessingDate(ZonedDateTime.ofInstant(timedOut, fixedClock.getZone()));
+
+        insertDocumentEventEntities(expired90);
+
+        for (int i = 0; i < DOCUMENT_EVENT_BATCH_SIZE * 2; i++) {
+            insertDocumentEventEntities(newRandomStringDocumentEventEntityWithPriorityOverride(50));
+        }
+
+        // Only unprocessed events are windowed, so the expired event is not skipped along with the
+        // first window.
+        List<Integer> priorities = poller1Repository
+                .retrievePriorityDocumentEventsUpTo(DOCUMENT_EVENT_BATCH_SIZE).stream()
+                .map(LightblueDocumentEvent::wrappedDocumentEventEntity)
+                .map(DocumentEventEntity::getPriority)
+                .collect(Collectors.toList());
+
+        assertThat(priorities).hasSize(DOCUMENT_EVENT_BATCH_SIZE);
+        assertThat(priorities.get(0)).isEqualTo(90);
+    }
+
+    @Test
+    public void shouldRetrieveEventsInFullWhenClaimingBeforeFetching() throws Exception {
+        LightblueDocumentEventRepository claimingRepository = newClaimingRepository();
+
+        DocumentEventEntity entity = newStringDocumentEventEntity("foo");
+        entity.setSourceNotificationId("notification");
+        entity.addSurvivorOfIds("victim1", "victim2");
+        insertDocumentEventEntities(entity);
+
+        List<LightblueDocumentEvent> retrieved =
+                claimingRepository.retrievePriorityDocumentEventsUpTo(10);
+
+        assertThat(retrieved).hasSize(1);
+
+        DocumentEventEntity retrievedEntity = retrieved.get(0).wrappedDocumentEventEntity();
+        assertEquals("notification", retrievedEntity.getSourceNotificationId());
+        assertThat(retrievedEntity.getSurvivorOfIds()).containsExactly("victim1", "victim2");
+        assertEquals(DocumentEventEntity.Status.processing, retrievedEntity.getStatus());
+    }
+
+    @Test
+    public void shouldOnlyFetchClaimedEventsWhoseIdentitiesWereLocked() throws Exception {
+        LightblueDocumentEventRepository claimingRepository = newClaimingRepository();
+
+        insertDocumentEventEntities(
+                newStringDocumentEventEntity("locked"),
+                newStringDocumentEventEntity("available"));
+
+        String lockedResourceId =
+                new TypeAndValueIdentity(StringDocumentEvent.class, "locked").getResourceId();
+
+        try (LockedResource<String> ignored = lockStrategy.forceAcquire(lockedResourceId)) {
+            List<LightblueDocumentEvent> retrieved =
+                    claimingRepository.retrievePriorityDocumentEventsUpTo(10);
+
+            assertThat(retrieved).hasSize(1);
+            assertEquals("available",
+                    ((StringDocumentEvent) retrieved.get(0)).value());
+        }
+    }
+
+    @Test
+    public void shouldReportIdentitiesWhichWereUnavailableInAnyRoundOfLocking() throws Exception {
+        Identity locked1 = new TypeAndValueIdentity(StringDocumentEvent.class, "locked1");
+        Identity available1 = new TypeAndValueIdentity(StringDocumentEvent.class, "available1");
+        Identity locked2 = new TypeAndValueIdentity(StringDocumentEvent.class, "locked2");
+        Identity available2 = new TypeAndValueIdentity(StringDocumentEvent.class, "available2");
+
+        try (LockedResource<String> ignored1 = lockStrategy.forceAcquire(locked1.getResourceId());
+             LockedResource<String> ignored2 = lockStrategy.forceAcquire(locked2.getResourceId());
+             LockedResources<SharedIdentityEvents> locks = SharedIdentityEvents.lockIdentities(2,
+                     Arrays.asList(locked1, available1, locked2, available2), lockStrategy,
+                     fixedClock)) {
+            assertThat(locks.getLocks().stream()
+                    .map(lock -> lock.getResource().identity)
+                    .collect(Collectors.toList()))
+                    .containsExactly(available1, available2);
+            assertThat(locks.getUnavailable().stream()
+                    .map(unavailable -> unavailable.identity)
+                    .collect(Collectors.toList()))
+                    .containsExactly(locked1, locked2);
+        }
+    }
+
+    @Test
+    public void shouldMergeEventsInFullWhenClaimingBeforeFetching() throws Exception {
+        LightblueDocumentEventRepository claimingRepository = newClaimingRepository();
+
+        DocumentEventEntity[] inserted = insertDocumentEventEntities(
+                new MultiStringDocumentEvent(null, Arrays.asList("1", "2"), fixedClock)
+                        .wrappedDocumentEventEntity(),
+                new MultiStringDocumentEvent(null, Arrays.asList("2", "3"), fixedClock)
+                        .wrappedDocumentEventEntity());
+
+        List<LightblueDocumentEvent> retrieved =
+                claimingRepository.retrievePriorityDocumentEventsUpTo(10);
+
+        assertThat(retrieved).hasSize(1);
+        assertThat(((MultiStringDocumentEvent) retrieved.get(0)).values())
+                .containsExactly("1", "2", "3");
+        assertThat(retrieved.get(0).wrappedDocumentEventEntity().getSurvivorOfIds())
+                .containsExactly(inserted[0].get_id(), inserted[1].get_id());
+    }
+
     @Test
     public void shouldReturnEventsWhichFailedToParse() throws Exception {
         DocumentEventEntity gonnaFail = DocumentEventEntity.newlyCreated(null, "Fails", 50,
@@ -965,6 +1274,40 @@ public class LightblueDocumentEventRepositoryTest {
         retrieved.get(0).lookupDocument().get();
     }
 
+    @Test
+    public void shouldNotRetryFailedWritesEvenIfIsolatingFailures() throws Exception {
+        LightblueBulkResponseException failedWrites =
+                Mockito.mock(LightblueBulkResponseException.class);
+        AtomicInteger writeAttempts = new AtomicInteger();
+        LightblueClient failingWritesClient =
+                Mockito.mock(LightblueClient.class, AdditionalAnswers.delegatesTo(client));
+
+        Mockito.doAnswer(invocation -> {
+            DataBulkRequest bulkRequest = (DataBulkRequest) invocation.getArguments()[0];
+            if (bulkRequest.getRequests().stream().anyMatch(request ->
+                    request instanceof DataUpdateRequest || request instanceof DataInsertRequest)) {
+                writeAttempts.incrementAndGet();
+                throw failedWrites;
+            }
+            return client.bulkData(bulkRequest);
+        }).when(failingWritesClient).bulkData(Matchers.any(DataBulkRequest.class));
+
+        repository = new LightblueDocumentEventRepository(failingWritesClient, lockStrategy,
+                config, documentEventFactoriesByType, fixedClock, null,
+                new BulkRequestChunking(Integer.MAX_VALUE, Long.MAX_VALUE, 1, true));
+
+        insertDocumentEventEntities(randomNewDocumentEventEntities(5));
+
+        try {
+            repository.retrievePriorityDocumentEventsUpTo(5);
+            fail("Expected failed writes to fail retrieval.");
+        } catch (LightblueBulkResponseException e) {
+            assertThat(e).isSameAs(failedWrites);
+        }
+
+        assertEquals(1, writeAttempts.get());
+    }
+
     private List<DocumentEventEntity> findDocumentEventEntitiesWhere(@Nullable Query query)
             throws LightblueException {
         DataFindRequest find = new DataFindRequest(
@@ -995,6 +1338,17 @@ public class LightblueDocumentEventRepositoryTest {
                 .wrappedDocumentEventEntity();
     }
 
+    private LightblueDocumentEventRepository newClaimingRepository() {
+        return new LightblueDocumentEventRepository(client, lockStrategy, config,
+                documentEventFactoriesByType, fixedClock, null, BulkRequestChunking.none(),
+                DocumentEventPartitioning.none(), null, PriorityWindowing.none(), true);
+    }
+
+    private DocumentEventEntity newVersionedStringDocumentEventEntity(String value, long version) {
+        return new VersionedStringDocumentEvent(null, value, version, fixedClock)
+                .wrappedDocumentEventEntity();
+    }
+
     private DocumentEventEntity newStringDocumentEventEntity(String value) {
         return new StringDocumentEvent(null, value, fixedClock).wrappedDocumentEventEntity();
     }
@@ -179,6 +179,39 @@ public class LightblueNotificationRepositoryTest {
                 .containsExactly("1", "2", "3");
     }
 
+    @Test
+    public void shouldRetrieveUnprocessedAndExpiredNotificationsTogetherOldestFirst()
+            throws Exception {
+        Instant timedOut = fixedClock.instant()
+                .minus(PROCESSING_TIMEOUT)
+                .minus(Duration.ofMillis(1));
+
+        NotificationEntity expired2 = notificationEntityForStringInsert("2",
+                fixedClock.instant().plus(1, ChronoUnit.MINUTES));
+        expired2.setStatus(NotificationEntity.Status.processing);
+        expired2.setProcessingDate(Date.from(timedOut));
+
+        NotificationEntity expired4 = notificationEntityForStringInsert("4",
+                fixedClock.instant().plus(3, ChronoUnit.MINUTES));
+        expired4.setStatus(NotificationEntity.Status.processing);
+        expired4.setProcessingDate(Date.from(timedOut));
+
+        insertNotificationEntities(
+                notificationEntityForStringInsert("3", fixedClock.instant().plus(2, ChronoUnit.MINUTES)),
+                expired4,
+                notificationEntityForStringInsert("1", fixedClock.instant()),
+                expired2);
+
+        List<LightblueNotification> retrieved = repository.retrieveOldestNotificationsUpTo(3);
+
+        assertThat(retrieved.stream()
+                .map(notification -> notification
+                        .wrappedNotificationEntity()
+                        .getEntityDataForField("value"))
+                .collect(Collectors.toList()))
+                .containsExactly("1", "2", "3").inOrder();
+    }
+
     @Test
     public void shouldMarkRetrievedNotificationsAsProcessing() throws Exception {
         insertNotificationEntities(randomNotificationEntities(4));
@@ -0,0 +1,268 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import org.esbtools.eventhandler.lightblue.client.BulkRequestChunking;
+import org.esbtools.eventhandler.lightblue.config.MutableLightblueDocumentEventRepositoryConfig;
+import org.esbtools.eventhandler.lightblue.config.MutableLightblueNotificationRepositoryConfig;
+import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
+import org.esbtools.eventhandler.lightblue.testing.LightblueClientConfigurations;
+import org.esbtools.eventhandler.lightblue.testing.LightblueClients;
+import org.esbtools.eventhandler.lightblue.testing.StringDocumentEvent;
+import org.esbtools.eventhandler.lightblue.testing.StringNotification;
+import org.esbtools.eventhandler.lightblue.testing.TestMetadataJson;
+import org.esbtools.lightbluenotificationhook.NotificationEntity;
+
+import com.google.common.truth.Truth;
+import com.jayway.awaitility.Awaitility;
+import com.redhat.lightblue.client.LightblueClient;
+import com.redhat.lightblue.client.LightblueClientConfiguration;
+import com.redhat.lightblue.client.LightblueException;
+import com.redhat.lightblue.client.Projection;
+import com.redhat.lightblue.client.Query;
+import com.redhat.lightblue.client.integration.test.LightblueExternalResource;
+import com.redhat.lightblue.client.request.data.DataFindRequest;
+import com.redhat.lightblue.client.request.data.DataInsertRequest;
+import org.apache.camel.RoutesBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.net.UnknownHostException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+public class PeriodicReclaimExpiredEntitiesRouteTest extends CamelTestSupport {
+    @ClassRule
+    public static LightblueExternalResource lightblueExternalResource = new LightblueExternalResource(
+            TestMetadataJson.forEntities(DocumentEventEntity.class, NotificationEntity.class));
+
+    LightblueClient client;
+    Clock fixedClock = Clock.fixed(Instant.now(), ZoneId.of("GMT"));
+    InMemoryLockStrategy lockStrategy = new InMemoryLockStrategy();
+
+    PeriodicReclaimExpiredEntitiesRoute docEventsReclaimerRoute;
+    PeriodicReclaimExpiredEntitiesRoute notificationsReclaimerRoute;
+
+    static final Duration PROCESSING_TIMEOUT = Duration.ofMinutes(10);
+    static final Duration RECLAIM_INTERVAL = Duration.ofSeconds(2);
+
+    @Before
+    public void dropEntities() throws UnknownHostException {
+        lightblueExternalResource.cleanupMongoCollections(
+                DocumentEventEntity.ENTITY_NAME, NotificationEntity.ENTITY_NAME);
+    }
+
+    @Override
+    public void doPreSetup() {
+        LightblueClientConfiguration lbClientConfig = LightblueClientConfigurations
+                .fromLightblueExternalResource(lightblueExternalResource);
+        client = LightblueClients.withJavaTimeSerializationSupport(lbClientConfig);
+
+        docEventsReclaimerRoute = PeriodicReclaimExpiredEntitiesRoute
+                .reclaimingExpiredDocumentEvents(
+                        new MutableLightblueDocumentEventRepositoryConfig(
+                                Collections.singleton("String"), 10, PROCESSING_TIMEOUT,
+                                Duration.ofMinutes(2)),
+                        RECLAIM_INTERVAL, client, "backoffice", lockStrategy, fixedClock);
+        notificationsReclaimerRoute = PeriodicReclaimExpiredEntitiesRoute
+                .reclaimingExpiredNotifications(
+                        new MutableLightblueNotificationRepositoryConfig(
+                                Collections.singleton("String"), PROCESSING_TIMEOUT,
+                                Duration.ofMinutes(2)),
+                        RECLAIM_INTERVAL, client, "backoffice", lockStrategy, fixedClock);
+
+        // Reset locks, start with lock taken
+        lockStrategy.releaseAll();
+        lockStrategy.forceAcquire(docEventsReclaimerRoute.reclaimerLockResourceId);
+        lockStrategy.forceAcquire(notificationsReclaimerRoute.reclaimerLockResourceId);
+    }
+
+    @Override
+    protected RoutesBuilder[] createRouteBuilders() throws Exception {
+        return new PeriodicReclaimExpiredEntitiesRoute[]{
+                docEventsReclaimerRoute, notificationsReclaimerRoute};
+    }
+
+    @Test
+    public void shouldReclaimExpiredDocumentEventsAndNotificationsIfCanAcquireLocks()
+            throws Exception {
+        Instant expired = fixedClock.instant()
+                .minus(PROCESSING_TIMEOUT)
+                .minus(1, ChronoUnit.SECONDS);
+
+        Instant notExpired = fixedClock.instant()
+                .minus(PROCESSING_TIMEOUT)
+                .plus(1, ChronoUnit.SECONDS);
+
+        insertDocumentEventsProcessingSince(expired, 10);
+        insertDocumentEventsProcessingSince(notExpired, 5);
+        insertNotificationsProcessingSince(expired, 10);
+        insertNotificationsProcessingSince(notExpired, 5);
+
+        lockStrategy.releaseAll();
+
+        List<DocumentEventEntity> reclaimedDocEvents = Awaitility.await()
+                .until(() -> findDocumentEventsWithStatus("unprocessed"), Matchers.hasSize(10));
+
+        List<NotificationEntity> reclaimedNotifications = Awaitility.await()
+                .until(() -> findNotificationsWithStatus("unprocessed"), Matchers.hasSize(10));
+
+        Truth.assertThat(reclaimedDocEvents.stream()
+                .map(DocumentEventEntity::getProcessingDate)
+                .map(ZonedDateTime::toInstant)
+                .distinct()
+                .collect(Collectors.toList()))
+                .containsExactly(expired);
+
+        Truth.assertThat(reclaimedNotifications.stream()
+                .map(NotificationEntity::getProcessingDate)
+                .map(Date::toInstant)
+                .distinct()
+                .collect(Collectors.toList()))
+                .containsExactly(expired);
+
+        Truth.assertThat(findDocumentEventsWithStatus("processing")).hasSize(5);
+        Truth.assertThat(findNotificationsWithStatus("processing")).hasSize(5);
+    }
+
+    @Test
+    public void shouldNotReclaimExpiredDocumentEventsAndNotificationsIfCannotAcquireLock()
+            throws Exception {
+        Instant expired = fixedClock.instant()
+                .minus(PROCESSING_TIMEOUT)
+                .minus(1, ChronoUnit.SECONDS);
+
+        insertDocumentEventsProcessingSince(expired, 10);
+        insertNotificationsProcessingSince(expired, 10);
+
+        Thread.sleep(RECLAIM_INTERVAL.multipliedBy(3).toMillis());
+
+        Truth.assertThat(findDocumentEventsWithStatus("processing")).hasSize(10);
+        Truth.assertThat(findNotificationsWithStatus("processing")).hasSize(10);
+    }
+
+    @Test
+    public void shouldLetUnprocessedOnlyRepositoryRetrieveReclaimedDocumentEvents()
+            throws Exception {
+        MutableLightblueDocumentEventRepositoryConfig config =
+                new MutableLightblueDocumentEventRepositoryConfig(
+                        Collections.singleton("String"), 10, PROCESSING_TIMEOUT,
+                        Duration.ofMinutes(2));
+        LightblueDocumentEventRepository repository = new LightblueDocumentEventRepository(
+                client, new InMemoryLockStrategy(), config,
+                Collections.singletonMap("String", StringDocumentEvent::new), fixedClock, null,
+                BulkRequestChunking.none(), DocumentEventPartitioning.none(), null,
+                PriorityWindowing.none(), false, true);
+
+        Instant expired = fixedClock.instant()
+                .minus(PROCESSING_TIMEOUT)
+                .minus(1, ChronoUnit.SECONDS);
+
+        insertDocumentEventsProcessingSince(expired, 3);
+
+        Truth.assertThat(repository.retrievePriorityDocumentEventsUpTo(10)).isEmpty();
+
+        lockStrategy.releaseAll();
+
+        Awaitility.await()
+                .until(() -> findDocumentEventsWithStatus("unprocessed"), Matchers.hasSize(3));
+
+        Truth.assertThat(repository.retrievePriorityDocumentEventsUpTo(10)).hasSize(3);
+    }
+
+    List<DocumentEventEntity> findDocumentEventsWithStatus(String status)
+            throws LightblueException {
+        DataFindRequest find = new DataFindRequest(
+                DocumentEventEntity.ENTITY_NAME,
+                DocumentEventEntity.VERSION);
+
+        find.where(Query.withValue("status", Query.BinOp.eq, status));
+        find.select(Projection.includeFieldRecursively("*"));
+
+        DocumentEventEntity[] found = client.data(find, DocumentEventEntity[].class);
+
+        return Arrays.asList(found);
+    }
+
+    List<NotificationEntity> findNotificationsWithStatus(String status)
+            throws LightblueException {
+        DataFindRequest find = new DataFindRequest(
+                NotificationEntity.ENTITY_NAME,
+                NotificationEntity.ENTITY_VERSION);
+
+        find.where(Query.withValue("status", Query.BinOp.eq, status));
+        find.select(Projection.includeFieldRecursively("*"));
+
+        NotificationEntity[] found = client.data(find, NotificationEntity[].class);
+
+        return Arrays.asList(found);
+    }
+
+    void insertDocumentEventsProcessingSince(Instant processingDate, int count)
+            throws LightblueException {
+        for (int i = 0; i < count; i++) {
+            StringDocumentEvent event = new StringDocumentEvent(null, UUID.randomUUID().toString(),
+                    fixedClock);
+
+            DocumentEventEntity entity = event.wrappedDocumentEventEntity();
+            entity.setStatus(DocumentEventEntity.Status.processing);
+            entity.setProcessingDate(ZonedDateTime.ofInstant(processingDate, fixedClock.getZone()));
+
+            DataInsertRequest insert = new DataInsertRequest(
+                    DocumentEventEntity.ENTITY_NAME,
+                    DocumentEventEntity.VERSION);
+            insert.create(entity);
+
+            client.data(insert);
+        }
+    }
+
+    void insertNotificationsProcessingSince(Instant processingDate, int count)
+            throws LightblueException {
+        for (int i = 0; i < count; i++) {
+            StringNotification notification = new StringNotification(
+                    UUID.randomUUID().toString(), NotificationEntity.Operation.insert, null,
+                    fixedClock);
+
+            NotificationEntity entity = notification.wrappedNotificationEntity();
+            entity.setStatus(NotificationEntity.Status.processing);
+            entity.setProcessingDate(Date.from(processingDate));
+
+            DataInsertRequest insert = new DataInsertRequest(
+                    NotificationEntity.ENTITY_NAME,
+                    NotificationEntity.ENTITY_VERSION);
+            insert.create(entity);
+
+            client.data(insert);
+        }
+    }
+}
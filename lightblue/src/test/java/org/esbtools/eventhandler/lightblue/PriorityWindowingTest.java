@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class PriorityWindowingTest {
+    @Test
+    public void shouldAlwaysReadFirstWindowWhenNotWindowed() {
+        PriorityWindowing windowing = PriorityWindowing.none();
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(windowing.nextWindow()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void shouldStartAtPollerIndexAndRotateThroughEveryWindow() {
+        PriorityWindowing windowing = new PriorityWindowing(2, 3);
+
+        List<Integer> windows = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            windows.add(windowing.nextWindow());
+        }
+
+        assertThat(windows).containsExactly(2, 0, 1, 2, 0, 1).inOrder();
+    }
+
+    @Test
+    public void shouldReadDisjointWindowsAmongPollersPollingAtSamePace() {
+        List<PriorityWindowing> pollers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            pollers.add(new PriorityWindowing(i, 4));
+        }
+
+        for (int poll = 0; poll < 8; poll++) {
+            Set<Integer> windows = new HashSet<>();
+
+            for (PriorityWindowing poller : pollers) {
+                windows.add(poller.nextWindow());
+            }
+
+            assertThat(windows).containsExactly(0, 1, 2, 3);
+        }
+    }
+
+    @Test
+    public void shouldGiveConsecutivePollsSharingAnInstanceDifferentWindows() {
+        PriorityWindowing shared = new PriorityWindowing(0, 3);
+
+        assertThat(new HashSet<>(
+                Arrays.asList(shared.nextWindow(), shared.nextWindow(),
+                        shared.nextWindow())))
+                .containsExactly(0, 1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectPollerIndexOutsideWindows() {
+        new PriorityWindowing(3, 3);
+    }
+}
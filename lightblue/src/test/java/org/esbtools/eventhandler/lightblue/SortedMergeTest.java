@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class SortedMergeTest {
+    @Test
+    public void shouldMergeSortedResultsInOrder() {
+        List<Integer[]> results = Arrays.asList(new Integer[]{1, 4, 5, 9}, new Integer[]{2, 3, 8});
+
+        assertThat(SortedMerge.mergeUpTo(results, Comparator.naturalOrder(), 0, 10))
+                .containsExactly(1, 2, 3, 4, 5, 8, 9).inOrder();
+    }
+
+    @Test
+    public void shouldHonorLimit() {
+        List<Integer[]> results = Arrays.asList(new Integer[]{1, 4, 5, 9}, new Integer[]{2, 3, 8});
+
+        assertThat(SortedMerge.mergeUpTo(results, Comparator.naturalOrder(), 0, 3))
+                .containsExactly(1, 2, 3).inOrder();
+    }
+
+    @Test
+    public void shouldSkipFirstMergedResults() {
+        List<Integer[]> results = Arrays.asList(new Integer[]{1, 4, 5, 9}, new Integer[]{2, 3, 8});
+
+        assertThat(SortedMerge.mergeUpTo(results, Comparator.naturalOrder(), 2, 3))
+                .containsExactly(3, 4, 5).inOrder();
+    }
+
+    @Test
+    public void shouldMergeInGivenOrder() {
+        List<Integer[]> results = Arrays.asList(new Integer[]{9, 5}, new Integer[]{8, 7, 1});
+
+        assertThat(SortedMerge.mergeUpTo(results, Comparator.reverseOrder(), 0, 10))
+                .containsExactly(9, 8, 7, 5, 1).inOrder();
+    }
+
+    @Test
+    public void shouldPreferEarlierResultsAmongTies() {
+        List<String[]> results = Arrays.asList(new String[]{"a1", "b1"}, new String[]{"a2"});
+
+        assertThat(SortedMerge.mergeUpTo(results, Comparator.comparing(s -> s.charAt(0)), 0, 10))
+                .containsExactly("a1", "a2", "b1").inOrder();
+    }
+
+    @Test
+    public void shouldHandleEmptyResults() {
+        List<Integer[]> results = Arrays.asList(new Integer[0], new Integer[]{1}, new Integer[0]);
+
+        assertThat(SortedMerge.mergeUpTo(results, Comparator.naturalOrder(), 0, 10))
+                .containsExactly(1);
+        assertThat(SortedMerge.mergeUpTo(results, Comparator.naturalOrder(), 1, 10)).isEmpty();
+    }
+}
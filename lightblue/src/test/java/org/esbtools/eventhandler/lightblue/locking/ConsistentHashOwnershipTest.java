@@ -0,0 +1,143 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.locking;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.esbtools.eventhandler.lightblue.testing.InMemoryLockStrategy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class ConsistentHashOwnershipTest {
+    private final InMemoryLockStrategy lockStrategy = new InMemoryLockStrategy();
+    private final Clock clock = Clock.fixed(Instant.now(), ZoneOffset.UTC);
+
+    private final Set<String> types = new HashSet<>();
+
+    @Before
+    public void initializeTypes() {
+        for (int i = 0; i < 50; i++) {
+            types.add("Type" + i);
+        }
+    }
+
+    @After
+    public void releaseLocks() {
+        lockStrategy.releaseAll();
+    }
+
+    @Test
+    public void shouldOwnAllCandidatesWhenOnlyMember() {
+        ConsistentHashOwnership ownership = newOwnership();
+
+        assertThat(ownership.ownedAmong(types)).containsExactlyElementsIn(types);
+    }
+
+    @Test
+    public void shouldSplitCandidatesDisjointlyAmongMembers() {
+        ConsistentHashOwnership first = newOwnership();
+        ConsistentHashOwnership second = newOwnership();
+
+        // First member claims everything before the second joins; it has to let go first.
+        first.ownedAmong(types);
+        second.ownedAmong(types);
+        first.invalidate();
+        Set<String> ownedByFirst = first.ownedAmong(types);
+        second.invalidate();
+        Set<String> ownedBySecond = second.ownedAmong(types);
+
+        assertThat(ownedByFirst).isNotEmpty();
+        assertThat(ownedBySecond).isNotEmpty();
+
+        Set<String> overlap = new HashSet<>(ownedByFirst);
+        overlap.retainAll(ownedBySecond);
+        assertThat(overlap).isEmpty();
+
+        Set<String> union = new HashSet<>(ownedByFirst);
+        union.addAll(ownedBySecond);
+        assertThat(union).containsExactlyElementsIn(types);
+    }
+
+    @Test
+    public void shouldNotOwnCandidatesStillLeasedByAnotherMember() {
+        ConsistentHashOwnership first = newOwnership();
+        ConsistentHashOwnership second = newOwnership();
+
+        first.ownedAmong(types);
+        Set<String> ownedBySecond = second.ownedAmong(types);
+
+        assertThat(ownedBySecond).isEmpty();
+    }
+
+    @Test
+    public void shouldRebalanceCandidatesWhenMemberLeaves() throws Exception {
+        ConsistentHashOwnership first = newOwnership();
+        ConsistentHashOwnership second = newOwnership();
+
+        first.ownedAmong(types);
+        second.ownedAmong(types);
+        first.invalidate();
+        first.ownedAmong(types);
+
+        second.close();
+        first.invalidate();
+
+        assertThat(first.ownedAmong(types)).containsExactlyElementsIn(types);
+    }
+
+    @Test
+    public void shouldNotRefreshBeforeRefreshIntervalWhenCandidatesAreUnchanged() {
+        ConsistentHashOwnership first = newOwnership();
+        Set<String> owned = first.ownedAmong(types);
+
+        ConsistentHashOwnership second = newOwnership();
+        second.ownedAmong(types);
+
+        assertThat(first.ownedAmong(types)).isSameAs(owned);
+    }
+
+    @Test
+    public void shouldOwnNothingWhenAllMemberSlotsAreTaken() {
+        ConsistentHashOwnership first = new ConsistentHashOwnership("test", lockStrategy, 1, 8,
+                Duration.ofMinutes(1), clock);
+        ConsistentHashOwnership second = new ConsistentHashOwnership("test", lockStrategy, 1, 8,
+                Duration.ofMinutes(1), clock);
+
+        first.ownedAmong(types);
+
+        assertThat(second.ownedAmong(types)).isEmpty();
+    }
+
+    private ConsistentHashOwnership newOwnership() {
+        return new ConsistentHashOwnership("test", lockStrategy, 4, 16, Duration.ofMinutes(1),
+                clock);
+    }
+}
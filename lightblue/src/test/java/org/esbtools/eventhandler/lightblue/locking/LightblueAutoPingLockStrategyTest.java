@@ -18,12 +18,14 @@
 
 package org.esbtools.eventhandler.lightblue.locking;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import org.esbtools.eventhandler.lightblue.testing.InMemoryLocking;
 
+import com.redhat.lightblue.client.LightblueException;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Rule;
@@ -35,9 +37,13 @@ import org.junit.runners.JUnit4;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @RunWith(JUnit4.class)
 public class LightblueAutoPingLockStrategyTest {
@@ -53,6 +59,10 @@ public class LightblueAutoPingLockStrategyTest {
             new LightblueAutoPingLockStrategy(inMemoryLocking,
                     Duration.ofMillis(100), Duration.ofMillis(500));
 
+    LightblueAutoPingLockStrategy lockStrategy100MsPing500msTtl3Threads =
+            new LightblueAutoPingLockStrategy(inMemoryLocking,
+                    Duration.ofMillis(100), Duration.ofMillis(500), 3);
+
     ExecutorService executor = Executors.newFixedThreadPool(5);
 
     /**
@@ -75,6 +85,15 @@ public class LightblueAutoPingLockStrategyTest {
         });
 
         InMemoryLocking.releaseAll();
+
+        for (LightblueAutoPingLockStrategy strategy : Arrays.asList(lockStrategy2SecondPing,
+                lockStrategy100MsPing500msTtl, lockStrategy100MsPing500msTtl3Threads)) {
+            try {
+                strategy.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     @Test(expected = LockNotAvailableException.class)
@@ -183,4 +202,112 @@ public class LightblueAutoPingLockStrategyTest {
                     inMemoryLocking.waitUntilNextPingAtMost(Duration.ofSeconds(1)));
         }
     }
+
+    @Test
+    public void shouldMaintainManyLocksPastTheirOriginalTtlUsingSharedPingThreads()
+            throws Exception {
+        for (int i = 0; i < 20; i++) {
+            lockedResources.add(lockStrategy100MsPing500msTtl3Threads.tryAcquire("resource" + i));
+        }
+
+        // Sleep past TTL.
+        Thread.sleep(2000);
+
+        for (int i = 0; i < 20; i++) {
+            assertFalse("The lock expired: resource" + i,
+                    inMemoryLocking.acquire("resource" + i));
+        }
+    }
+
+    @Test
+    public void shouldReleaseHeldLocksWhenClosed() throws Exception {
+        lockedResources.add(lockStrategy100MsPing500msTtl.tryAcquire("resource1"));
+        lockedResources.add(lockStrategy100MsPing500msTtl.tryAcquire("resource2"));
+
+        lockStrategy100MsPing500msTtl.close();
+
+        assertTrue(inMemoryLocking.acquire("resource1"));
+        assertTrue(inMemoryLocking.acquire("resource2"));
+    }
+
+    @Test
+    public void shouldStopPingingReleasedLocks() throws Exception {
+        LockedResource<String> lock = lockStrategy100MsPing500msTtl.tryAcquire("resource1");
+        lockedResources.add(lock);
+
+        lock.close();
+
+        assertFalse("Got a ping after lock was released.",
+                inMemoryLocking.waitUntilNextPingAtMost(Duration.ofMillis(500)));
+    }
+
+    @Test
+    public void shouldKeepPingingLocksWhichFailedToRelease() throws Exception {
+        AtomicInteger releaseFailures = new AtomicInteger(1);
+        InMemoryLocking failingToReleaseOnce = new InMemoryLocking() {
+            @Override
+            public boolean release(String callerId, String resourceId) throws LightblueException {
+                if (releaseFailures.getAndDecrement() > 0) {
+                    throw new LightblueException("Simulated failure to release");
+                }
+
+                return super.release(callerId, resourceId);
+            }
+        };
+
+        try (LightblueAutoPingLockStrategy lockStrategy = new LightblueAutoPingLockStrategy(
+                failingToReleaseOnce, Duration.ofMillis(100), Duration.ofMillis(500))) {
+            LockedResource<String> lock = lockStrategy.tryAcquire("resource1");
+            lockedResources.add(lock);
+
+            try {
+                lock.close();
+                fail("Expected release to fail");
+            } catch (IOException expected) {
+            }
+
+            // Sleep past TTL.
+            Thread.sleep(1000);
+
+            assertFalse("The lock expired after failing to release.",
+                    inMemoryLocking.acquire("resource1"));
+
+            lock.close();
+
+            assertTrue(inMemoryLocking.acquire("resource1"));
+        }
+    }
+
+    @Test
+    public void shouldReportWhichLocksWereAndWereNotAcquiredInBulk() throws Exception {
+        lockedResources.add(lockStrategy2SecondPing.tryAcquire("resource2"));
+
+        Lockable resource1 = () -> "resource1";
+        Lockable resource2 = () -> "resource2";
+        Lockable resource3 = () -> "resource3";
+
+        LockedResources<Lockable> locks = lockStrategy100MsPing500msTtl3Threads
+                .tryAcquireAll(Arrays.asList(resource1, resource2, resource3));
+        lockedResources.addAll(locks.getLocks());
+
+        assertEquals(Arrays.asList(resource1, resource3), locks.getLocks().stream()
+                .map(LockedResource::getResource)
+                .collect(Collectors.toList()));
+        assertEquals(Collections.singletonList(resource2), new ArrayList<>(locks.getUnavailable()));
+    }
+
+    @Test
+    public void shouldReleaseLocksAcquiredInBulk() throws Exception {
+        Lockable resource1 = () -> "resource1";
+        Lockable resource2 = () -> "resource2";
+
+        LockedResources<Lockable> locks = lockStrategy100MsPing500msTtl3Threads
+                .tryAcquireAll(Arrays.asList(resource1, resource2));
+        lockedResources.addAll(locks.getLocks());
+
+        locks.close();
+
+        assertTrue(inMemoryLocking.acquire("resource1"));
+        assertTrue(inMemoryLocking.acquire("resource2"));
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.testing;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.redhat.lightblue.client.request.CRUDRequest;
+import com.redhat.lightblue.client.util.ClientConstants;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Translates the queries, sorts, and ranges of lightblue requests into their mongo equivalents, so
+ * tests can ask mongo how it plans the requests we actually send.
+ *
+ * <p>Only supports the subset of lightblue's query language our requests use: value comparisons,
+ * {@code $in}, {@code $and}, and {@code $or}.
+ */
+public abstract class MongoQueries {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Pattern LIGHTBLUE_DATE =
+            Pattern.compile("\\d{8}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}[+-]\\d{4}");
+
+    /**
+     * @return The names of the indexes mongo's winning plan scans for the given request, which
+     * must have a query. Finds are explained with their sort and range.
+     */
+    public static Set<String> indexesUsedBy(CRUDRequest request, DBCollection collection)
+            throws IOException {
+        JsonNode body = mapper.readTree(request.getBody());
+
+        DBCursor cursor = collection.find(query(body.get("query")));
+
+        if (body.has("sort")) {
+            cursor.sort(sort(body.get("sort")));
+        }
+
+        // Depending on client version, ranges are sent as "range": [from, to] or as "from", "to".
+        JsonNode range = body.path("range");
+        JsonNode from = range.size() == 2 ? range.get(0) : body.path("from");
+        JsonNode to = range.size() == 2 ? range.get(1) : body.path("to");
+
+        if (from.isNumber() && to.isNumber()) {
+            cursor.skip(from.asInt()).limit(to.asInt() - from.asInt() + 1);
+        }
+
+        Set<String> indexNames = new TreeSet<>();
+        collectIndexNames(cursor.explain(), indexNames);
+        return indexNames;
+    }
+
+    static DBObject query(JsonNode query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Request has no query.");
+        }
+
+        if (query.has("$and") || query.has("$or")) {
+            String op = query.has("$and") ? "$and" : "$or";
+            BasicDBList clauses = new BasicDBList();
+            query.get(op).forEach(clause -> clauses.add(query(clause)));
+            return new BasicDBObject(op, clauses);
+        }
+
+        String field = query.path("field").asText();
+        String op = query.path("op").asText();
+
+        if (query.has("values")) {
+            BasicDBList values = new BasicDBList();
+            query.get("values").forEach(value -> values.add(value(value)));
+            return new BasicDBObject(field, new BasicDBObject(naryOperator(op), values));
+        }
+
+        if (!query.has("rvalue")) {
+            throw new UnsupportedOperationException("Unsupported query: " + query);
+        }
+
+        Object value = value(query.get("rvalue"));
+
+        switch (op) {
+            case "=":
+            case "$eq":
+                return new BasicDBObject(field, value);
+            case "!=":
+            case "$ne":
+            case "$neq":
+                return new BasicDBObject(field, new BasicDBObject("$ne", value));
+            case "<":
+            case "$lt":
+                return new BasicDBObject(field, new BasicDBObject("$lt", value));
+            case "<=":
+            case "$lte":
+                return new BasicDBObject(field, new BasicDBObject("$lte", value));
+            case ">":
+            case "$gt":
+                return new BasicDBObject(field, new BasicDBObject("$gt", value));
+            case ">=":
+            case "$gte":
+                return new BasicDBObject(field, new BasicDBObject("$gte", value));
+            default:
+                throw new UnsupportedOperationException("Unsupported operator: " + query);
+        }
+    }
+
+    static DBObject sort(JsonNode sort) {
+        BasicDBObject mongoSort = new BasicDBObject();
+
+        for (JsonNode key : sort.isArray() ? sort : mapper.createArrayNode().add(sort)) {
+            Iterator<Map.Entry<String, JsonNode>> fields = key.fields();
+
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                mongoSort.append(field.getKey(),
+                        "$desc".equals(field.getValue().asText()) ? -1 : 1);
+            }
+        }
+
+        return mongoSort;
+    }
+
+    private static String naryOperator(String op) {
+        switch (op) {
+            case "$in":
+                return "$in";
+            case "$nin":
+            case "$not_in":
+                return "$nin";
+            default:
+                throw new UnsupportedOperationException("Unsupported operator: " + op);
+        }
+    }
+
+    /** Lightblue stores dates as mongo dates, but sends them as formatted strings. */
+    private static Object value(JsonNode value) {
+        if (value.isNull()) {
+            return null;
+        }
+
+        if (value.isNumber()) {
+            return value.numberValue();
+        }
+
+        if (value.isBoolean()) {
+            return value.booleanValue();
+        }
+
+        String text = value.asText();
+
+        if (LIGHTBLUE_DATE.matcher(text).matches()) {
+            try {
+                return new SimpleDateFormat(ClientConstants.LIGHTBLUE_DATE_FORMAT_STR).parse(text);
+            } catch (ParseException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        return text;
+    }
+
+    /**
+     * Looks for index scans in the winning plan only, not rejected plans. Older mongo versions
+     * instead name the index in a cursor description, like "BtreeCursor name reverse".
+     */
+    private static void collectIndexNames(Object explain, Set<String> indexNames) {
+        if (!(explain instanceof DBObject)) {
+            return;
+        }
+
+        DBObject object = (DBObject) explain;
+
+        if (object.containsField("queryPlanner")) {
+            collectIndexNames(((DBObject) object.get("queryPlanner")).get("winningPlan"),
+                    indexNames);
+            return;
+        }
+
+        if (object.get("indexName") instanceof String) {
+            indexNames.add((String) object.get("indexName"));
+        }
+
+        if (object.get("cursor") instanceof String) {
+            String[] cursor = ((String) object.get("cursor")).split(" ");
+
+            if (cursor.length > 1 && cursor[0].equals("BtreeCursor")) {
+                indexNames.add(cursor[1]);
+            }
+        }
+
+        for (String key : object.keySet()) {
+            if (!key.equals("allPlans") && !key.equals("rejectedPlans")) {
+                collectIndexNames(object.get(key), indexNames);
+            }
+        }
+    }
+}
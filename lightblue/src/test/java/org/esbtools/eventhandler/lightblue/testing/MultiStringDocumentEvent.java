@@ -34,6 +34,7 @@ import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Future;
@@ -130,6 +131,21 @@ public class MultiStringDocumentEvent implements LightblueDocumentEvent {
         return new MultiStringDocumentEvent(null, mergedValues, clock);
     }
 
+    @Override
+    public LightblueDocumentEvent mergeAll(List<? extends DocumentEvent> events) {
+        Set<String> mergedValues = new HashSet<>(this.values);
+
+        for (DocumentEvent event : events) {
+            if (!couldMergeWith(event)) {
+                throw new IllegalArgumentException(event.toString());
+            }
+
+            mergedValues.addAll(((MultiStringDocumentEvent) event).values);
+        }
+
+        return new MultiStringDocumentEvent(null, mergedValues, clock);
+    }
+
     @Override
     public Identity identity() {
         return new TypeIdentity(MultiStringDocumentEvent.class);
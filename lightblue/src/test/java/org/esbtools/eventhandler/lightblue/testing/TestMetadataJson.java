@@ -18,6 +18,8 @@
 
 package org.esbtools.eventhandler.lightblue.testing;
 
+import org.esbtools.eventhandler.lightblue.client.EntityIndexes;
+
 import com.redhat.lightblue.client.integration.test.LightblueExternalResource;
 import com.redhat.lightblue.metadata.EntityMetadata;
 import com.redhat.lightblue.metadata.parser.Extensions;
@@ -28,6 +30,7 @@ import com.redhat.lightblue.mongo.metadata.MongoDataStoreParser;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.redhat.lightblue.generator.MetadataGenerator;
 import com.redhat.lightblue.generator.javabeans.JavaBeansReflector;
 
@@ -63,6 +66,8 @@ public abstract class TestMetadataJson {
     private static JsonNode entityClassAsTestableJsonMetadata(Class<?> entityClass) {
         EntityMetadata entityMd = metadataGenerator.generateMetadata(entityClass);
         entityMd.setDataStore(new MongoDataStore("${mongo.database}", "${mongo.datasource}", entityMd.getName()));
-        return parser.convert(entityMd);
+        JsonNode metadataJson = parser.convert(entityMd);
+        EntityIndexes.addTo((ObjectNode) metadataJson);
+        return metadataJson;
     }
 }
@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2016 esbtools Contributors and/or its affiliates.
+ *
+ *  This file is part of esbtools.
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.esbtools.eventhandler.lightblue.testing;
+
+import com.google.common.util.concurrent.Futures;
+import org.esbtools.eventhandler.DocumentEvent;
+import org.esbtools.eventhandler.lightblue.CoalescableDocumentEvent;
+import org.esbtools.eventhandler.lightblue.DocumentEventEntity;
+import org.esbtools.eventhandler.lightblue.DocumentEventEntity.KeyAndValue;
+import org.esbtools.eventhandler.lightblue.Identity;
+import org.esbtools.eventhandler.lightblue.LightblueDocumentEvent;
+import org.esbtools.eventhandler.lightblue.TypeAndValueIdentity;
+import org.esbtools.eventhandler.lightblue.client.LightblueRequester;
+
+import javax.annotation.Nullable;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.Objects;
+import java.util.concurrent.Future;
+
+/**
+ * A test document event which looks up a version of a predetermined String value. The canonical
+ * type of the document is simply "VersionedString".
+ *
+ * <p>This is useful for testing coalescing. Events coalesce by value, and the highest version
+ * supersedes the others. Events share an identity with {@link StringDocumentEvent}s of the same
+ * value, which are not coalescable and supersede any version.
+ */
+public final class VersionedStringDocumentEvent implements CoalescableDocumentEvent {
+    private final String value;
+    private final long version;
+    private final ZonedDateTime creationDate;
+    private final DocumentEventEntity wrappedEntity;
+
+    public VersionedStringDocumentEvent(@Nullable String sourceNotificationId, String value,
+            long version, Clock clock) {
+        this.value = value;
+        this.version = version;
+
+        creationDate = ZonedDateTime.now(clock);
+
+        wrappedEntity = DocumentEventEntity.newlyCreated(sourceNotificationId, "VersionedString",
+                50, creationDate, new KeyAndValue("value", value),
+                new KeyAndValue("version", Long.toString(version)));
+    }
+
+    public VersionedStringDocumentEvent(DocumentEventEntity wrappedEntity) {
+        this.wrappedEntity = wrappedEntity;
+
+        value = wrappedEntity.getParameterByKey("value");
+        version = Long.parseLong(wrappedEntity.getParameterByKey("version"));
+        creationDate = wrappedEntity.getCreationDate();
+    }
+
+    public VersionedStringDocumentEvent(DocumentEventEntity wrappedEntity,
+            LightblueRequester requester) {
+        this(wrappedEntity);
+    }
+
+    public String value() {
+        return value;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public DocumentEventEntity wrappedDocumentEventEntity() {
+        return wrappedEntity;
+    }
+
+    @Override
+    public Future<?> lookupDocument() {
+        return Futures.immediateFuture(value + "@" + version);
+    }
+
+    @Override
+    public boolean isSupersededBy(DocumentEvent event) {
+        DocumentEventEntity otherEntity;
+
+        if (event instanceof StringDocumentEvent) {
+            StringDocumentEvent other = (StringDocumentEvent) event;
+
+            if (!Objects.equals(other.value(), value)) {
+                return false;
+            }
+
+            otherEntity = other.wrappedDocumentEventEntity();
+        } else if (event instanceof VersionedStringDocumentEvent) {
+            VersionedStringDocumentEvent other = (VersionedStringDocumentEvent) event;
+
+            if (!Objects.equals(other.value, value) || other.version < version) {
+                return false;
+            }
+
+            otherEntity = other.wrappedDocumentEventEntity();
+        } else {
+            return false;
+        }
+
+        if (Objects.equals(otherEntity.getStatus(), DocumentEventEntity.Status.published) &&
+                otherEntity.getProcessedDate().isBefore(creationDate)) {
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean couldMergeWith(DocumentEvent event) {
+        return false;
+    }
+
+    @Override
+    public LightblueDocumentEvent merge(DocumentEvent event) {
+        throw new UnsupportedOperationException("Can't do that");
+    }
+
+    @Override
+    public Object coalescingKey() {
+        return value;
+    }
+
+    @Override
+    public long coalescingVersion() {
+        return version;
+    }
+
+    @Override
+    public Identity identity() {
+        return new TypeAndValueIdentity(StringDocumentEvent.class, value);
+    }
+
+    @Override
+    public String toString() {
+        return "VersionedStringDocumentEvent{" +
+                "value='" + value + '\'' +
+                ", version=" + version +
+                ", creationDate=" + creationDate +
+                ", wrappedEntity=" + wrappedEntity +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        VersionedStringDocumentEvent that = (VersionedStringDocumentEvent) o;
+        return version == that.version &&
+                Objects.equals(value, that.value) &&
+                Objects.equals(creationDate, that.creationDate) &&
+                Objects.equals(wrappedEntity, that.wrappedEntity);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(value, version, creationDate, wrappedEntity);
+    }
+}